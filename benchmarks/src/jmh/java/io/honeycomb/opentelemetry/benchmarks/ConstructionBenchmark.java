@@ -0,0 +1,31 @@
+package io.honeycomb.opentelemetry.benchmarks;
+
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures creating exporters and clients. Both use a {@link NoopTransport}, so no HTTP client or batching threads
+ * are started and nothing needs closing.
+ */
+@State(Scope.Benchmark)
+public class ConstructionBenchmark {
+
+    @Benchmark
+    public HoneycombSpanExporter builder() {
+        return HoneycombSpanExporter.newBuilder("benchmark")
+            .writeKey("key")
+            .dataSet("dataset")
+            .transport(new NoopTransport())
+            .build();
+    }
+
+    @Benchmark
+    public HoneyClient client() {
+        return new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), new NoopTransport());
+    }
+}
@@ -0,0 +1,63 @@
+package io.honeycomb.opentelemetry.benchmarks;
+
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link HoneycombSpanExporter#export} against a {@link NoopTransport}, i.e. the conversion of spans to
+ * events and libhoney's handling of them up to the point of submission. Scores are per span.
+ */
+@State(Scope.Benchmark)
+public class ExporterBenchmark {
+
+    private static final int BATCH_SIZE = 512;
+
+    @Param({"4", "16", "32"})
+    public int attributeCount;
+
+    @Param({"STRING", "MIXED"})
+    public Spans.AttributeTypes attributeTypes;
+
+    /**
+     * 1 shares a single Resource between all spans, as a single tracer provider does; 64 spreads them over more
+     * distinct Resources than the exporter caches.
+     */
+    @Param({"1", "64"})
+    public int resources;
+
+    private HoneycombSpanExporter exporter;
+    private List<SpanData> spans;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), new NoopTransport());
+        exporter = new HoneycombSpanExporter(client, "benchmark");
+        spans = Spans.create(BATCH_SIZE, attributeCount, attributeTypes, resources);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        exporter.shutdown().join(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public CompletableResultCode export() {
+        return exporter.export(spans);
+    }
+}
@@ -0,0 +1,29 @@
+package io.honeycomb.opentelemetry.benchmarks;
+
+import io.honeycomb.libhoney.eventdata.ResolvedEvent;
+import io.honeycomb.libhoney.responses.ResponseObservable;
+import io.honeycomb.libhoney.transport.Transport;
+
+/**
+ * A transport that accepts and discards every event, so that benchmarks measure the exporter and libhoney's event
+ * handling rather than batching and HTTP.
+ */
+public class NoopTransport implements Transport {
+
+    private final ResponseObservable observable = new ResponseObservable();
+
+    @Override
+    public boolean submit(final ResolvedEvent event) {
+        return true;
+    }
+
+    @Override
+    public ResponseObservable getResponseObservable() {
+        return observable;
+    }
+
+    @Override
+    public void close() {
+        observable.close();
+    }
+}
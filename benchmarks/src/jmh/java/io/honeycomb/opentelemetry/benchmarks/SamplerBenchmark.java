@@ -0,0 +1,116 @@
+package io.honeycomb.opentelemetry.benchmarks;
+
+import io.honeycomb.opentelemetry.samplers.DeterministicTraceSampler;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.trace.Sampler.SamplingResult;
+import io.opentelemetry.trace.Span;
+import io.opentelemetry.trace.SpanContext;
+import io.opentelemetry.trace.TraceFlags;
+import io.opentelemetry.trace.TraceId;
+import io.opentelemetry.trace.TraceState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures {@link DeterministicTraceSampler}'s sampling decision, with each hash algorithm, both directly and through
+ * the SDK's {@code shouldSample} entry point, and deciding for a batch of trace ids at once compared to one at a time.
+ * Batch scores are per trace id. {@code shouldSampleChild} measures a child span of a sampled parent with the
+ * parent-based sampler, which reuses the parent's decision instead of hashing.
+ */
+@State(Scope.Benchmark)
+public class SamplerBenchmark {
+
+    private static final int TRACE_IDS = 1024;
+
+    /**
+     * 1 short-circuits to always sample; other rates hash the trace id.
+     */
+    @Param({"1", "10", "1000"})
+    public int sampleRate;
+
+    @Param({"SHA1", "MURMUR3"})
+    public DeterministicTraceSampler.HashAlgorithm hashAlgorithm;
+
+    private DeterministicTraceSampler sampler;
+    private DeterministicTraceSampler parentBasedSampler;
+    private String[] traceIds;
+    private SpanContext[] parents;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (TRACE_IDS - 1);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        private final int[] rates = new int[TRACE_IDS];
+        private final BitSet sampled = new BitSet(TRACE_IDS);
+    }
+
+    @Setup
+    public void setUp() {
+        sampler = new DeterministicTraceSampler(sampleRate, hashAlgorithm);
+        parentBasedSampler = DeterministicTraceSampler.parentBased(sampleRate, hashAlgorithm);
+        traceIds = new String[TRACE_IDS];
+        parents = new SpanContext[TRACE_IDS];
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TRACE_IDS; i++) {
+            traceIds[i] = TraceId.fromLongs(random.nextLong(), random.nextLong());
+            parents[i] = SpanContext.create(traceIds[i], "0102030405060708", TraceFlags.getSampled(),
+                TraceState.getDefault());
+        }
+    }
+
+    @Benchmark
+    public int sample(final Cursor cursor) {
+        return sampler.sample(traceIds[cursor.next()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRACE_IDS)
+    public int[] sampleEach(final Batch batch) {
+        for (int i = 0; i < TRACE_IDS; i++) {
+            batch.rates[i] = sampler.sample(traceIds[i]);
+        }
+        return batch.rates;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRACE_IDS)
+    public int[] sampleBatch(final Batch batch) {
+        sampler.sample(traceIds, batch.rates);
+        return batch.rates;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRACE_IDS)
+    public BitSet sampleBatchBitSet(final Batch batch) {
+        sampler.sample(traceIds, batch.sampled);
+        return batch.sampled;
+    }
+
+    @Benchmark
+    public SamplingResult shouldSample(final Cursor cursor) {
+        return sampler.shouldSample(SpanContext.getInvalid(), traceIds[cursor.next()], "span",
+            Span.Kind.SERVER, Attributes.empty(), Collections.emptyList());
+    }
+
+    @Benchmark
+    public SamplingResult shouldSampleChild(final Cursor cursor) {
+        final int next = cursor.next();
+        return parentBasedSampler.shouldSample(parents[next], traceIds[next], "span",
+            Span.Kind.SERVER, Attributes.empty(), Collections.emptyList());
+    }
+}
@@ -0,0 +1,85 @@
+package io.honeycomb.opentelemetry.benchmarks;
+
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.TracerSdkProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span;
+import io.opentelemetry.trace.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.opentelemetry.common.AttributeKey.longKey;
+import static io.opentelemetry.common.AttributeKey.stringKey;
+
+/**
+ * Creates finished spans through the SDK, as the exporter would receive them from a span processor.
+ */
+public final class Spans {
+
+    /**
+     * The attribute types spans are created with.
+     */
+    public enum AttributeTypes {
+        STRING, LONG, DOUBLE, BOOLEAN, MIXED
+    }
+
+    private Spans() {
+    }
+
+    /**
+     * @param count          number of spans to create.
+     * @param attributeCount number of attributes per span.
+     * @param types          of the span attributes.
+     * @param resources      number of distinct Resources the spans are spread over; 1 to share a single Resource.
+     * @return the spans.
+     */
+    static List<SpanData> create(final int count, final int attributeCount, final AttributeTypes types,
+                                 final int resources) {
+        final List<Tracer> tracers = new ArrayList<>(resources);
+        for (int i = 0; i < resources; i++) {
+            final Resource resource = Resource.create(Attributes.of(
+                stringKey("service.name"), "benchmark",
+                stringKey("host.name"), "host-" + i,
+                longKey("process.pid"), 4242L));
+            tracers.add(TracerSdkProvider.builder().setResource(resource).build().get("benchmark"));
+        }
+
+        final List<SpanData> spans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Span.Builder builder = tracers.get(i % resources)
+                .spanBuilder("span-" + (i % 16))
+                .setSpanKind(Span.Kind.SERVER);
+            for (int a = 0; a < attributeCount; a++) {
+                setAttribute(builder, a, types);
+            }
+            final Span span = builder.startSpan();
+            span.end();
+            spans.add(((ReadableSpan) span).toSpanData());
+        }
+        return spans;
+    }
+
+    private static void setAttribute(final Span.Builder builder, final int index, final AttributeTypes types) {
+        final String name = "attribute." + index;
+        final AttributeTypes type = types == AttributeTypes.MIXED ? AttributeTypes.values()[index % 4] : types;
+        switch (type) {
+            case STRING:
+                builder.setAttribute(name, "value-" + index);
+                break;
+            case LONG:
+                builder.setAttribute(name, (long) index * 1_000);
+                break;
+            case DOUBLE:
+                builder.setAttribute(name, index / 3d);
+                break;
+            case BOOLEAN:
+                builder.setAttribute(name, index % 2 == 0);
+                break;
+            default:
+                throw new IllegalArgumentException(type.name());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.honeycomb.opentelemetry.benchmarks;
+
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporterBuilder;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Measures {@link HoneycombSpanExporter#export} up to the acknowledgement of every event, against a local Jetty
+ * stand-in for Honeycomb's batch endpoint, with libhoney's HTTP/1.1 client compared to the HTTP/2 transport. Each
+ * export is split into many small batches, so that requests are sent concurrently. Scores are per span.
+ */
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+    private static final int SPANS = 512;
+    private static final int BATCH_SIZE = 32;
+    private static final byte[] EVENT = "{\"time\":".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Transport { HTTP_1_1, HTTP_2 }
+
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public Transport transport;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private Server server;
+    private HoneycombSpanExporter exporter;
+    private List<SpanData> spans;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // the stand-in speaks HTTP/1.1 and cleartext HTTP/2 with prior knowledge on the same port
+        server = new Server();
+        final HttpConfiguration configuration = new HttpConfiguration();
+        final ServerConnector connector = new ServerConnector(server,
+            new HttpConnectionFactory(configuration), new HTTP2CServerConnectionFactory(configuration));
+        connector.setHost("localhost");
+        server.addConnector(connector);
+        server.setHandler(new AcceptingHandler());
+        server.start();
+
+        final HoneycombSpanExporterBuilder builder = HoneycombSpanExporter.newBuilder("benchmark")
+            .apiHost("http://localhost:" + connector.getLocalPort())
+            .writeKey("key")
+            .dataSet("dataset")
+            .batchSize(BATCH_SIZE)
+            .batchTimeoutMillis(1)
+            .streamingJsonEncoding(true)
+            .http2(transport == Transport.HTTP_2)
+            .awaitAcknowledgement(true);
+        if (compressed) {
+            builder.gzipCompression(1);
+        }
+        exporter = builder.build();
+        spans = Spans.create(SPANS, 16, Spans.AttributeTypes.MIXED, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        exporter.shutdown().join(10, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPANS)
+    public CompletableResultCode export() {
+        return exporter.export(spans).join(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Accepts every event of a batch, counting them without parsing the body.
+     */
+    private static final class AcceptingHandler extends AbstractHandler {
+        @Override
+        public void handle(final String target, final Request baseRequest, final HttpServletRequest request,
+                           final HttpServletResponse response) throws IOException {
+            int events = 0;
+            int matched = 0;
+            try (InputStream body = "gzip".equals(request.getHeader("Content-Encoding"))
+                ? new GZIPInputStream(request.getInputStream()) : request.getInputStream()) {
+                final byte[] buffer = new byte[8192];
+                for (int read = body.read(buffer); read != -1; read = body.read(buffer)) {
+                    for (int i = 0; i < read; i++) {
+                        matched = buffer[i] == EVENT[matched] ? matched + 1 : buffer[i] == EVENT[0] ? 1 : 0;
+                        if (matched == EVENT.length) {
+                            events++;
+                            matched = 0;
+                        }
+                    }
+                }
+            }
+            final StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < events; i++) {
+                json.append(i == 0 ? "" : ",").append("{\"status\":202}");
+            }
+            final byte[] bytes = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+            response.setContentType("application/json");
+            response.setContentLength(bytes.length);
+            try (OutputStream out = response.getOutputStream()) {
+                out.write(bytes);
+            }
+            baseRequest.setHandled(true);
+        }
+    }
+}
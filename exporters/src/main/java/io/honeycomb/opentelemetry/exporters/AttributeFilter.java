@@ -0,0 +1,127 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which span and resource attributes become event fields, under which name, and how long their string values
+ * may be, as configured through {@link HoneycombSpanExporterBuilder}.
+ * <p>
+ * The allow list, deny list, renames and per-key truncation are compiled into a single hash map from attribute key to
+ * {@link Rule} when the exporter is built, so that each attribute costs one lookup during conversion. Keys without an
+ * entry share a default rule, or are dropped if an allow list is set.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are immutable and can be shared.
+ */
+class AttributeFilter {
+
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final Rule DROP = new Rule(null, 0);
+
+    private final Map<String, Rule> rules;
+    private final Rule defaultRule;
+    private final int maxFields;
+
+    /**
+     * @param allowed        keys to keep, all others being dropped; empty to keep all keys not denied.
+     * @param denied         keys to drop, taking precedence over all other settings.
+     * @param renames        field names by attribute key, for attributes to send under another name.
+     * @param maxLengths     maximum string value lengths by attribute key, overriding {@code maxValueLength}.
+     * @param maxValueLength maximum length of string values, in chars, or {@link #UNLIMITED}.
+     * @param maxFields      maximum number of attribute fields per event, or {@link #UNLIMITED}.
+     */
+    AttributeFilter(final Set<String> allowed, final Set<String> denied, final Map<String, String> renames,
+                    final Map<String, Integer> maxLengths, final int maxValueLength, final int maxFields) {
+        if (allowed == null || denied == null || renames == null || maxLengths == null) {
+            throw new IllegalArgumentException();
+        }
+        if (maxValueLength < 1 || maxFields < 0) {
+            throw new IllegalArgumentException();
+        }
+        final Set<String> keys = new HashSet<>(allowed);
+        keys.addAll(renames.keySet());
+        keys.addAll(maxLengths.keySet());
+        keys.removeAll(denied);
+
+        final Map<String, Rule> rules = new HashMap<>();
+        for (String key : keys) {
+            if (!allowed.isEmpty() && !allowed.contains(key)) {
+                continue;
+            }
+            final Integer maxLength = maxLengths.get(key);
+            if (maxLength != null && maxLength < 1) {
+                throw new IllegalArgumentException();
+            }
+            rules.put(key, new Rule(renames.getOrDefault(key, key), maxLength == null ? maxValueLength : maxLength));
+        }
+        // with an allow list, unknown keys are dropped anyway
+        if (allowed.isEmpty()) {
+            for (String key : denied) {
+                rules.put(key, DROP);
+            }
+        }
+        this.rules = Collections.unmodifiableMap(rules);
+        this.defaultRule = allowed.isEmpty() ? new Rule(null, maxValueLength) : DROP;
+        this.maxFields = maxFields;
+    }
+
+    /**
+     * @param key of the attribute.
+     * @return the rule to apply to the attribute, or null if it is to be dropped.
+     */
+    Rule rule(final String key) {
+        final Rule rule = rules.getOrDefault(key, defaultRule);
+        return rule == DROP ? null : rule;
+    }
+
+    /**
+     * @return the maximum number of attribute fields per event, or {@link #UNLIMITED}.
+     */
+    int getMaxFields() {
+        return maxFields;
+    }
+
+    /**
+     * The field name and value length to apply to an attribute.
+     */
+    static final class Rule {
+        private final String name;
+        private final int maxLength;
+
+        private Rule(final String name, final int maxLength) {
+            this.name = name;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * @param key of the attribute.
+         * @return the field name to send the attribute as.
+         */
+        String name(final String key) {
+            return name == null ? key : name;
+        }
+
+        /**
+         * Truncates string values longer than the maximum length, without splitting a surrogate pair. Other values are
+         * returned as is.
+         *
+         * @param value of the attribute.
+         * @return the field value to send.
+         */
+        Object value(final Object value) {
+            if (!(value instanceof String)) {
+                return value;
+            }
+            final String string = (String) value;
+            if (string.length() <= maxLength) {
+                return string;
+            }
+            final int end = Character.isHighSurrogate(string.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+            return string.substring(0, end);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.honeycomb.libhoney.Event;
+import io.honeycomb.libhoney.ResponseObserver;
+import io.honeycomb.libhoney.responses.ClientRejected;
+import io.honeycomb.libhoney.responses.Response;
+import io.honeycomb.libhoney.responses.ServerAccepted;
+import io.honeycomb.libhoney.responses.ServerRejected;
+import io.honeycomb.libhoney.responses.Unknown;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows the events sent by an exporter through to the response libhoney publishes for each of them, so that the
+ * outcome of an {@link HoneycombSpanExporter#export} call, and the number of events still in flight, are known.
+ * <p>
+ * Each event is tagged with metadata referring to the {@link PendingExport} it was sent by. libhoney hands event
+ * metadata back with every response, whether the event was accepted or rejected by the server, rejected by the client
+ * (for example on {@code QUEUE_OVERFLOW}) or failed for an unknown reason.
+ * <p>
+ * With a {@link SpillQueue}, events are spilled to disk instead of sent while libhoney has more than a watermark of
+ * events outstanding or sending recently failed, and events that overflow libhoney's queue, fail to be sent or are
+ * rejected by a rate limiting or failing server are spilled when their response arrives. A spilled event counts as
+ * accepted. Responses to events replayed from the spill are passed back to it, and replayed events that fail in
+ * these ways are retried ahead of the rest of the spill.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+class ExportTracker implements ResponseObserver {
+
+    static final String METADATA_KEY = "honeycomb.opentelemetry.export";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExportTracker.class);
+
+    private final AtomicLong outstanding = new AtomicLong();
+    private final Set<PendingExport> pendingExports = ConcurrentHashMap.newKeySet();
+    private final SpillQueue spill;
+    private final long spillWatermark;
+
+    ExportTracker() {
+        this(null, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param spill          to spill events to, may be null.
+     * @param spillWatermark the number of outstanding events from which new events are spilled rather than sent.
+     */
+    ExportTracker(final SpillQueue spill, final long spillWatermark) {
+        if (spillWatermark < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.spill = spill;
+        this.spillWatermark = spillWatermark;
+    }
+
+    /**
+     * @return a new pending export, to send the events of one export call through.
+     */
+    PendingExport begin() {
+        final PendingExport pending = new PendingExport();
+        pendingExports.add(pending);
+        return pending;
+    }
+
+    /**
+     * Waits for every event sent before this call to have had a response. Events sent afterwards are not waited for,
+     * so a steady stream of exports cannot hold a flush up indefinitely.
+     *
+     * @param timeoutMillis after which the flush fails, reporting the events still outstanding.
+     * @return the result of the flush.
+     */
+    FlushResult flush(final long timeoutMillis) {
+        final FlushResult result = new FlushResult();
+        final List<PendingExport> snapshot = new ArrayList<>(pendingExports);
+        if (snapshot.isEmpty()) {
+            result.complete(0);
+            return result;
+        }
+
+        final ScheduledFuture<?> deadline = Deadlines.SCHEDULER.schedule(() -> {
+            final long remaining = unacknowledged(snapshot);
+            if (result.complete(remaining)) {
+                LOG.warn("Flush timed out after {} ms with {} events outstanding", timeoutMillis, remaining);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        final AtomicInteger remainingExports = new AtomicInteger(snapshot.size());
+        for (PendingExport pending : snapshot) {
+            pending.result.whenComplete(() -> {
+                if (remainingExports.decrementAndGet() == 0 && result.complete(0)) {
+                    deadline.cancel(false);
+                }
+            });
+        }
+        return result;
+    }
+
+    private static long unacknowledged(final List<PendingExport> exports) {
+        long unacknowledged = 0;
+        for (PendingExport pending : exports) {
+            unacknowledged += pending.unacknowledged.get();
+        }
+        return unacknowledged;
+    }
+
+    /**
+     * @return the number of events that have been handed to libhoney but not yet had a response. Events reserved for
+     * the export queue only count once they are sent, so a full export queue does not push events to the spill.
+     */
+    long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return the spill, or null if events are not spilled.
+     */
+    SpillQueue getSpill() {
+        return spill;
+    }
+
+    /**
+     * @return the number of events outstanding below which spilled events may be replayed; half the watermark, so
+     * that replaying alone does not push new events to the spill.
+     */
+    long getReplayWatermark() {
+        return Math.max(1, spillWatermark / 2);
+    }
+
+    /**
+     * Sends an event replayed from the spill, counting it as outstanding until it has had a response.
+     *
+     * @param event to send, tagged with the spilled event it was read from.
+     */
+    void sendReplayed(final Event event) {
+        outstanding.incrementAndGet();
+        try {
+            event.sendPresampled();
+        } catch (final RuntimeException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean shouldSpill() {
+        return spill != null && (outstanding.get() >= spillWatermark || spill.isReplayPaused());
+    }
+
+    @Override
+    public void onServerAccepted(final ServerAccepted serverAccepted) {
+        acknowledge(serverAccepted, true);
+    }
+
+    @Override
+    public void onServerRejected(final ServerRejected serverRejected) {
+        acknowledge(serverRejected, false);
+    }
+
+    @Override
+    public void onClientRejected(final ClientRejected clientRejected) {
+        acknowledge(clientRejected, false);
+    }
+
+    @Override
+    public void onUnknown(final Unknown unknown) {
+        acknowledge(unknown, false);
+    }
+
+    private void acknowledge(final Response response, final boolean accepted) {
+        final Map<String, Object> metadata = response.getEventMetadata();
+        if (metadata == null) {
+            return;
+        }
+        final Object pending = metadata.get(METADATA_KEY);
+        final boolean tracked = pending instanceof PendingExport && ((PendingExport) pending).tracker() == this;
+        final Object record = metadata.get(SpillQueue.RECORD_METADATA_KEY);
+        final boolean replayed = spill != null && record instanceof SpillQueue.SpilledEvent;
+        if (!tracked && !replayed) {
+            return;
+        }
+
+        final boolean retryable = !accepted && spill != null && SpillQueue.isRetryable(response);
+        if (retryable) {
+            spill.pauseReplay();
+        }
+        if (replayed) {
+            outstanding.decrementAndGet();
+            final SpillQueue.SpilledEvent spilled = (SpillQueue.SpilledEvent) record;
+            if (retryable) {
+                // back at the head rather than the tail, so the oldest events are not starved, nor spans reordered
+                spill.retry(spilled);
+            } else {
+                spill.acknowledge(spilled.getSegment());
+            }
+        }
+        if (tracked) {
+            boolean done = accepted;
+            if (retryable) {
+                final Object retained = metadata.get(SpillQueue.EVENT_METADATA_KEY);
+                done = retained instanceof SpillQueue.Retained
+                    && spill.append(((SpillQueue.Retained) retained).getEvent());
+            }
+            outstanding.decrementAndGet();
+            ((PendingExport) pending).acknowledge(done);
+        }
+    }
+
+    /**
+     * The events of a single export call. Its result completes once every event sent through it has had a response
+     * and {@link #sent()} has been called; it succeeds only if all of them were accepted.
+     */
+    final class PendingExport {
+        // starts at one, so the result cannot complete while events are still being sent
+        private final AtomicInteger remaining = new AtomicInteger(1);
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger unacknowledged = new AtomicInteger();
+        private final CompletableResultCode result = new CompletableResultCode();
+
+        private PendingExport() {
+        }
+
+        /**
+         * Tags and sends the event. If sending throws, the event is counted as failed and the exception rethrown.
+         *
+         * @param event to send.
+         */
+        void send(final Event event) {
+            reserve(1);
+            sendReserved(event);
+        }
+
+        /**
+         * Counts events that will be sent later, e.g. by the drain threads of a {@link SpanExportQueue}, as part of
+         * this export. They are not outstanding until they are sent. Each of them must then be passed to
+         * {@link #sendReserved(Event)} or {@link #dropReserved(int)}.
+         *
+         * @param events to reserve.
+         */
+        void reserve(final int events) {
+            remaining.addAndGet(events);
+            total.addAndGet(events);
+            unacknowledged.addAndGet(events);
+        }
+
+        /**
+         * Tags and sends an event that was reserved with {@link #reserve(int)}. If sending throws, the event is
+         * counted as failed and the exception rethrown.
+         *
+         * @param event to send.
+         */
+        void sendReserved(final Event event) {
+            if (shouldSpill() && spill.append(event)) {
+                acknowledge(true);
+                return;
+            }
+            event.addMetadata(METADATA_KEY, this);
+            if (spill != null) {
+                event.addMetadata(SpillQueue.EVENT_METADATA_KEY, new SpillQueue.Retained(event));
+            }
+            outstanding.incrementAndGet();
+            try {
+                event.sendPresampled();
+            } catch (final RuntimeException e) {
+                outstanding.decrementAndGet();
+                acknowledge(false);
+                throw e;
+            }
+        }
+
+        /**
+         * Counts reserved events that will not be sent after all as failed.
+         *
+         * @param events to drop.
+         */
+        void dropReserved(final int events) {
+            for (int i = 0; i < events; i++) {
+                acknowledge(false);
+            }
+        }
+
+        /**
+         * Marks the end of sending events for this export.
+         */
+        void sent() {
+            release();
+        }
+
+        CompletableResultCode getResult() {
+            return result;
+        }
+
+        private ExportTracker tracker() {
+            return ExportTracker.this;
+        }
+
+        private void acknowledge(final boolean accepted) {
+            unacknowledged.decrementAndGet();
+            if (!accepted) {
+                failed.incrementAndGet();
+            }
+            release();
+        }
+
+        private void release() {
+            if (remaining.decrementAndGet() != 0) {
+                return;
+            }
+            pendingExports.remove(this);
+            if (failed.get() == 0) {
+                result.succeed();
+            } else {
+                LOG.debug("{} of {} exported events were not accepted", failed.get(), total.get());
+                result.fail();
+            }
+        }
+    }
+
+    /**
+     * A single daemon thread, shared by all exporters, that enforces flush deadlines. It only ever completes results,
+     * so it never blocks.
+     */
+    private static final class Deadlines {
+        private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+        private static ScheduledThreadPoolExecutor createScheduler() {
+            final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("honeycomb-exporter-deadline")
+                .setDaemon(true)
+                .build());
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+
+/**
+ * The result of {@link HoneycombSpanExporter#flush()}. It succeeds once every event exported before the flush has had
+ * a response from libhoney, or fails if the flush timed out first. In both cases {@link #getRemainingEvents()}
+ * reports how many of those events were still outstanding at that point.
+ */
+public class FlushResult extends CompletableResultCode {
+
+    private volatile long remainingEvents = -1;
+
+    FlushResult() {
+    }
+
+    /**
+     * @return the number of events that were still waiting for a response when the flush completed; 0 if it
+     * succeeded, or -1 if it has not completed or was failed from outside the exporter, e.g. by
+     * {@link #join(long, java.util.concurrent.TimeUnit)} timing out.
+     */
+    public long getRemainingEvents() {
+        return remainingEvents;
+    }
+
+    /**
+     * Completes the flush with the given number of events still outstanding, unless it already completed.
+     *
+     * @return true if this call completed the flush.
+     */
+    synchronized boolean complete(final long remaining) {
+        if (isDone()) {
+            return false;
+        }
+        remainingEvents = remaining;
+        if (remaining == 0) {
+            succeed();
+        } else {
+            fail();
+        }
+        return true;
+    }
+}
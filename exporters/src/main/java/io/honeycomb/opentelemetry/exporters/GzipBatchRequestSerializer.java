@@ -0,0 +1,226 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.TransportOptions;
+import io.honeycomb.libhoney.eventdata.ResolvedEvent;
+import io.honeycomb.libhoney.responses.ResponseObservable;
+import io.honeycomb.libhoney.shaded.org.apache.http.HttpHeaders;
+import io.honeycomb.libhoney.shaded.org.apache.http.client.config.RequestConfig;
+import io.honeycomb.libhoney.shaded.org.apache.http.config.ConnectionConfig;
+import io.honeycomb.libhoney.shaded.org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import io.honeycomb.libhoney.shaded.org.apache.http.impl.nio.client.HttpAsyncClients;
+import io.honeycomb.libhoney.shaded.org.apache.http.impl.nio.reactor.IOReactorConfig;
+import io.honeycomb.libhoney.shaded.org.apache.http.message.BasicHeader;
+import io.honeycomb.libhoney.transport.batch.Batcher;
+import io.honeycomb.libhoney.transport.batch.impl.DefaultBatcher;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer.BatchRequestElement;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchKeyStrategy;
+import io.honeycomb.libhoney.transport.batch.impl.SystemClockProvider;
+import io.honeycomb.libhoney.transport.impl.BatchingHttpTransport;
+import io.honeycomb.libhoney.transport.json.JsonSerializer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the batch request bodies produced by another serializer with gzip, for transports that send them with
+ * a {@code Content-Encoding: gzip} header, see {@link #transport(TransportOptions)}.
+ * <p>
+ * Deflaters hold native memory and are costly to create, so they are pooled together with their checksum and output
+ * buffer, and reset rather than recreated between batches. When the delegate is a
+ * {@link StreamingBatchRequestSerializer}, batches are compressed straight from its buffer. The gzip framing is
+ * written around the raw deflate output, so the body is produced in a single pass without any stream wrappers.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+class GzipBatchRequestSerializer implements JsonSerializer<List<BatchRequestElement>> {
+
+    static final String CONTENT_ENCODING = "gzip";
+
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private final JsonSerializer<List<BatchRequestElement>> delegate;
+    private final int level;
+    private final BlockingQueue<Compressor> pool;
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    /**
+     * @param delegate that serializes batches to JSON.
+     * @param level    the deflate compression level, from {@link Deflater#BEST_SPEED} to
+     *                 {@link Deflater#BEST_COMPRESSION}.
+     */
+    GzipBatchRequestSerializer(final JsonSerializer<List<BatchRequestElement>> delegate, final int level) {
+        if (delegate == null) {
+            throw new IllegalArgumentException();
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException();
+        }
+        this.delegate = delegate;
+        this.level = level;
+        this.pool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public byte[] serialize(final List<BatchRequestElement> batch) throws IOException {
+        if (delegate instanceof StreamingBatchRequestSerializer) {
+            return ((StreamingBatchRequestSerializer) delegate).serialize(batch, this::compress);
+        }
+        final byte[] json = delegate.serialize(batch);
+        return compress(json, 0, json.length);
+    }
+
+    /**
+     * Compresses the given range into a gzip member.
+     */
+    byte[] compress(final byte[] bytes, final int from, final int to) {
+        Compressor compressor = pool.poll();
+        if (compressor == null) {
+            compressor = new Compressor(level);
+        }
+        try {
+            final byte[] compressed = compressor.compress(bytes, from, to);
+            uncompressedBytes.add(to - from);
+            compressedBytes.add(compressed.length);
+            return compressed;
+        } finally {
+            compressor.reset();
+            if (!pool.offer(compressor)) {
+                compressor.end();
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes of batch JSON compressed so far.
+     */
+    long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    /**
+     * @return the number of bytes of gzip output produced so far.
+     */
+    long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * @return the number of bytes of batch JSON per byte sent, or 0 if no batch has been compressed yet.
+     */
+    double getCompressionRatio() {
+        final long compressed = getCompressedBytes();
+        return compressed == 0 ? 0 : (double) getUncompressedBytes() / compressed;
+    }
+
+    /**
+     * Creates a batching HTTP transport that serializes batches with this serializer. It is set up exactly like the
+     * one {@link BatchingHttpTransport#init(TransportOptions, JsonSerializer)} creates, except that its HTTP client
+     * declares the content encoding of every request it sends.
+     *
+     * @param options to configure the transport and its HTTP client with.
+     * @return the transport, with its HTTP client started.
+     */
+    BatchingHttpTransport transport(final TransportOptions options) {
+        final ResponseObservable observable = new ResponseObservable();
+        final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+            .setMaxConnTotal(options.getMaxConnections())
+            .setMaxConnPerRoute(options.getMaxHttpConnectionsPerApiHost())
+            .setConnectionManagerShared(false)
+            .setSSLContext(options.getSSLContext())
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setProxy(options.getProxy())
+                .setConnectTimeout(options.getConnectTimeout())
+                .setConnectionRequestTimeout(options.getConnectionRequestTimeout())
+                .setSocketTimeout(options.getSocketTimeout())
+                .build())
+            .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                .setIoThreadCount(options.getIoThreadCount())
+                .build())
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setBufferSize(options.getBufferSize())
+                .build())
+            .setDefaultCredentialsProvider(options.getCredentialsProvider())
+            // the client is only used for batch requests, all of which are compressed
+            .setDefaultHeaders(Collections.singletonList(
+                new BasicHeader(HttpHeaders.CONTENT_ENCODING, CONTENT_ENCODING)))
+            .build();
+        client.start();
+        final HoneycombBatchConsumer consumer = new HoneycombBatchConsumer(client, observable, this,
+            options.getMaxPendingBatchRequests(), options.getMaximumHttpRequestShutdownWait(),
+            options.getAdditionalUserAgent());
+        final Batcher<ResolvedEvent> batcher = new DefaultBatcher<>(
+            new HoneycombBatchKeyStrategy(), consumer, SystemClockProvider.getInstance(),
+            new ArrayBlockingQueue<>(options.getQueueCapacity()), options.getBatchSize(),
+            options.getBatchTimeoutMillis());
+        return new BatchingHttpTransport(batcher, consumer, observable);
+    }
+
+    /**
+     * Pooled compression state: a deflater producing raw deflate data, the checksum for the gzip trailer and an
+     * output buffer that is reused between batches.
+     */
+    private static final class Compressor {
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        private Compressor(final int level) {
+            this.deflater = new Deflater(level, true);
+        }
+
+        private byte[] compress(final byte[] bytes, final int from, final int to) {
+            final int length = to - from;
+            crc.update(bytes, from, length);
+            deflater.setInput(bytes, from, length);
+            deflater.finish();
+
+            System.arraycopy(HEADER, 0, buffer, 0, HEADER_SIZE);
+            int size = HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                }
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+
+            if (size + TRAILER_SIZE > buffer.length) {
+                buffer = Arrays.copyOf(buffer, size + TRAILER_SIZE);
+            }
+            writeIntLE((int) crc.getValue(), size);
+            writeIntLE(length, size + 4);
+            return Arrays.copyOf(buffer, size + TRAILER_SIZE);
+        }
+
+        private void writeIntLE(final int value, final int offset) {
+            buffer[offset] = (byte) value;
+            buffer[offset + 1] = (byte) (value >>> 8);
+            buffer[offset + 2] = (byte) (value >>> 16);
+            buffer[offset + 3] = (byte) (value >>> 24);
+        }
+
+        private void reset() {
+            deflater.reset();
+            crc.reset();
+            if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+
+        private void end() {
+            deflater.end();
+        }
+    }
+}
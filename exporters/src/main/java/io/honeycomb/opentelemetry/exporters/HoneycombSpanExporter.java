@@ -1,5 +1,6 @@
 package io.honeycomb.opentelemetry.exporters;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.honeycomb.libhoney.Event;
 import io.honeycomb.libhoney.HoneyClient;
 import io.opentelemetry.common.AttributeConsumer;
@@ -8,48 +9,355 @@ import io.opentelemetry.sdk.common.CompletableResultCode;
 import io.opentelemetry.sdk.trace.data.SpanData;
 import io.opentelemetry.sdk.trace.export.SpanExporter;
 import io.opentelemetry.trace.SpanId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class HoneycombSpanExporter implements SpanExporter {
 
+    static final long DEFAULT_FLUSH_TIMEOUT_MILLIS = 10_000;
+    static final long SPILL_REPLAY_INTERVAL_MILLIS = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(HoneycombSpanExporter.class);
+
+    private static final ThreadLocal<AttributeFieldWriter> ATTRIBUTE_FIELD_WRITER =
+        ThreadLocal.withInitial(AttributeFieldWriter::new);
+
     private final HoneyClient client;
     private final String serviceName;
+    private final ResourceFieldsCache resourceFields;
+    private final AttributeFilter attributeFilter;
+    private final SpanRouter router;
+    private final ExportTracker tracker;
+    private final boolean awaitAcknowledgement;
+    private final long flushTimeoutMillis;
+    private final ParallelSpanConverter parallelConverter;
+    private final SpanExportQueue exportQueue;
+    private final GzipBatchRequestSerializer compression;
+    private final ScheduledExecutorService spillReplayer;
+    private final AtomicReference<CompletableResultCode> shutdownResult = new AtomicReference<>();
+    private volatile boolean observing;
 
     public HoneycombSpanExporter(final HoneyClient client, final String serviceName) {
-        if (client == null) {
+        this(new Settings(client, serviceName));
+    }
+
+    /**
+     * @param settings as put together by {@link HoneycombSpanExporterBuilder}.
+     */
+    HoneycombSpanExporter(final Settings settings) {
+        if (settings.client == null) {
+            throw new IllegalArgumentException();
+        }
+        if (isNullOrEmpty(settings.serviceName)) {
             throw new IllegalArgumentException();
         }
-        if (isNullOrEmpty(serviceName)) {
+        this.client = settings.client;
+        this.serviceName = settings.serviceName;
+        if (settings.awaitAcknowledgement && settings.tracker == null) {
             throw new IllegalArgumentException();
         }
-        this.client = client;
-        this.serviceName = serviceName;
+        this.tracker = settings.tracker;
+        if (settings.flushTimeoutMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.awaitAcknowledgement = settings.awaitAcknowledgement;
+        this.flushTimeoutMillis = settings.flushTimeoutMillis;
+        this.parallelConverter = settings.parallelConverter;
+        if (settings.exportQueue != null && settings.tracker == null) {
+            throw new IllegalArgumentException();
+        }
+        this.exportQueue = settings.exportQueue;
+        this.compression = settings.compression;
+        this.attributeFilter = settings.attributeFilter;
+        this.router = settings.router;
+        this.resourceFields = new ResourceFieldsCache(ResourceFieldsCache.DEFAULT_CAPACITY, attributeFilter);
+        if (exportQueue != null) {
+            exportQueue.start(this::drain);
+        }
+        if (tracker != null && tracker.getSpill() != null) {
+            spillReplayer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("honeycomb-exporter-spill-replay")
+                .setDaemon(true)
+                .build());
+            spillReplayer.scheduleWithFixedDelay(this::replaySpilled,
+                SPILL_REPLAY_INTERVAL_MILLIS, SPILL_REPLAY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            spillReplayer = null;
+        }
     }
 
     @Override
     public CompletableResultCode export(final Collection<SpanData> openTelemetrySpans) {
-        for (SpanData span : openTelemetrySpans) {
-            createHoneycombEvent(client, serviceName, span).sendPresampled();
+        if (shutdownResult.get() != null) {
+            LOG.debug("Dropping {} spans exported after shutdown", openTelemetrySpans.size());
+            return CompletableResultCode.ofFailure();
+        }
+        final ExportTracker.PendingExport pending;
+        if (tracker == null) {
+            pending = null;
+        } else {
+            observe();
+            pending = tracker.begin();
         }
-        return CompletableResultCode.ofSuccess();
+
+        try {
+            if (exportQueue != null) {
+                // drain threads convert and send the spans, releasing their reservations on the pending export
+                pending.reserve(openTelemetrySpans.size());
+                exportQueue.offer(openTelemetrySpans, pending);
+            } else if (parallelConverter != null && parallelConverter.appliesTo(openTelemetrySpans.size())) {
+                // convert in parallel, but submit in order
+                for (Event event : parallelConverter.convert(openTelemetrySpans, this::createHoneycombEvent)) {
+                    send(event, pending);
+                }
+            } else {
+                for (SpanData span : openTelemetrySpans) {
+                    send(createHoneycombEvent(span), pending);
+                }
+            }
+        } finally {
+            if (pending != null) {
+                pending.sent();
+            }
+        }
+        return pending != null && awaitAcknowledgement ? pending.getResult() : CompletableResultCode.ofSuccess();
     }
 
+    /**
+     * Converts and sends a span taken from the export queue, on one of its drain threads.
+     */
+    private void drain(final SpanData span, final ExportTracker.PendingExport pending) {
+        final Event event;
+        try {
+            event = createHoneycombEvent(span);
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to convert span {} to an event", span.getSpanId(), e);
+            pending.dropReserved(1);
+            return;
+        }
+        try {
+            pending.sendReserved(event);
+        } catch (final RuntimeException e) {
+            // already counted as failed by the pending export
+            LOG.warn("Failed to send span {}", span.getSpanId(), e);
+        }
+    }
+
+    /**
+     * Sends events spilled to disk back through the client, oldest first, while libhoney has room for them and
+     * sending has not recently failed. Runs periodically on the replay thread.
+     * <p>
+     * Events of a route that is no longer configured are dropped, as their route's write key is not spilled.
+     */
+    void replaySpilled() {
+        final SpillQueue spill = tracker.getSpill();
+        int unroutable = 0;
+        try {
+            observe();
+            final long watermark = tracker.getReplayWatermark();
+            while (shutdownResult.get() == null && !spill.isReplayPaused() && tracker.getOutstanding() < watermark) {
+                final SpillQueue.SpilledEvent spilled = spill.poll();
+                if (spilled == null) {
+                    return;
+                }
+                // the write key of the route is not spilled, so it is looked up again
+                final SpanRouter.Route route = router == null ? null : router.get(spilled.getRoute());
+                if (spilled.getRoute() != null && route == null) {
+                    unroutable++;
+                    spill.dropUnroutable(spilled);
+                    continue;
+                }
+                try {
+                    final Event event = spilled.copyTo(client.createEvent());
+                    if (route != null) {
+                        route.applyTo(event);
+                    }
+                    tracker.sendReplayed(event);
+                } catch (final RuntimeException e) {
+                    LOG.warn("Failed to replay a spilled event, dropping it", e);
+                    spill.acknowledge(spilled.getSegment());
+                    return;
+                }
+            }
+        } catch (final RuntimeException e) {
+            // an exception would cancel the periodic replay
+            LOG.warn("Failed to replay spilled events", e);
+        } finally {
+            if (unroutable > 0) {
+                LOG.warn("Dropped {} spilled events of routes that are no longer configured", unroutable);
+            }
+        }
+    }
+
+    private static void send(final Event event, final ExportTracker.PendingExport pending) {
+        if (pending == null) {
+            event.sendPresampled();
+        } else {
+            pending.send(event);
+        }
+    }
+
+    /**
+     * Waits, without blocking the caller, for the events of all previous exports to be sent and have had a response,
+     * up to the flush timeout. Exporters created without event tracking, i.e. through the public constructor rather
+     * than the builder, have nothing to wait for and succeed immediately.
+     *
+     * @return the result of the flush, which reports any events still outstanding when it completed.
+     */
     @Override
-    public CompletableResultCode flush() {
-        return CompletableResultCode.ofSuccess();
+    public FlushResult flush() {
+        if (tracker == null) {
+            final FlushResult result = new FlushResult();
+            result.complete(0);
+            return result;
+        }
+        return tracker.flush(flushTimeoutMillis);
     }
 
+    /**
+     * Stops accepting exports, flushes outstanding events and then closes the client, without blocking the caller.
+     * Closing the client happens on a separate thread, as it waits for pending HTTP requests for up to
+     * {@link HoneycombSpanExporterBuilder#maximumHttpRequestShutdownWait(Long)}.
+     * <p>
+     * Calling this more than once returns the result of the first call.
+     *
+     * @return a result that completes once the client has been closed; it fails if the flush timed out or closing
+     * the client failed.
+     */
     @Override
     public CompletableResultCode shutdown() {
-        client.close();
-        return CompletableResultCode.ofSuccess();
+        final CompletableResultCode result = new CompletableResultCode();
+        if (!shutdownResult.compareAndSet(null, result)) {
+            return shutdownResult.get();
+        }
+        if (spillReplayer != null) {
+            spillReplayer.shutdown();
+        }
+        final FlushResult drained = flush();
+        drained.whenComplete(() -> {
+            final Thread closer = new Thread(() -> close(drained.isSuccess(), result), "honeycomb-exporter-shutdown");
+            closer.start();
+        });
+        return result;
+    }
+
+    private void close(final boolean drained, final CompletableResultCode result) {
+        if (exportQueue != null) {
+            // spans still queued after a timed out flush are sent before the client closes, within the same limit
+            exportQueue.close();
+            try {
+                if (!exportQueue.awaitTermination(flushTimeoutMillis)) {
+                    LOG.warn("Export queue did not drain within {} ms, {} spans left", flushTimeoutMillis,
+                        exportQueue.size());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            client.close();
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to close the Honeycomb client", e);
+            result.fail();
+            return;
+        } finally {
+            if (tracker != null && tracker.getSpill() != null) {
+                // whatever has not been replayed stays on disk for the next exporter using the directory
+                tracker.getSpill().close();
+            }
+        }
+        if (drained) {
+            result.succeed();
+        } else {
+            result.fail();
+        }
+    }
+
+    /**
+     * Registers the tracker with the client on first use, rather than on construction, so that creating an exporter
+     * does not touch the client's transport.
+     */
+    private void observe() {
+        if (!observing) {
+            synchronized (this) {
+                if (!observing) {
+                    client.addResponseObserver(tracker);
+                    observing = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of spans in the export queue waiting to be converted and sent, or 0 if this exporter has
+     * no export queue, see {@link HoneycombSpanExporterBuilder#exportQueue(int)}.
+     */
+    public long getQueuedSpans() {
+        return exportQueue == null ? 0 : exportQueue.size();
+    }
+
+    /**
+     * @return the number of spans dropped because the export queue was full, or 0 if this exporter has no export
+     * queue. Spans rejected by libhoney itself are reported to response observers instead.
+     */
+    public long getDroppedSpans() {
+        return exportQueue == null ? 0 : exportQueue.getDroppedSpans();
+    }
+
+    /**
+     * @return the number of events spilled to disk, or 0 if spilling is not enabled, see
+     * {@link HoneycombSpanExporterBuilder#spillDirectory(Path)}.
+     */
+    public long getSpilledEvents() {
+        final SpillQueue spill = tracker == null ? null : tracker.getSpill();
+        return spill == null ? 0 : spill.getSpilledEvents();
+    }
+
+    /**
+     * @return the number of events that could not be spilled because the spill was full, or 0 if spilling is not
+     * enabled.
+     */
+    public long getSpillDroppedEvents() {
+        final SpillQueue spill = tracker == null ? null : tracker.getSpill();
+        return spill == null ? 0 : spill.getDroppedEvents();
     }
 
-    private static Event createHoneycombEvent(final HoneyClient client, final String serviceName, final SpanData span) {
+    /**
+     * @return the number of spilled events dropped on replay because their route is no longer configured, or 0 if
+     * spilling is not enabled, see {@link HoneycombSpanExporterBuilder#routeServiceName(String, String)}.
+     */
+    public long getSpillUnroutableEvents() {
+        final SpillQueue spill = tracker == null ? null : tracker.getSpill();
+        return spill == null ? 0 : spill.getUnroutableEvents();
+    }
+
+    /**
+     * @return the number of bytes of spilled events waiting to be replayed, or 0 if spilling is not enabled.
+     */
+    public long getSpillBacklogBytes() {
+        final SpillQueue spill = tracker == null ? null : tracker.getSpill();
+        return spill == null ? 0 : spill.getBacklogBytes();
+    }
+
+    /**
+     * @return the number of bytes of batch JSON per byte sent so far, or 0 if batch requests are not compressed, see
+     * {@link HoneycombSpanExporterBuilder#gzipCompression(int)}, or none has been sent yet.
+     */
+    public double getCompressionRatio() {
+        return compression == null ? 0 : compression.getCompressionRatio();
+    }
+
+    private Event createHoneycombEvent(final SpanData span) {
         long start = TimeUnit.NANOSECONDS.toMillis(span.getStartEpochNanos());
         long duration = TimeUnit.NANOSECONDS.toMillis(Math.max(1, span.getEndEpochNanos() - span.getStartEpochNanos()));
 
@@ -70,51 +378,226 @@ public class HoneycombSpanExporter implements SpanExporter {
             event.addField(AttributeNames.TYPE_FIELD, span.getKind().name());
         }
 
+        if (router != null) {
+            final SpanRouter.Route route = router.route(span);
+            if (route != null) {
+                route.applyTo(event);
+            }
+        }
+
+        // resource attributes, converted once per distinct resource, take precedence over span attributes when the
+        // number of fields is limited, as they are the same on every event: room is kept for them, and they are added
+        // last, replacing span attributes of the same name
+        final Map<String, Object> resourceAttributes = resourceFields.get(span.getResource());
+        final int maxFields = attributeFilter == null ? AttributeFilter.UNLIMITED : attributeFilter.getMaxFields();
+        final int resourceFieldCount = Math.min(resourceAttributes.size(), maxFields);
+
         // span attributes
-        span.getAttributes().forEach(
-            new AttributeConsumer() {
-                @Override
-                public <T> void consume(AttributeKey<T> key, T value) {
-                    addAttributeAsField(event, key, value);
-                }
+        final AttributeFieldWriter writer = ATTRIBUTE_FIELD_WRITER.get();
+        writer.event = event;
+        writer.filter = attributeFilter;
+        writer.remaining = maxFields - resourceFieldCount;
+        try {
+            span.getAttributes().forEach(writer);
+        } finally {
+            writer.event = null;
+            writer.filter = null;
+        }
+
+        if (resourceFieldCount == resourceAttributes.size()) {
+            if (!resourceAttributes.isEmpty()) {
+                event.addFields(resourceAttributes);
             }
-        );
-
-        // resource attributes
-        if (span.getResource() != null) {
-            span.getResource().getAttributes().forEach(
-                new AttributeConsumer() {
-                    @Override
-                    public <T> void consume(AttributeKey<T> key, T value) {
-                        addAttributeAsField(event, key, value);
-                    }
-                }
-            );
+        } else {
+            addFields(event, resourceAttributes, resourceFieldCount);
         }
 
         return event;
     }
 
-    private static <T> void addAttributeAsField(final Event event, final AttributeKey<T> key, final T value) {
-        switch(key.getType()) {
-            case STRING:
-                event.addField(key.getKey(), (String) value);
-                break;
-            case LONG:
-                event.addField(key.getKey(), (long) value);
-                break;
-            case BOOLEAN:
-                event.addField(key.getKey(), (boolean) value);
-                break;
-            case DOUBLE:
-                event.addField(key.getKey(), (double) value);
-                break;
-            default:
-                // ignore
-                break;
+    /**
+     * Adds the first fields of a map, in its iteration order.
+     */
+    private static void addFields(final Event event, final Map<String, Object> fields, final int count) {
+        int remaining = count;
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (remaining-- == 0) {
+                return;
+            }
+            event.addField(field.getKey(), field.getValue());
         }
     }
 
+    /**
+     * Copies supported attributes onto an event, through the attribute filter if there is one. Instances are reused
+     * per thread, rather than allocated per span, and values are passed through as the boxed instances held by the
+     * attributes unless they are truncated.
+     */
+    private static final class AttributeFieldWriter implements AttributeConsumer {
+        private Event event;
+        private AttributeFilter filter;
+        private int remaining;
+
+        @Override
+        public <T> void consume(final AttributeKey<T> key, final T value) {
+            switch (key.getType()) {
+                case STRING:
+                case LONG:
+                case BOOLEAN:
+                case DOUBLE:
+                    if (filter == null) {
+                        event.addField(key.getKey(), value);
+                    } else if (remaining > 0) {
+                        final AttributeFilter.Rule rule = filter.rule(key.getKey());
+                        if (rule != null) {
+                            event.addField(rule.name(key.getKey()), rule.value(value));
+                            remaining--;
+                        }
+                    }
+                    break;
+                default:
+                    // ignore
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The client, collaborators and options of an exporter, as put together by {@link HoneycombSpanExporterBuilder}.
+     * Only the client and service name are required; everything else defaults to a plain exporter that sends from the
+     * thread calling export, without tracking events.
+     */
+    static final class Settings {
+        private final HoneyClient client;
+        private final String serviceName;
+        private ExportTracker tracker;
+        private boolean awaitAcknowledgement;
+        private long flushTimeoutMillis = DEFAULT_FLUSH_TIMEOUT_MILLIS;
+        private ParallelSpanConverter parallelConverter;
+        private SpanExportQueue exportQueue;
+        private GzipBatchRequestSerializer compression;
+        private AttributeFilter attributeFilter;
+        private SpanRouter router;
+
+        Settings(final HoneyClient client, final String serviceName) {
+            this.client = client;
+            this.serviceName = serviceName;
+        }
+
+        /**
+         * @param tracker to follow sent events with, may be null if events are not to be tracked.
+         * @return this.
+         */
+        Settings tracker(final ExportTracker tracker) {
+            this.tracker = tracker;
+            return this;
+        }
+
+        /**
+         * @param awaitAcknowledgement true for export results to complete only once all events have had a response.
+         *                             Requires a tracker.
+         * @return this.
+         */
+        Settings awaitAcknowledgement(final boolean awaitAcknowledgement) {
+            this.awaitAcknowledgement = awaitAcknowledgement;
+            return this;
+        }
+
+        /**
+         * @param flushTimeoutMillis maximum time a flush waits for outstanding events.
+         * @return this.
+         */
+        Settings flushTimeoutMillis(final long flushTimeoutMillis) {
+            this.flushTimeoutMillis = flushTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param parallelConverter to convert large batches with, may be null to always convert on the calling thread.
+         * @return this.
+         */
+        Settings parallelConverter(final ParallelSpanConverter parallelConverter) {
+            this.parallelConverter = parallelConverter;
+            return this;
+        }
+
+        /**
+         * @param exportQueue to hand spans to for conversion and sending on its drain threads, which the exporter
+         *                    starts; may be null to send from the thread calling export. Requires a tracker.
+         * @return this.
+         */
+        Settings exportQueue(final SpanExportQueue exportQueue) {
+            this.exportQueue = exportQueue;
+            return this;
+        }
+
+        /**
+         * @param compression the serializer compressing the client's batch requests, to report on; may be null if
+         *                    they are not compressed.
+         * @return this.
+         */
+        Settings compression(final GzipBatchRequestSerializer compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * @param attributeFilter to apply to span and resource attributes, may be null to send them all as is.
+         * @return this.
+         */
+        Settings attributeFilter(final AttributeFilter attributeFilter) {
+            this.attributeFilter = attributeFilter;
+            return this;
+        }
+
+        /**
+         * @param router to pick the dataset, write key and API host of each event with, may be null to send all
+         *               events with the client's.
+         * @return this.
+         */
+        Settings router(final SpanRouter router) {
+            this.router = router;
+            return this;
+        }
+    }
+
+    /**
+     * What {@link HoneycombSpanExporter#export} does with spans that do not fit the export queue.
+     */
+    public enum OverflowStrategy {
+        /**
+         * Drop the spans, failing the export result if it awaits acknowledgement.
+         */
+        DROP,
+        /**
+         * Wait for the drain threads to make room, holding up the caller of export.
+         */
+        BLOCK
+    }
+
+    /**
+     * How the drain threads of the export queue wait for spans when it is empty. Each strategy first spins briefly;
+     * they trade the latency of picking up new spans against the CPU used while idle.
+     */
+    public enum WaitStrategy {
+        /**
+         * Keep polling. Lowest latency, but each drain thread uses a whole core.
+         */
+        BUSY_SPIN,
+        /**
+         * Yield the processor between polls.
+         */
+        YIELDING,
+        /**
+         * Yield for a while, then sleep for short periods between polls.
+         */
+        SLEEPING,
+        /**
+         * Wait until export signals that spans were enqueued. Uses no CPU while idle, at the cost of a wake-up.
+         */
+        BLOCKING
+    }
+
     public static HoneycombSpanExporterBuilder newBuilder(String serviceName) {
         return new HoneycombSpanExporterBuilder(serviceName);
     }
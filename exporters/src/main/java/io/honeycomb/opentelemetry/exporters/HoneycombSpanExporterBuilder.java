@@ -6,23 +6,79 @@ import io.honeycomb.libhoney.EventPostProcessor;
 import io.honeycomb.libhoney.HoneyClient;
 import io.honeycomb.libhoney.LibHoney;
 import io.honeycomb.libhoney.ResponseObserver;
+import io.honeycomb.libhoney.TransportOptions;
 import io.honeycomb.libhoney.ValueSupplier;
 import io.honeycomb.libhoney.builders.HoneyClientBuilder;
 import io.honeycomb.libhoney.responses.ClientRejected.RejectionReason;
+import io.honeycomb.libhoney.shaded.org.apache.http.HttpHost;
+import io.honeycomb.libhoney.shaded.org.apache.http.auth.AuthScope;
+import io.honeycomb.libhoney.shaded.org.apache.http.auth.UsernamePasswordCredentials;
+import io.honeycomb.libhoney.shaded.org.apache.http.impl.client.BasicCredentialsProvider;
 import io.honeycomb.libhoney.transport.Transport;
 import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer.BatchRequestElement;
+import io.honeycomb.libhoney.transport.impl.BatchingHttpTransport;
+import io.honeycomb.libhoney.transport.json.BatchRequestSerializer;
+import io.honeycomb.libhoney.transport.json.JsonSerializer;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter.OverflowStrategy;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter.WaitStrategy;
 
 import javax.net.ssl.SSLContext;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class HoneycombSpanExporterBuilder {
 
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final int DEFAULT_SPILL_SEGMENT_BYTES = 8 * 1024 * 1024;
+    private static final long DEFAULT_SPILL_MAX_BYTES = 256L * 1024 * 1024;
+    // the HTTP/2 transport's client, an optional dependency
+    private static final String OKHTTP_CLIENT = "okhttp3.OkHttpClient";
+
     protected HoneyClientBuilder clientBuilder = new HoneyClientBuilder();
     protected final String serviceName;
 
+    // transport settings are also kept here, as the client builder does not expose them to transports we build
+    private final TransportOptions.Builder transportOptionsBuilder = LibHoney.transportOptions();
+    private final BasicCredentialsProvider proxyCredentials = new BasicCredentialsProvider();
+    private boolean hasProxyCredentials;
+    private Transport transport;
+    private boolean streamingJsonEncoding;
+    private int gzipCompressionLevel;
+    private boolean http2;
+    private final Set<String> allowedAttributes = new HashSet<>();
+    private final Set<String> deniedAttributes = new HashSet<>();
+    private final Map<String, String> attributeRenames = new HashMap<>();
+    private final Map<String, Integer> attributeMaxValueLengths = new HashMap<>();
+    private int maxAttributeValueLength = AttributeFilter.UNLIMITED;
+    private int maxAttributesPerEvent = AttributeFilter.UNLIMITED;
+    private final SpanRouter.Builder routes = new SpanRouter.Builder();
+    private boolean awaitAcknowledgement;
+    private long flushTimeoutMillis = HoneycombSpanExporter.DEFAULT_FLUSH_TIMEOUT_MILLIS;
+    private ParallelSpanConverter parallelConverter;
+    private int exportQueueCapacity;
+    private int exportQueueDrainThreads = 2;
+    private OverflowStrategy exportQueueOverflow = OverflowStrategy.DROP;
+    private WaitStrategy exportQueueWait = WaitStrategy.BLOCKING;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private Path spillDirectory;
+    private int spillSegmentBytes = DEFAULT_SPILL_SEGMENT_BYTES;
+    private long spillMaxBytes = DEFAULT_SPILL_MAX_BYTES;
+    private long spillWatermark;
+    private long spillReplayBackoffMillis = SpillQueue.DEFAULT_REPLAY_BACKOFF_MILLIS;
+
     /**
      * Creates a new HoneycombSpanExporterBuilder that can be used to create an instance of HoneycombSpanExporter.
      *
@@ -47,10 +103,85 @@ public class HoneycombSpanExporterBuilder {
      *                          .build()}</pre>
      *
      * @return new HoneycombSpanExporter instance
+     * @throws java.io.UncheckedIOException if spilling is enabled and the spill directory cannot be opened.
+     * @throws IllegalStateException        if HTTP/2 is enabled together with an SSL context.
      */
     public HoneycombSpanExporter build() {
+        if (transport == null && http2 && transportOptions().getSSLContext() != null) {
+            throw new IllegalStateException("The HTTP/2 transport does not support an SSL context");
+        }
+        GzipBatchRequestSerializer compression = null;
+        if (transport == null && (http2 || gzipCompressionLevel > 0 || streamingJsonEncoding)) {
+            JsonSerializer<List<BatchRequestElement>> serializer = streamingJsonEncoding
+                ? new StreamingBatchRequestSerializer() : new BatchRequestSerializer();
+            if (gzipCompressionLevel > 0) {
+                compression = new GzipBatchRequestSerializer(serializer, gzipCompressionLevel);
+                serializer = compression;
+            }
+            if (http2) {
+                clientBuilder.transport(Http2BatchConsumer.transport(transportOptions(), serializer,
+                    compression == null ? null : GzipBatchRequestSerializer.CONTENT_ENCODING));
+            } else if (compression != null) {
+                clientBuilder.transport(compression.transport(transportOptions()));
+            } else {
+                clientBuilder.transport(BatchingHttpTransport.init(transportOptions(), serializer));
+            }
+        }
         final HoneyClient client = clientBuilder.build();
-        return new HoneycombSpanExporter(client, serviceName);
+        final SpanExportQueue exportQueue = exportQueueCapacity == 0 ? null : new SpanExportQueue(
+            exportQueueCapacity, exportQueueDrainThreads, exportQueueOverflow, exportQueueWait);
+        return new HoneycombSpanExporter(new HoneycombSpanExporter.Settings(client, serviceName)
+            .tracker(tracker())
+            .awaitAcknowledgement(awaitAcknowledgement)
+            .flushTimeoutMillis(flushTimeoutMillis)
+            .parallelConverter(parallelConverter)
+            .exportQueue(exportQueue)
+            .compression(compression)
+            .attributeFilter(attributeFilter())
+            .router(routes.isEmpty() ? null : routes.build()));
+    }
+
+    private AttributeFilter attributeFilter() {
+        if (allowedAttributes.isEmpty() && deniedAttributes.isEmpty() && attributeRenames.isEmpty()
+            && attributeMaxValueLengths.isEmpty() && maxAttributeValueLength == AttributeFilter.UNLIMITED
+            && maxAttributesPerEvent == AttributeFilter.UNLIMITED) {
+            return null;
+        }
+        return new AttributeFilter(allowedAttributes, deniedAttributes, attributeRenames, attributeMaxValueLengths,
+            maxAttributeValueLength, maxAttributesPerEvent);
+    }
+
+    private ExportTracker tracker() {
+        if (spillDirectory == null) {
+            return new ExportTracker();
+        }
+        final SpillQueue spill = new SpillQueue(
+            spillDirectory, spillSegmentBytes, spillMaxBytes, spillReplayBackoffMillis);
+        // by default, spill before libhoney's queue overflows
+        final long watermark = spillWatermark > 0 ? spillWatermark : Math.max(1, queueCapacity * 8L / 10);
+        return new ExportTracker(spill, watermark);
+    }
+
+    /**
+     * Builds the transport options configured through this builder, for use by transports created by the exporter
+     * rather than by libhoney.
+     *
+     * @return the transport options.
+     */
+    TransportOptions transportOptions() {
+        if (hasProxyCredentials) {
+            transportOptionsBuilder.setCredentialsProvider(proxyCredentials);
+        }
+        return transportOptionsBuilder.build();
+    }
+
+    static void requireOkHttp(final ClassLoader classLoader) {
+        try {
+            Class.forName(OKHTTP_CLIENT, false, classLoader);
+        } catch (final ClassNotFoundException e) {
+            throw new IllegalStateException(
+                "The HTTP/2 transport requires com.squareup.okhttp3:okhttp on the classpath", e);
+        }
     }
 
     /**
@@ -99,6 +230,9 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder addProxy(final String proxyHost, final String username, final String password) {
         clientBuilder.addProxy(proxyHost, username, password);
+        proxyCredentials.setCredentials(
+            new AuthScope(HttpHost.create(proxyHost)), new UsernamePasswordCredentials(username, password));
+        hasProxyCredentials = true;
         return this;
     }
 
@@ -179,6 +313,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder batchSize(final int batchSize) {
         clientBuilder.batchSize(batchSize);
+        transportOptionsBuilder.setBatchSize(batchSize);
         return this;
     }
 
@@ -198,6 +333,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder batchTimeoutMillis(final long batchTimeoutMillis) {
         clientBuilder.batchTimeoutMillis(batchTimeoutMillis);
+        transportOptionsBuilder.setBatchTimeoutMillis(batchTimeoutMillis);
         return this;
     }
 
@@ -217,6 +353,8 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder queueCapacity(final int queueCapacity) {
         clientBuilder.queueCapacity(queueCapacity);
+        transportOptionsBuilder.setQueueCapacity(queueCapacity);
+        this.queueCapacity = queueCapacity;
         return this;
     }
 
@@ -255,6 +393,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder maxPendingBatchRequests(final int maxPendingBatchRequests) {
         clientBuilder.maxPendingBatchRequests(maxPendingBatchRequests);
+        transportOptionsBuilder.setMaximumPendingBatchRequests(maxPendingBatchRequests);
         return this;
     }
 
@@ -270,6 +409,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder maxConnections(final int maxConnections) {
         clientBuilder.maxConnections(maxConnections);
+        transportOptionsBuilder.setMaxConnections(maxConnections);
         return this;
     }
 
@@ -286,6 +426,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder maxConnectionsPerApiHost(final int maxConnectionsPerApiHost) {
         clientBuilder.maxConnectionsPerApiHost(maxConnectionsPerApiHost);
+        transportOptionsBuilder.setMaxConnectionsPerApiHost(maxConnectionsPerApiHost);
         return this;
     }
 
@@ -300,6 +441,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder connectionTimeout(final int connectTimeout) {
         clientBuilder.connectionTimeout(connectTimeout);
+        transportOptionsBuilder.setConnectTimeout(connectTimeout);
         return this;
     }
 
@@ -320,6 +462,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder connectionRequestTimeout(final int connectionRequestTimeout) {
         clientBuilder.connectionRequestTimeout(connectionRequestTimeout);
+        transportOptionsBuilder.setConnectionRequestTimeout(connectionRequestTimeout);
         return this;
     }
 
@@ -334,6 +477,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder socketTimeout(final int socketTimeout) {
         clientBuilder.socketTimeout(socketTimeout);
+        transportOptionsBuilder.setSocketTimeout(socketTimeout);
         return this;
     }
 
@@ -348,6 +492,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder bufferSize(final int bufferSize) {
         clientBuilder.bufferSize(bufferSize);
+        transportOptionsBuilder.setBufferSize(bufferSize);
         return this;
     }
 
@@ -363,6 +508,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder ioThreadCount(final int ioThreadCount) {
         clientBuilder.ioThreadCount(ioThreadCount);
+        transportOptionsBuilder.setIoThreadCount(ioThreadCount);
         return this;
     }
 
@@ -380,6 +526,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder maximumHttpRequestShutdownWait(final Long maximumHttpRequestShutdownWait) {
         clientBuilder.maximumHttpRequestShutdownWait(maximumHttpRequestShutdownWait);
+        transportOptionsBuilder.setMaximumHttpRequestShutdownWait(maximumHttpRequestShutdownWait);
         return this;
     }
 
@@ -395,6 +542,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder additionalUserAgent(final String additionalUserAgent) {
         clientBuilder.additionalUserAgent(additionalUserAgent);
+        transportOptionsBuilder.setAdditionalUserAgent(additionalUserAgent);
         return this;
     }
 
@@ -408,6 +556,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder addProxy(final String host) {
         clientBuilder.addProxy(host);
+        transportOptionsBuilder.setProxy(new HttpHost(host));
         return this;
     }
 
@@ -419,6 +568,7 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder sslContext(final SSLContext sslContext) {
         clientBuilder.sslContext(sslContext);
+        transportOptionsBuilder.setSSLContext(sslContext);
         return this;
     }
 
@@ -456,6 +606,523 @@ public class HoneycombSpanExporterBuilder {
      */
     public HoneycombSpanExporterBuilder transport(final Transport transport){
        clientBuilder.transport(transport);
+       this.transport = transport;
        return this;
     }
+
+    /**
+     * Set this to encode batch requests with {@link StreamingBatchRequestSerializer}, which streams events straight
+     * into reusable buffers instead of mapping them through Jackson. The resulting JSON is equivalent.
+     * <p>
+     * This only applies to the default HTTP transport, and is ignored if a transport has been set with
+     * {@link #transport(Transport)}.
+     * <p>
+     * Default: false
+     *
+     * @param enabled true to use streaming JSON encoding.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder streamingJsonEncoding(final boolean enabled) {
+        this.streamingJsonEncoding = enabled;
+        return this;
+    }
+
+    /**
+     * Set this to gzip-compress batch request bodies at the given deflate level before they are sent, which cuts
+     * their size several times over at the cost of some CPU on libhoney's batching thread. The resulting compression
+     * ratio is reported by {@link HoneycombSpanExporter#getCompressionRatio()}.
+     * <p>
+     * This only applies to the default HTTP transport, and is ignored if a transport has been set with
+     * {@link #transport(Transport)}. It can be combined with {@link #streamingJsonEncoding(boolean)}.
+     * <p>
+     * Default: disabled
+     *
+     * @param level from 1 (fastest) to 9 (smallest); 6 is what gzip itself defaults to.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder gzipCompression(final int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException();
+        }
+        this.gzipCompressionLevel = level;
+        return this;
+    }
+
+    /**
+     * Set this to send batch requests over HTTP/2, multiplexing concurrent requests to an API host over a single
+     * connection, rather than through libhoney's HTTP/1.1 client, which opens a connection per concurrent request.
+     * HTTPS API hosts negotiate HTTP/2 and fall back to HTTP/1.1 if they do not support it. Plain HTTP API hosts must
+     * support cleartext HTTP/2 (h2c) with prior knowledge.
+     * <p>
+     * {@link #maxPendingBatchRequests(int)} then bounds the number of concurrent requests, and
+     * {@link #maxConnectionsPerApiHost(int)} only the number of idle HTTP/1.1 fallback connections kept open.
+     * {@link #maxConnections(int)}, {@link #connectionRequestTimeout(int)}, {@link #bufferSize(int)},
+     * {@link #ioThreadCount(int)} do not apply, and {@link #build()} fails if an SSL context has been set with
+     * {@link #sslContext(SSLContext)}, as the HTTP/2 client cannot use it.
+     * <p>
+     * The HTTP/2 transport is built on OkHttp, which is an optional dependency: {@code com.squareup.okhttp3:okhttp}
+     * must be added to the classpath.
+     * <p>
+     * This only applies to the default HTTP transport, and is ignored if a transport has been set with
+     * {@link #transport(Transport)}. It can be combined with {@link #streamingJsonEncoding(boolean)} and
+     * {@link #gzipCompression(int)}.
+     * <p>
+     * Default: false
+     *
+     * @param enabled true to send batch requests over HTTP/2.
+     * @return this.
+     * @throws IllegalStateException if enabled and OkHttp is not on the classpath.
+     */
+    public HoneycombSpanExporterBuilder http2(final boolean enabled) {
+        if (enabled) {
+            requireOkHttp(HoneycombSpanExporterBuilder.class.getClassLoader());
+        }
+        this.http2 = enabled;
+        return this;
+    }
+
+    /**
+     * Use this to send the spans of the service with the given name, as set by the {@code service.name} attribute of
+     * their resource, to another dataset than the one set with {@link #dataSet(String)}.
+     *
+     * @param serviceName of the spans to route.
+     * @param dataSet     to send them to.
+     * @return this.
+     * @see #routeServiceName(String, String, String, String)
+     */
+    public HoneycombSpanExporterBuilder routeServiceName(final String serviceName, final String dataSet) {
+        routes.serviceName(serviceName, dataSet, null, null);
+        return this;
+    }
+
+    /**
+     * Use this to send the spans of the service with the given name, as set by the {@code service.name} attribute of
+     * their resource, to another dataset, team or API host than the exporter's, from the same client. Events of each
+     * route are batched separately, as libhoney batches events by dataset, write key and API host, but share the
+     * client's queue, threads and connections.
+     * <p>
+     * Routes by attribute, see {@link #routeAttribute(String, String, String, String, String)}, take precedence. The
+     * route of a resource is cached, so that it is looked up once per resource rather than once per span.
+     * <p>
+     * Default: None
+     *
+     * @param serviceName of the spans to route.
+     * @param dataSet     to send them to.
+     * @param writeKey    to send them with, or null for the one set with {@link #writeKey(String)}.
+     * @param apiHost     to send them to, or null for the one set with {@link #apiHost(String)}.
+     * @return this.
+     * @throws URISyntaxException for an invalid apiHost.
+     */
+    public HoneycombSpanExporterBuilder routeServiceName(final String serviceName, final String dataSet,
+                                                         final String writeKey, final String apiHost)
+        throws URISyntaxException {
+        routes.serviceName(serviceName, dataSet, writeKey, apiHost == null ? null : new URI(apiHost));
+        return this;
+    }
+
+    /**
+     * Use this to send the spans with the given string attribute value, on the span itself or on its resource, to
+     * another dataset than the one set with {@link #dataSet(String)}.
+     *
+     * @param key     of the attribute.
+     * @param value   of the attribute, for the spans to route.
+     * @param dataSet to send them to.
+     * @return this.
+     * @see #routeAttribute(String, String, String, String, String)
+     */
+    public HoneycombSpanExporterBuilder routeAttribute(final String key, final String value, final String dataSet) {
+        routes.attribute(key, value, dataSet, null, null);
+        return this;
+    }
+
+    /**
+     * Use this to send the spans with the given string attribute value, on the span itself or on its resource, to
+     * another dataset, team or API host than the exporter's, from the same client. Events of each route are batched
+     * separately, as libhoney batches events by dataset, write key and API host, but share the client's queue,
+     * threads and connections.
+     * <p>
+     * A span is routed by the first attribute key added that it has a route for, on the span and then on its
+     * resource. Routes matched on a resource are cached, so that it is looked up once per resource; span attributes
+     * are looked up once per span and attribute key.
+     * <p>
+     * Default: None
+     *
+     * @param key      of the attribute.
+     * @param value    of the attribute, for the spans to route.
+     * @param dataSet  to send them to.
+     * @param writeKey to send them with, or null for the one set with {@link #writeKey(String)}.
+     * @param apiHost  to send them to, or null for the one set with {@link #apiHost(String)}.
+     * @return this.
+     * @throws URISyntaxException for an invalid apiHost.
+     */
+    public HoneycombSpanExporterBuilder routeAttribute(final String key, final String value, final String dataSet,
+                                                       final String writeKey, final String apiHost)
+        throws URISyntaxException {
+        routes.attribute(key, value, dataSet, writeKey, apiHost == null ? null : new URI(apiHost));
+        return this;
+    }
+
+    /**
+     * Use this to only send the span and resource attributes with the given keys, dropping all others. May be called
+     * several times to add keys. Span fields such as the trace id, name and duration are always sent.
+     * <p>
+     * Default: all attributes are sent
+     *
+     * @param keys attribute keys to send.
+     * @return this.
+     * @see #denyAttributes(String...)
+     */
+    public HoneycombSpanExporterBuilder allowAttributes(final String... keys) {
+        if (keys == null || Arrays.asList(keys).contains(null)) {
+            throw new IllegalArgumentException();
+        }
+        allowedAttributes.addAll(Arrays.asList(keys));
+        return this;
+    }
+
+    /**
+     * Use this to drop the span and resource attributes with the given keys, for example ones holding large or
+     * sensitive values. May be called several times to add keys. Denied keys are dropped even if they are also
+     * allowed, see {@link #allowAttributes(String...)}.
+     * <p>
+     * Default: None
+     *
+     * @param keys attribute keys to drop.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder denyAttributes(final String... keys) {
+        if (keys == null || Arrays.asList(keys).contains(null)) {
+            throw new IllegalArgumentException();
+        }
+        deniedAttributes.addAll(Arrays.asList(keys));
+        return this;
+    }
+
+    /**
+     * Use this to send the span and resource attributes with the given key as a field with another name.
+     * <p>
+     * Default: None
+     *
+     * @param key       the attribute key.
+     * @param fieldName the name of the field to send the attribute as.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder renameAttribute(final String key, final String fieldName) {
+        if (key == null || isNullOrEmpty(fieldName)) {
+            throw new IllegalArgumentException();
+        }
+        attributeRenames.put(key, fieldName);
+        return this;
+    }
+
+    /**
+     * Use this to truncate the string values of span and resource attributes to at most the given number of chars,
+     * bounding the size of events with, for example, SQL statements or request bodies as attributes.
+     * <p>
+     * Default: unlimited
+     *
+     * @param maxLength maximum number of chars, must be at least 1.
+     * @return this.
+     * @see #maxAttributeValueLength(String, int)
+     */
+    public HoneycombSpanExporterBuilder maxAttributeValueLength(final int maxLength) {
+        if (maxLength < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.maxAttributeValueLength = maxLength;
+        return this;
+    }
+
+    /**
+     * Use this to truncate the string values of the span and resource attributes with the given key to at most the
+     * given number of chars, overriding {@link #maxAttributeValueLength(int)} for that key.
+     * <p>
+     * Default: None
+     *
+     * @param key       the attribute key.
+     * @param maxLength maximum number of chars, must be at least 1.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder maxAttributeValueLength(final String key, final int maxLength) {
+        if (key == null || maxLength < 1) {
+            throw new IllegalArgumentException();
+        }
+        attributeMaxValueLengths.put(key, maxLength);
+        return this;
+    }
+
+    /**
+     * Use this to limit the number of attribute fields added to each event. Resource attributes take precedence, as
+     * they are the same on all events of a service: up to the limit, they are kept in the order the resource holds
+     * them, and span attributes, in the order the span holds them, fill the room that is left. A resource attribute
+     * replaces a span attribute with the same field name, whether or not there is a limit. Span fields such as the
+     * trace id, name and duration do not count towards the limit.
+     * <p>
+     * Default: unlimited
+     *
+     * @param maxAttributes maximum number of attribute fields, must not be negative.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder maxAttributesPerEvent(final int maxAttributes) {
+        if (maxAttributes < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxAttributesPerEvent = maxAttributes;
+        return this;
+    }
+
+    /**
+     * Set this for the result of {@link HoneycombSpanExporter#export} to complete only once libhoney has reported a
+     * response for every event of that export, rather than as soon as the events have been queued. The result fails
+     * if any event was rejected by the server, rejected by the client (for example when the queue overflows) or
+     * failed for an unknown reason.
+     * <p>
+     * Span processors that wait on export results, such as the SDK's batch span processor, will then wait for the
+     * events to be sent; set {@link #batchTimeoutMillis(long)} accordingly.
+     * <p>
+     * Default: false
+     *
+     * @param enabled true to complete export results on acknowledgement.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder awaitAcknowledgement(final boolean enabled) {
+        this.awaitAcknowledgement = enabled;
+        return this;
+    }
+
+    /**
+     * Defines the maximum time (in milliseconds) that {@link HoneycombSpanExporter#flush()} waits for the events of
+     * previous exports to be sent and have had a response. A flush that times out fails and reports the number of
+     * events still outstanding, see {@link FlushResult#getRemainingEvents()}.
+     * <p>
+     * The same limit applies to the flush that {@link HoneycombSpanExporter#shutdown()} performs before closing the
+     * client. Note that events are batched for up to {@link #batchTimeoutMillis(long)} before they are sent.
+     * <p>
+     * Default: 10000
+     *
+     * @param flushTimeoutMillis milliseconds, must not be negative.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder flushTimeoutMillis(final long flushTimeoutMillis) {
+        if (flushTimeoutMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Set this to convert export batches of at least {@code threshold} spans to events on several threads of the
+     * common {@link ForkJoinPool}, rather than only on the thread calling export. Events are still submitted to
+     * libhoney in the order of the spans in the batch.
+     * <p>
+     * Default: disabled
+     *
+     * @param threshold minimum number of spans in a batch for it to be converted in parallel.
+     * @return this.
+     * @see #parallelConversion(int, Executor)
+     */
+    public HoneycombSpanExporterBuilder parallelConversion(final int threshold) {
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        this.parallelConverter = new ParallelSpanConverter(pool, threshold, pool.getParallelism() + 1);
+        return this;
+    }
+
+    /**
+     * Set this to convert export batches of at least {@code threshold} spans to events on several threads of the
+     * given executor, as well as on the thread calling export. Events are still submitted to libhoney in the order of
+     * the spans in the batch.
+     * <p>
+     * Default: disabled
+     *
+     * @param threshold minimum number of spans in a batch for it to be converted in parallel.
+     * @param executor  to convert spans on; a batch is split into at most as many chunks as there are processors.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder parallelConversion(final int threshold, final Executor executor) {
+        this.parallelConverter = new ParallelSpanConverter(
+            executor, threshold, Runtime.getRuntime().availableProcessors());
+        return this;
+    }
+
+    /**
+     * Set this for {@link HoneycombSpanExporter#export} to only enqueue spans on a bounded ring buffer, from which
+     * dedicated drain threads convert them to events and hand them to libhoney. A caller such as the SDK's batch span
+     * processor then no longer waits for conversion or for libhoney's own queue. The number of spans waiting is
+     * reported by {@link HoneycombSpanExporter#getQueuedSpans()}.
+     * <p>
+     * With more than one drain thread, events may reach libhoney in a different order than the spans were exported.
+     * Parallel conversion, see {@link #parallelConversion(int)}, does not apply when the export queue is used.
+     * <p>
+     * Default: disabled
+     *
+     * @param capacity the number of spans the queue holds, rounded up to a power of two of at least 2.
+     * @return this.
+     * @see #exportQueueDrainThreads(int)
+     * @see #exportQueueOverflowStrategy(OverflowStrategy)
+     * @see #exportQueueWaitStrategy(WaitStrategy)
+     */
+    public HoneycombSpanExporterBuilder exportQueue(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException();
+        }
+        this.exportQueueCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Set this to define the number of threads draining the export queue. Only applies if the export queue is
+     * enabled, see {@link #exportQueue(int)}.
+     * <p>
+     * Default: 2
+     *
+     * @param drainThreads number of threads, must be at least 1.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder exportQueueDrainThreads(final int drainThreads) {
+        if (drainThreads < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.exportQueueDrainThreads = drainThreads;
+        return this;
+    }
+
+    /**
+     * Set this to define what happens to spans that do not fit the export queue. Dropped spans are counted by
+     * {@link HoneycombSpanExporter#getDroppedSpans()}. Only applies if the export queue is enabled, see
+     * {@link #exportQueue(int)}.
+     * <p>
+     * Default: {@link OverflowStrategy#DROP}
+     *
+     * @param overflowStrategy to set.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder exportQueueOverflowStrategy(final OverflowStrategy overflowStrategy) {
+        if (overflowStrategy == null) {
+            throw new IllegalArgumentException();
+        }
+        this.exportQueueOverflow = overflowStrategy;
+        return this;
+    }
+
+    /**
+     * Set this to define how drain threads wait for spans while the export queue is empty. Only applies if the
+     * export queue is enabled, see {@link #exportQueue(int)}.
+     * <p>
+     * Default: {@link WaitStrategy#BLOCKING}
+     *
+     * @param waitStrategy to set.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder exportQueueWaitStrategy(final WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException();
+        }
+        this.exportQueueWait = waitStrategy;
+        return this;
+    }
+
+    /**
+     * Set this to spill events to disk, in segmented memory-mapped files in the given directory, rather than lose
+     * them when libhoney cannot take or send them. Events are spilled instead of sent while libhoney has more than
+     * {@link #spillWatermark(long)} events outstanding, or for {@link #spillReplayBackoffMillis(long)} after an
+     * event failed to be sent. Events that overflow libhoney's queue, fail while Honeycomb is unreachable, or are
+     * rejected by the server with a 429 or 5xx status are spilled once libhoney reports them.
+     * <p>
+     * Spilled events are replayed in order, from a background thread, while libhoney has room for them. Spilled
+     * events count as accepted for {@link #awaitAcknowledgement(boolean)} and {@link HoneycombSpanExporter#flush()}.
+     * Events not yet replayed when the exporter shuts down stay on disk, and are replayed by the next exporter using
+     * the directory.
+     * <p>
+     * Each spilled event stores its timestamp, sample rate, dataset, API host and fields, along with the id of the
+     * route it was sent through, if any (see {@link #routeServiceName(String, String)} and
+     * {@link #routeAttribute(String, String, String)}). Write keys are not written to disk. A replayed event is sent
+     * through the route with that id, using the route's dataset, write key and API host; if the route is no longer
+     * configured, the event is dropped and counted, see {@link HoneycombSpanExporter#getSpillUnroutableEvents()}.
+     * Replayed events that were not routed keep their spilled dataset and API host, and use the client's write key.
+     * <p>
+     * Default: disabled
+     *
+     * @param spillDirectory to keep spilled events in, used by this exporter only.
+     * @return this.
+     * @see #spillMaxBytes(long)
+     */
+    public HoneycombSpanExporterBuilder spillDirectory(final Path spillDirectory) {
+        if (spillDirectory == null) {
+            throw new IllegalArgumentException();
+        }
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    /**
+     * Set this to define the size of each spill file. Only applies if spilling is enabled, see
+     * {@link #spillDirectory(Path)}.
+     * <p>
+     * Default: 8 MiB
+     *
+     * @param spillSegmentBytes bytes per file; an event larger than this cannot be spilled.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder spillSegmentBytes(final int spillSegmentBytes) {
+        if (spillSegmentBytes < 1024) {
+            throw new IllegalArgumentException();
+        }
+        this.spillSegmentBytes = spillSegmentBytes;
+        return this;
+    }
+
+    /**
+     * Set this to bound the disk space taken by spilled events. Events that do not fit are dropped, and counted by
+     * {@link HoneycombSpanExporter#getSpillDroppedEvents()}. Only applies if spilling is enabled, see
+     * {@link #spillDirectory(Path)}.
+     * <p>
+     * Default: 256 MiB
+     *
+     * @param spillMaxBytes maximum bytes, at least {@link #spillSegmentBytes(int)}.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder spillMaxBytes(final long spillMaxBytes) {
+        if (spillMaxBytes < 1024) {
+            throw new IllegalArgumentException();
+        }
+        this.spillMaxBytes = spillMaxBytes;
+        return this;
+    }
+
+    /**
+     * Set this to define the number of events sent to libhoney but without a response yet, from which new events
+     * are spilled rather than sent. Spilled events are replayed while fewer than half as many are outstanding. Only
+     * applies if spilling is enabled, see {@link #spillDirectory(Path)}.
+     * <p>
+     * Default: 80% of {@link #queueCapacity(int)}
+     *
+     * @param spillWatermark number of events.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder spillWatermark(final long spillWatermark) {
+        if (spillWatermark < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.spillWatermark = spillWatermark;
+        return this;
+    }
+
+    /**
+     * Set this to define how long (in milliseconds) replaying spilled events pauses, and new events are spilled
+     * rather than sent, after an event failed to be sent. Only applies if spilling is enabled, see
+     * {@link #spillDirectory(Path)}.
+     * <p>
+     * Default: 1000
+     *
+     * @param spillReplayBackoffMillis milliseconds, must not be negative.
+     * @return this.
+     */
+    public HoneycombSpanExporterBuilder spillReplayBackoffMillis(final long spillReplayBackoffMillis) {
+        if (spillReplayBackoffMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.spillReplayBackoffMillis = spillReplayBackoffMillis;
+        return this;
+    }
 }
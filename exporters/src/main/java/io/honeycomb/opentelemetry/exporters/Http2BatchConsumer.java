@@ -0,0 +1,288 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.libhoney.TransportOptions;
+import io.honeycomb.libhoney.eventdata.ResolvedEvent;
+import io.honeycomb.libhoney.responses.ResponseObservable;
+import io.honeycomb.libhoney.responses.impl.EventResponseFactory;
+import io.honeycomb.libhoney.responses.impl.LazyServerResponse;
+import io.honeycomb.libhoney.shaded.org.apache.http.HttpHost;
+import io.honeycomb.libhoney.shaded.org.apache.http.auth.AuthScope;
+import io.honeycomb.libhoney.shaded.org.apache.http.auth.Credentials;
+import io.honeycomb.libhoney.transport.batch.BatchConsumer;
+import io.honeycomb.libhoney.transport.batch.Batcher;
+import io.honeycomb.libhoney.transport.batch.impl.DefaultBatcher;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer.BatchRequestElement;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchKeyStrategy;
+import io.honeycomb.libhoney.transport.batch.impl.SystemClockProvider;
+import io.honeycomb.libhoney.transport.impl.BatchingHttpTransport;
+import io.honeycomb.libhoney.transport.json.JsonSerializer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static io.honeycomb.libhoney.utils.ObjectUtils.getRFC3339DateTimeFormatter;
+import static io.honeycomb.libhoney.utils.ObjectUtils.isNullOrEmpty;
+
+/**
+ * Sends batch requests over HTTP/2, as a replacement for libhoney's {@code HoneycombBatchConsumer}, which sends them
+ * through Apache's HTTP/1.1 client with one connection per concurrent request.
+ * <p>
+ * Concurrent requests to an API host are multiplexed as streams over a single connection per host, with HTTP/2 flow
+ * control pacing each of them, so {@link TransportOptions#getMaxPendingBatchRequests()} bounds the number of streams
+ * in flight rather than the number of sockets. HTTPS hosts negotiate HTTP/2 through ALPN, and fall back to HTTP/1.1
+ * if the server or the JVM does not support it. Plain HTTP hosts are spoken to in cleartext HTTP/2 (h2c) with prior
+ * knowledge, as there is no upgrade from HTTP/1.1 for request bodies.
+ * <p>
+ * Responses are parsed and published to response observers exactly as libhoney does.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe.
+ */
+class Http2BatchConsumer implements BatchConsumer<ResolvedEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Http2BatchConsumer.class);
+
+    private static final String BATCH_ENDPOINT_FORMAT = "/1/batch/%s";
+    private static final String WRITE_KEY_HEADER = "X-Honeycomb-Team";
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private final OkHttpClient secureClient;
+    private final OkHttpClient cleartextClient;
+    private final ResponseObservable observable;
+    private final JsonSerializer<List<BatchRequestElement>> serializer;
+    private final String contentEncoding;
+    private final Semaphore pendingRequests;
+    private final int maxPendingRequests;
+    private final long shutdownWaitMillis;
+    private final String userAgent;
+
+    /**
+     * @param client             to send requests to HTTPS hosts with; cleartext hosts share its connection pool and
+     *                           dispatcher.
+     * @param observable         to publish responses to.
+     * @param serializer         to serialize batches with.
+     * @param contentEncoding    of the serialized batches, or null if they are not encoded.
+     * @param maxPendingRequests the number of requests in flight, beyond which {@link #consume(List)} blocks.
+     * @param shutdownWaitMillis the time {@link #close()} waits for requests in flight.
+     * @param additionalUserAgent appended to the user agent, may be null.
+     */
+    Http2BatchConsumer(final OkHttpClient client, final ResponseObservable observable,
+                       final JsonSerializer<List<BatchRequestElement>> serializer, final String contentEncoding,
+                       final int maxPendingRequests, final long shutdownWaitMillis,
+                       final String additionalUserAgent) {
+        if (client == null || observable == null || serializer == null) {
+            throw new IllegalArgumentException();
+        }
+        if (maxPendingRequests < 1 || shutdownWaitMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.secureClient = client;
+        this.cleartextClient = client.newBuilder()
+            .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+            .build();
+        this.observable = observable;
+        this.serializer = serializer;
+        this.contentEncoding = contentEncoding;
+        this.pendingRequests = new Semaphore(maxPendingRequests);
+        this.maxPendingRequests = maxPendingRequests;
+        this.shutdownWaitMillis = shutdownWaitMillis;
+        final String version = LibHoney.class.getPackage().getImplementationVersion();
+        final String agent = "libhoney-java/" + (version == null ? "0.0.0" : version);
+        this.userAgent = isNullOrEmpty(additionalUserAgent) ? agent : agent + " " + additionalUserAgent;
+    }
+
+    /**
+     * Creates a batching transport that sends batches with an HTTP/2 consumer. Events are batched exactly as by the
+     * transport {@link BatchingHttpTransport#init(TransportOptions)} creates.
+     *
+     * @param options         to configure the transport and its HTTP client with. It must not have an SSL context, as
+     *                        the HTTP/2 client needs the trust manager behind it, which an SSL context does not
+     *                        expose; the JVM's default trust store is used instead.
+     * @param serializer      to serialize batches with.
+     * @param contentEncoding of the serialized batches, or null if they are not encoded.
+     * @return the transport.
+     */
+    static BatchingHttpTransport transport(final TransportOptions options,
+                                           final JsonSerializer<List<BatchRequestElement>> serializer,
+                                           final String contentEncoding) {
+        if (options.getSSLContext() != null) {
+            throw new IllegalArgumentException();
+        }
+        final Dispatcher dispatcher = new Dispatcher();
+        // the consumer bounds the requests in flight, so the dispatcher need not queue any
+        dispatcher.setMaxRequests(options.getMaxPendingBatchRequests());
+        dispatcher.setMaxRequestsPerHost(options.getMaxPendingBatchRequests());
+        final OkHttpClient.Builder client = new OkHttpClient.Builder()
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .dispatcher(dispatcher)
+            // HTTP/2 needs one connection per host, more are only kept for HTTP/1.1 fallback
+            .connectionPool(new ConnectionPool(options.getMaxHttpConnectionsPerApiHost(), KEEP_ALIVE_MINUTES,
+                TimeUnit.MINUTES))
+            .connectTimeout(Math.max(0, options.getConnectTimeout()), TimeUnit.MILLISECONDS)
+            .readTimeout(Math.max(0, options.getSocketTimeout()), TimeUnit.MILLISECONDS)
+            .writeTimeout(Math.max(0, options.getSocketTimeout()), TimeUnit.MILLISECONDS);
+        final HttpHost proxy = options.getProxy();
+        if (proxy != null) {
+            client.proxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxy.getHostName(),
+                proxy.getPort() < 0 ? 80 : proxy.getPort())));
+            final Credentials credentials = options.getCredentialsProvider() == null
+                ? null : options.getCredentialsProvider().getCredentials(new AuthScope(proxy));
+            if (credentials != null) {
+                client.proxyAuthenticator((route, response) -> response.request().newBuilder()
+                    .header("Proxy-Authorization", okhttp3.Credentials.basic(
+                        credentials.getUserPrincipal().getName(), credentials.getPassword()))
+                    .build());
+            }
+        }
+
+        final ResponseObservable observable = new ResponseObservable();
+        final Http2BatchConsumer consumer = new Http2BatchConsumer(client.build(), observable, serializer,
+            contentEncoding, options.getMaxPendingBatchRequests(), options.getMaximumHttpRequestShutdownWait(),
+            options.getAdditionalUserAgent());
+        final Batcher<ResolvedEvent> batcher = new DefaultBatcher<>(
+            new HoneycombBatchKeyStrategy(), consumer, SystemClockProvider.getInstance(),
+            new ArrayBlockingQueue<>(options.getQueueCapacity()), options.getBatchSize(),
+            options.getBatchTimeoutMillis());
+        return new BatchingHttpTransport(batcher, consumer, observable);
+    }
+
+    @Override
+    public void consume(final List<ResolvedEvent> batch) throws InterruptedException {
+        final ResolvedEvent first = batch.get(0);
+        final Request request;
+        try {
+            final HttpUrl apiHost = HttpUrl.get(first.getApiHost());
+            final HttpUrl url = apiHost == null
+                ? null : apiHost.resolve(String.format(BATCH_ENDPOINT_FORMAT, first.getDataset()));
+            if (url == null) {
+                throw new IllegalArgumentException("Invalid API host " + first.getApiHost());
+            }
+            final Request.Builder builder = new Request.Builder()
+                .url(url)
+                .header(WRITE_KEY_HEADER, first.getWriteKey())
+                .header("User-Agent", userAgent)
+                .post(RequestBody.create(JSON, serializer.serialize(toBatchRequest(batch))));
+            if (contentEncoding != null) {
+                builder.header("Content-Encoding", contentEncoding);
+            }
+            request = builder.build();
+        } catch (final IOException | RuntimeException e) {
+            for (ResolvedEvent event : batch) {
+                observable.publish(EventResponseFactory.requestBuildFailure(event, e));
+            }
+            LOG.error("Failed to construct HTTP request for submission to HTTP client. "
+                + "Error has been reported to ResponseObservers.", e);
+            return;
+        }
+
+        pendingRequests.acquire();
+        for (ResolvedEvent event : batch) {
+            event.markStartOfHttpRequest();
+        }
+        final OkHttpClient client = request.isHttps() ? secureClient : cleartextClient;
+        client.newCall(request).enqueue(new ResponseCallback(batch));
+    }
+
+    @Override
+    public void close() {
+        LOG.debug("Waiting for pending HTTP requests to complete.");
+        try {
+            if (!pendingRequests.tryAcquire(maxPendingRequests, shutdownWaitMillis, TimeUnit.MILLISECONDS)) {
+                LOG.debug("Timed out waiting for pending HTTP requests to complete.");
+            }
+        } catch (final InterruptedException e) {
+            LOG.error("Interrupted during wait for HTTP requests to complete", e);
+            Thread.currentThread().interrupt();
+        }
+        LOG.debug("Closing HTTP client");
+        secureClient.dispatcher().executorService().shutdown();
+        secureClient.connectionPool().evictAll();
+        LOG.debug("Closed HTTP client");
+    }
+
+    private static List<BatchRequestElement> toBatchRequest(final List<ResolvedEvent> batch) {
+        final SimpleDateFormat dateFormat = getRFC3339DateTimeFormatter();
+        final List<BatchRequestElement> elements = new ArrayList<>(batch.size());
+        for (ResolvedEvent event : batch) {
+            elements.add(new BatchRequestElement(dateFormat.format(new Date(event.getTimestamp())),
+                event.getSampleRate(), event.getFields()));
+        }
+        return elements;
+    }
+
+    /**
+     * Publishes the responses to one batch request and releases its permit.
+     */
+    private final class ResponseCallback implements Callback {
+        private final List<ResolvedEvent> batch;
+
+        private ResponseCallback(final List<ResolvedEvent> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onResponse(final Call call, final Response response) {
+            try (ResponseBody body = response.body()) {
+                markEndOfHttpRequest();
+                final byte[] bytes = body == null ? new byte[0] : body.bytes();
+                for (LazyServerResponse serverResponse
+                    : LazyServerResponse.createEventsWithServerResponse(batch, bytes, response.code())) {
+                    serverResponse.publishTo(observable);
+                }
+            } catch (final IOException | RuntimeException e) {
+                failed("HTTP client failed to read the response", e);
+            } finally {
+                pendingRequests.release();
+            }
+        }
+
+        @Override
+        public void onFailure(final Call call, final IOException e) {
+            try {
+                markEndOfHttpRequest();
+                failed("HTTP client completed request with an exception", e);
+            } finally {
+                pendingRequests.release();
+            }
+        }
+
+        private void markEndOfHttpRequest() {
+            for (ResolvedEvent event : batch) {
+                event.markEndOfHttpRequest();
+            }
+        }
+
+        private void failed(final String message, final Exception e) {
+            for (ResolvedEvent event : batch) {
+                observable.publish(EventResponseFactory.httpClientError(event, message, e));
+            }
+            LOG.error("Unexpected error. Batch request failed. "
+                + "An error has been published to the ResponseObservers for each event in the errored batch.");
+        }
+    }
+}
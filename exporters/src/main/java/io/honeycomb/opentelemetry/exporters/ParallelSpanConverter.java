@@ -0,0 +1,126 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.Event;
+import io.opentelemetry.sdk.trace.data.SpanData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Converts large batches of spans to events on several threads. The batch is split into contiguous chunks; the
+ * calling thread converts the first chunk itself while the others are converted on the executor, and also converts the
+ * chunks the executor rejects. Events are returned in the order of the spans they were converted from, so they can be
+ * submitted to libhoney in a deterministic order.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared, provided the executor is.
+ */
+class ParallelSpanConverter {
+
+    static final int MIN_CHUNK_SIZE = 64;
+
+    private final Executor executor;
+    private final int threshold;
+    private final int parallelism;
+
+    /**
+     * @param executor    to convert chunks of spans on.
+     * @param threshold   minimum number of spans in a batch for it to be converted in parallel.
+     * @param parallelism maximum number of chunks to split a batch into.
+     */
+    ParallelSpanConverter(final Executor executor, final int threshold, final int parallelism) {
+        if (executor == null) {
+            throw new IllegalArgumentException();
+        }
+        if (threshold < 1 || parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param batchSize number of spans in the batch.
+     * @return true if a batch of this size should be converted in parallel.
+     */
+    boolean appliesTo(final int batchSize) {
+        return batchSize >= threshold && chunks(batchSize) > 1;
+    }
+
+    /**
+     * Converts the spans, waiting for all chunks to complete. If converting any span throws, the exception is
+     * rethrown once all chunks have completed.
+     *
+     * @param spans     to convert.
+     * @param converter from span to event, called concurrently.
+     * @return the events, in the order of the spans.
+     */
+    Event[] convert(final Collection<SpanData> spans, final Function<SpanData, Event> converter) {
+        // chunks index into the list, so copy lists that are slow to index, such as linked lists
+        final List<SpanData> list = spans instanceof List && spans instanceof RandomAccess
+            ? (List<SpanData>) spans : new ArrayList<>(spans);
+        final Event[] events = new Event[list.size()];
+        final int chunks = chunks(events.length);
+        final int chunkSize = (events.length + chunks - 1) / chunks;
+
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[chunks - 1];
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            final int from = chunk * chunkSize;
+            final int to = Math.min(events.length, from + chunkSize);
+            try {
+                futures[chunk - 1] =
+                    CompletableFuture.runAsync(() -> convert(list, from, to, events, converter), executor);
+            } catch (final RejectedExecutionException e) {
+                // the executor is saturated or shut down, so the calling thread converts this chunk as well
+                futures[chunk - 1] = null;
+            }
+        }
+
+        RuntimeException failure = null;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (chunk > 0 && futures[chunk - 1] != null) {
+                continue;
+            }
+            final int from = chunk * chunkSize;
+            try {
+                convert(list, from, Math.min(events.length, from + chunkSize), events, converter);
+            } catch (final RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            if (chunk > 0) {
+                futures[chunk - 1] = CompletableFuture.completedFuture(null);
+            }
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (final CompletionException e) {
+            if (failure == null) {
+                failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return events;
+    }
+
+    private int chunks(final int batchSize) {
+        return Math.max(1, Math.min(parallelism, batchSize / MIN_CHUNK_SIZE));
+    }
+
+    private static void convert(final List<SpanData> spans, final int from, final int to, final Event[] events,
+                                final Function<SpanData, Event> converter) {
+        for (int i = from; i < to; i++) {
+            events[i] = converter.apply(spans.get(i));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.opentelemetry.common.AttributeConsumer;
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.ReadableAttributes;
+import io.opentelemetry.sdk.resources.Resource;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Caches the event fields derived from a {@link Resource}'s attributes, so that they are converted once per
+ * distinct Resource rather than once per exported span.
+ * <p>
+ * Resources are matched by identity, as the SDK shares a single Resource instance between all spans created by a
+ * tracer provider. The cache is a small, fixed size, direct-mapped table: a Resource that maps to an occupied slot
+ * simply replaces the previous entry, which bounds memory regardless of how many Resources are seen. An
+ * {@link AttributeFilter} is applied when the fields are converted, so that it is not applied again per span.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+class ResourceFieldsCache {
+
+    static final int DEFAULT_CAPACITY = 16;
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final AttributeFilter filter;
+
+    ResourceFieldsCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    ResourceFieldsCache(final int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity number of slots, rounded up to the next power of two.
+     * @param filter   to apply to the attributes, may be null to convert them all as is. Its maximum number of fields
+     *                 is not applied, as that applies per event.
+     */
+    ResourceFieldsCache(final int capacity, final AttributeFilter filter) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.entries = new AtomicReferenceArray<>(Math.max(1, size));
+        this.mask = entries.length() - 1;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns the fields for the given Resource, converting and caching its attributes if required.
+     *
+     * @param resource to get fields for, may be null.
+     * @return the map of field names to values, in the order the resource holds its attributes, which must not be
+     * modified. Empty if the resource has no supported attributes, or none that pass the filter.
+     */
+    Map<String, Object> get(final Resource resource) {
+        if (resource == null) {
+            return Collections.emptyMap();
+        }
+        final int slot = System.identityHashCode(resource) & mask;
+        final Entry entry = entries.get(slot);
+        if (entry != null && entry.resource == resource) {
+            return entry.fields;
+        }
+        final Map<String, Object> fields = toFields(resource.getAttributes());
+        entries.set(slot, new Entry(resource, fields));
+        return fields;
+    }
+
+    private Map<String, Object> toFields(final ReadableAttributes attributes) {
+        if (attributes == null || attributes.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        // in the order the resource holds them, so that the same fields are kept when the number of fields is limited
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        attributes.forEach(new AttributeConsumer() {
+            @Override
+            public <T> void consume(final AttributeKey<T> key, final T value) {
+                switch (key.getType()) {
+                    case STRING:
+                    case LONG:
+                    case BOOLEAN:
+                    case DOUBLE:
+                        if (filter == null) {
+                            fields.put(key.getKey(), value);
+                        } else {
+                            final AttributeFilter.Rule rule = filter.rule(key.getKey());
+                            if (rule != null) {
+                                fields.put(rule.name(key.getKey()), rule.value(value));
+                            }
+                        }
+                        break;
+                    default:
+                        // ignore
+                        break;
+                }
+            }
+        });
+        // not wrapped as unmodifiable, as adding a wrapped map to an event allocates a wrapper for each of its entries
+        return fields;
+    }
+
+    private static final class Entry {
+        private final Resource resource;
+        private final Map<String, Object> fields;
+
+        private Entry(final Resource resource, final Map<String, Object> fields) {
+            this.resource = resource;
+            this.fields = fields;
+        }
+    }
+}
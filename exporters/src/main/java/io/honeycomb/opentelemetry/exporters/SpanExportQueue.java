@@ -0,0 +1,370 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter.OverflowStrategy;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter.WaitStrategy;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A bounded ring buffer of exported spans, drained by dedicated threads that convert the spans to events and hand
+ * them to libhoney, so that {@link HoneycombSpanExporter#export} only has to enqueue them.
+ * <p>
+ * Slots are allocated up front and reused. Each slot carries a sequence number that tells producers and consumers
+ * whose turn it is (a bounded queue after Dmitry Vyukov's), so neither side takes a lock: claiming a slot is one
+ * compare-and-set on the tail or head counter. The SDK never calls export concurrently, so there is a single producer
+ * and its compare-and-set is uncontended; it only keeps concurrent callers safe.
+ * <p>
+ * Drain threads that find the queue empty idle as configured by {@link WaitStrategy}. A producer that finds it full
+ * drops the remaining spans or waits for room, as configured by {@link OverflowStrategy}. Spans are handed to the
+ * sink in the order they were enqueued, but with several drain threads they may reach libhoney out of order.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe.
+ */
+class SpanExportQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpanExportQueue.class);
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long BLOCKING_WAIT_MILLIS = 100;
+    private static final long OVERFLOW_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedSpans = new AtomicLong();
+    private final OverflowStrategy overflowStrategy;
+    private final WaitStrategy waitStrategy;
+    private final Thread[] drainThreads;
+
+    // only used by the blocking wait strategy; producers signal only while a drain thread waits
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private volatile BiConsumer<SpanData, ExportTracker.PendingExport> sink;
+    private volatile boolean closed;
+    // producers inside offer; drain threads only exit once there are none, so no span is enqueued after they did
+    private final AtomicInteger producers = new AtomicInteger();
+
+    /**
+     * @param capacity         the number of slots, rounded up to a power of two of at least 2.
+     * @param drainThreads     the number of threads draining the queue.
+     * @param overflowStrategy what to do with spans that do not fit.
+     * @param waitStrategy     how drain threads wait for spans.
+     */
+    SpanExportQueue(final int capacity, final int drainThreads, final OverflowStrategy overflowStrategy,
+                    final WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException();
+        }
+        if (drainThreads < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (overflowStrategy == null || waitStrategy == null) {
+            throw new IllegalArgumentException();
+        }
+        // with a single slot, the sequence of a filled slot equals that of the next free one, so producers would
+        // overwrite spans that were not drained yet
+        final int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = size - 1;
+        this.overflowStrategy = overflowStrategy;
+        this.waitStrategy = waitStrategy;
+        this.drainThreads = new Thread[drainThreads];
+    }
+
+    /**
+     * Starts the drain threads.
+     *
+     * @param sink that converts and sends each span; it must not throw, as there is nobody to report to.
+     */
+    void start(final BiConsumer<SpanData, ExportTracker.PendingExport> sink) {
+        this.sink = sink;
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setNameFormat("honeycomb-exporter-drain-%d")
+            .setDaemon(true)
+            .build();
+        for (int i = 0; i < drainThreads.length; i++) {
+            drainThreads[i] = threadFactory.newThread(this::drain);
+            drainThreads[i].start();
+        }
+    }
+
+    /**
+     * Enqueues spans for the drain threads, all of which must have been reserved on the pending export. Spans that
+     * do not fit, or that arrive after the queue was closed, are counted as dropped, see {@link #getDroppedSpans()},
+     * and their reservation is released.
+     *
+     * @param spans   to enqueue.
+     * @param pending the export the spans belong to.
+     * @return the number of spans enqueued.
+     */
+    int offer(final Iterable<SpanData> spans, final ExportTracker.PendingExport pending) {
+        int enqueued = 0;
+        int dropped = 0;
+        // counted before closed is read, so that a drain thread that sees the queue closed also sees this producer
+        producers.incrementAndGet();
+        try {
+            final Iterator<SpanData> iterator = spans.iterator();
+            while (iterator.hasNext()) {
+                final SpanData span = iterator.next();
+                if (closed || !offer(span, pending) && !awaitRoom(span, pending)) {
+                    dropped++;
+                    // the queue is full or closed, so drop the rest of the batch without trying each span
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                        dropped++;
+                    }
+                    break;
+                }
+                enqueued++;
+            }
+        } finally {
+            producers.decrementAndGet();
+        }
+        if (enqueued > 0) {
+            signalNotEmpty();
+        }
+        if (dropped > 0) {
+            droppedSpans.addAndGet(dropped);
+            pending.dropReserved(dropped);
+            LOG.debug("Dropped {} spans that did not fit the export queue", dropped);
+        }
+        return enqueued;
+    }
+
+    /**
+     * @return the number of spans waiting to be drained.
+     */
+    int size() {
+        // read the head first, so a concurrent drain can only make the result larger than it was, never negative
+        final long consumed = head.get();
+        return (int) Math.max(0, Math.min(slots.length, tail.get() - consumed));
+    }
+
+    /**
+     * @return the number of slots.
+     */
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the number of spans dropped because the queue was full or closed.
+     */
+    long getDroppedSpans() {
+        return droppedSpans.get();
+    }
+
+    /**
+     * Stops accepting spans. The drain threads exit once they have drained the spans already enqueued, including those
+     * of calls to {@link #offer(Iterable, ExportTracker.PendingExport)} that were under way.
+     */
+    void close() {
+        closed = true;
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the drain threads to exit after {@link #close()}.
+     *
+     * @param timeoutMillis to wait for in total.
+     * @return true if all drain threads exited in time.
+     */
+    boolean awaitTermination(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Thread thread : drainThreads) {
+            if (thread == null) {
+                continue;
+            }
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                thread.join(remaining);
+            }
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean offer(final SpanData span, final ExportTracker.PendingExport pending) {
+        long position = tail.get();
+        while (true) {
+            final Slot slot = slots[(int) position & mask];
+            final long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.span = span;
+                    slot.pending = pending;
+                    slot.sequence = position + 1;
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private boolean awaitRoom(final SpanData span, final ExportTracker.PendingExport pending) {
+        if (overflowStrategy == OverflowStrategy.DROP) {
+            return false;
+        }
+        // wake the drain threads for what has been enqueued so far, or there may never be room
+        signalNotEmpty();
+        while (!closed) {
+            LockSupport.parkNanos(OVERFLOW_WAIT_NANOS);
+            if (offer(span, pending)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean poll(final BiConsumer<SpanData, ExportTracker.PendingExport> consumer) {
+        long position = head.get();
+        while (true) {
+            final Slot slot = slots[(int) position & mask];
+            final long difference = slot.sequence - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final SpanData span = slot.span;
+                    final ExportTracker.PendingExport pending = slot.pending;
+                    slot.span = null;
+                    slot.pending = null;
+                    slot.sequence = position + slots.length;
+                    consumer.accept(span, pending);
+                    return true;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    private void drain() {
+        final BiConsumer<SpanData, ExportTracker.PendingExport> consumer = sink;
+        int idle = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (poll(consumer)) {
+                    idle = 0;
+                } else if (closed && producers.get() == 0 && isEmpty()) {
+                    return;
+                } else {
+                    idle = idle(idle);
+                }
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to drain a span from the export queue", e);
+            }
+        }
+        LOG.debug("Export queue drain thread interrupted, exiting");
+    }
+
+    private boolean isEmpty() {
+        final long position = head.get();
+        return slots[(int) position & mask].sequence - (position + 1) < 0;
+    }
+
+    /**
+     * Waits for spans after an unsuccessful poll, as configured by the wait strategy.
+     *
+     * @param idle the number of consecutive unsuccessful polls.
+     * @return the new number of consecutive unsuccessful polls.
+     */
+    private int idle(final int idle) {
+        if (waitStrategy == WaitStrategy.BUSY_SPIN || idle < SPIN_TRIES) {
+            return idle + 1;
+        }
+        switch (waitStrategy) {
+            case YIELDING:
+                Thread.yield();
+                return idle;
+            case SLEEPING:
+                if (idle < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                    return idle + 1;
+                }
+                LockSupport.parkNanos(SLEEP_NANOS);
+                return idle;
+            case BLOCKING:
+            default:
+                awaitNotEmpty();
+                return 0;
+        }
+    }
+
+    private void awaitNotEmpty() {
+        lock.lock();
+        try {
+            waiting.incrementAndGet();
+            try {
+                // check again now that producers will see us waiting; the timeout is a safety net only
+                if (isEmpty() && !closed) {
+                    notEmpty.await(BLOCKING_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalNotEmpty() {
+        if (waiting.get() == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A preallocated slot. Its sequence equals the position a producer may fill it at, or that position plus one
+     * once it has been filled and may be consumed.
+     */
+    private static final class Slot {
+        private volatile long sequence;
+        private SpanData span;
+        private ExportTracker.PendingExport pending;
+
+        private Slot(final long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
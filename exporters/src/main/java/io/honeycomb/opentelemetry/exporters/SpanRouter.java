@@ -0,0 +1,245 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.Event;
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.ReadableAttributes;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.resources.ResourceAttributes;
+import io.opentelemetry.sdk.trace.data.SpanData;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Picks the dataset, write key and API host of each span's event, from routes configured through
+ * {@link HoneycombSpanExporterBuilder}, so that a single exporter and client can send to several datasets or teams.
+ * Events of different routes are batched separately by libhoney, which groups batches by dataset, write key and API
+ * host, while sharing its queue, threads and connections.
+ * <p>
+ * A span is routed by the first attribute route, in the order their keys were added, whose key and value match one of
+ * its string attributes or, failing that, one of its resource's. Otherwise, it is routed by the service name of its
+ * resource. Spans without a route keep the client's settings.
+ * <p>
+ * The route matched by a Resource is cached, in the same kind of small, direct-mapped table as
+ * {@link ResourceFieldsCache}, so that resource attributes are matched once per distinct Resource. Span attributes,
+ * if there are attribute routes, are looked up per span, at the cost of one attribute lookup per route key.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+class SpanRouter {
+
+    /**
+     * Event metadata holding the id of the route an event was sent through, so that it can be spilled and replayed
+     * through the same route without writing its write key to disk.
+     */
+    static final String ROUTE_METADATA_KEY = "honeycomb.opentelemetry.route";
+
+    private final Map<String, Route> serviceNameRoutes;
+    private final List<AttributeKey<String>> attributeKeys;
+    private final Map<String, Map<String, Route>> attributeRoutes;
+    private final Map<String, Route> routesById;
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+
+    private SpanRouter(final Builder builder) {
+        this.serviceNameRoutes = Collections.unmodifiableMap(new HashMap<>(builder.serviceNameRoutes));
+        final List<AttributeKey<String>> keys = new ArrayList<>();
+        final Map<String, Map<String, Route>> routes = new HashMap<>();
+        for (Map.Entry<String, Map<String, Route>> key : builder.attributeRoutes.entrySet()) {
+            keys.add(AttributeKey.stringKey(key.getKey()));
+            routes.put(key.getKey(), Collections.unmodifiableMap(new HashMap<>(key.getValue())));
+        }
+        this.attributeKeys = Collections.unmodifiableList(keys);
+        this.attributeRoutes = Collections.unmodifiableMap(routes);
+
+        final Map<String, Route> byId = new HashMap<>();
+        for (Route route : serviceNameRoutes.values()) {
+            byId.put(route.id, route);
+        }
+        for (Map<String, Route> values : attributeRoutes.values()) {
+            for (Route route : values.values()) {
+                byId.put(route.id, route);
+            }
+        }
+        this.routesById = Collections.unmodifiableMap(byId);
+        this.entries = new AtomicReferenceArray<>(ResourceFieldsCache.DEFAULT_CAPACITY);
+        this.mask = entries.length() - 1;
+    }
+
+    /**
+     * @param span to route.
+     * @return the route of the span, or null if it has none.
+     */
+    Route route(final SpanData span) {
+        if (!attributeKeys.isEmpty()) {
+            final Route route = match(span.getAttributes());
+            if (route != null) {
+                return route;
+            }
+        }
+        return route(span.getResource());
+    }
+
+    /**
+     * Returns the route matched by the given Resource, matching and caching it if required.
+     *
+     * @param resource to route, may be null.
+     * @return the route, or null if the Resource matches none.
+     */
+    Route route(final Resource resource) {
+        if (resource == null) {
+            return null;
+        }
+        final int slot = System.identityHashCode(resource) & mask;
+        final Entry entry = entries.get(slot);
+        if (entry != null && entry.resource == resource) {
+            return entry.route;
+        }
+        final Route route = matchResource(resource.getAttributes());
+        entries.set(slot, new Entry(resource, route));
+        return route;
+    }
+
+    /**
+     * @param id of a route, as held by {@link #ROUTE_METADATA_KEY}, may be null.
+     * @return the route, or null if there is none with this id, e.g. as it is no longer configured.
+     */
+    Route get(final String id) {
+        return id == null ? null : routesById.get(id);
+    }
+
+    private Route matchResource(final ReadableAttributes attributes) {
+        if (attributes == null) {
+            return null;
+        }
+        if (!attributeKeys.isEmpty()) {
+            final Route route = match(attributes);
+            if (route != null) {
+                return route;
+            }
+        }
+        final String serviceName = attributes.get(ResourceAttributes.SERVICE_NAME);
+        return serviceName == null ? null : serviceNameRoutes.get(serviceName);
+    }
+
+    private Route match(final ReadableAttributes attributes) {
+        for (AttributeKey<String> key : attributeKeys) {
+            final String value = attributes.get(key);
+            if (value != null) {
+                final Route route = attributeRoutes.get(key.getKey()).get(value);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The dataset, write key and API host to send the events of a route to.
+     */
+    static final class Route {
+        private final String id;
+        private final String dataset;
+        private final String writeKey;
+        private final URI apiHost;
+
+        /**
+         * @param id       identifies the route across restarts, and must not hold secrets as it is spilled to disk.
+         * @param dataset  to send to.
+         * @param writeKey to send with, may be null for the client's.
+         * @param apiHost  to send to, may be null for the client's.
+         */
+        Route(final String id, final String dataset, final String writeKey, final URI apiHost) {
+            if (id == null || isNullOrEmpty(dataset)) {
+                throw new IllegalArgumentException();
+            }
+            this.id = id;
+            this.dataset = dataset;
+            this.writeKey = writeKey;
+            this.apiHost = apiHost;
+        }
+
+        /**
+         * Sets the dataset, write key and API host of the route on an event, and tags it with the route's id.
+         *
+         * @param event to route.
+         * @return the event.
+         */
+        Event applyTo(final Event event) {
+            event.setDataset(dataset);
+            if (writeKey != null) {
+                event.setWriteKey(writeKey);
+            }
+            if (apiHost != null) {
+                event.setApiHost(apiHost);
+            }
+            event.addMetadata(ROUTE_METADATA_KEY, id);
+            return event;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getDataset() {
+            return dataset;
+        }
+    }
+
+    private static final class Entry {
+        private final Resource resource;
+        // null if the resource matches no route
+        private final Route route;
+
+        private Entry(final Resource resource, final Route route) {
+            this.resource = resource;
+            this.route = route;
+        }
+    }
+
+    /**
+     * Collects routes for {@link HoneycombSpanExporterBuilder}. Routes added later for the same service name, or
+     * attribute key and value, replace earlier ones.
+     */
+    static final class Builder {
+        private final Map<String, Route> serviceNameRoutes = new HashMap<>();
+        private final Map<String, Map<String, Route>> attributeRoutes = new LinkedHashMap<>();
+
+        Builder serviceName(final String serviceName, final String dataset, final String writeKey,
+                            final URI apiHost) {
+            if (isNullOrEmpty(serviceName)) {
+                throw new IllegalArgumentException();
+            }
+            serviceNameRoutes.put(serviceName,
+                new Route("service:" + serviceName, dataset, writeKey, apiHost));
+            return this;
+        }
+
+        Builder attribute(final String key, final String value, final String dataset, final String writeKey,
+                          final URI apiHost) {
+            if (isNullOrEmpty(key) || value == null) {
+                throw new IllegalArgumentException();
+            }
+            attributeRoutes.computeIfAbsent(key, k -> new HashMap<>())
+                .put(value, new Route("attribute:" + key + "=" + value, dataset, writeKey, apiHost));
+            return this;
+        }
+
+        boolean isEmpty() {
+            return serviceNameRoutes.isEmpty() && attributeRoutes.isEmpty();
+        }
+
+        SpanRouter build() {
+            return new SpanRouter(this);
+        }
+    }
+}
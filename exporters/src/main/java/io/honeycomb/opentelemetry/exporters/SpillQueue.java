@@ -0,0 +1,721 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.Event;
+import io.honeycomb.libhoney.responses.ClientRejected;
+import io.honeycomb.libhoney.responses.Response;
+import io.honeycomb.libhoney.responses.ServerRejected;
+import io.honeycomb.libhoney.responses.Unknown;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Spills events that cannot be sent right now to segmented, memory-mapped files in a directory, and hands them back
+ * in the order they were spilled for the exporter to replay.
+ * <p>
+ * Each segment is a file of fixed size, mapped once when it is created. Records are appended as a length, a CRC32 of
+ * the payload and the payload, which holds the event's timestamp, dataset, API host, route id, sample rate and fields;
+ * write keys are not written to disk, so replayed events use their route's, see {@link SpanRouter}, or the client's.
+ * The length is written last, so a record torn by a crash ends the segment; a record that fails its CRC check on replay
+ * is skipped and counted. A segment is deleted once it is full and every record in it has been replayed and had a
+ * response from libhoney, so a crash re-sends at most the records of segments still on disk. Segments left by a
+ * previous process are picked up on start.
+ * <p>
+ * The total size of the segments is bounded; events that do not fit are dropped and counted.
+ * <p>
+ * Replaying pauses for a while after an event failed to be sent, so that an outage is not met with a stream of
+ * retries. While it is paused, the exporter spills new events straight away rather than sending them first.
+ * <p>
+ * Events are handed back in the order they were spilled. A replayed event that fails to be sent again is put back at
+ * the head of the queue with {@link #retry(SpilledEvent)}, in the order it was first read, so it is replayed before
+ * any event spilled after it; only events in flight at the same time can overtake each other. It is held in memory
+ * and its segment is kept on disk until it is acknowledged, so it is not lost on a restart.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe. A directory must not be shared by several queues.
+ */
+class SpillQueue {
+
+    /**
+     * Event metadata holding the event itself in a {@link Retained}, so that it can be spilled if libhoney reports it
+     * could not be sent.
+     */
+    static final String EVENT_METADATA_KEY = "honeycomb.opentelemetry.spill.event";
+    /**
+     * Event metadata holding the {@link SpilledEvent} a replayed event was read from.
+     */
+    static final String RECORD_METADATA_KEY = "honeycomb.opentelemetry.spill.record";
+
+    static final long DEFAULT_REPLAY_BACKOFF_MILLIS = 1_000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillQueue.class);
+
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int FORMAT_VERSION = 2;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte LONG_VALUE = 2;
+    private static final byte DOUBLE_VALUE = 3;
+    private static final byte BOOLEAN_VALUE = 4;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long replayBackoffNanos;
+    private final LongSupplier nanoClock;
+
+    // guarded by this
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final PriorityQueue<SpilledEvent> retries =
+        new PriorityQueue<>(Comparator.comparingLong(SpilledEvent::getSequence));
+    private long nextSegmentId;
+    private long nextSequence;
+    private boolean closed;
+
+    private final AtomicLong spilledEvents = new AtomicLong();
+    private final AtomicLong replayedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong corruptRecords = new AtomicLong();
+    private final AtomicLong unroutableEvents = new AtomicLong();
+    private volatile long replayPausedUntil;
+    private volatile boolean replayPaused;
+
+    /**
+     * @param directory     to keep segments in; created if missing. Segments already in it are replayed.
+     * @param segmentBytes  the size of each segment file.
+     * @param maxBytes      the maximum total size of the segments, at least one segment.
+     * @param backoffMillis to pause replaying for after an event failed to be sent.
+     * @throws UncheckedIOException if the directory or its segments cannot be read.
+     */
+    SpillQueue(final Path directory, final int segmentBytes, final long maxBytes, final long backoffMillis) {
+        this(directory, segmentBytes, maxBytes, backoffMillis, System::nanoTime);
+    }
+
+    SpillQueue(final Path directory, final int segmentBytes, final long maxBytes, final long backoffMillis,
+               final LongSupplier nanoClock) {
+        if (directory == null) {
+            throw new IllegalArgumentException();
+        }
+        if (segmentBytes <= RECORD_HEADER_BYTES || maxBytes < segmentBytes || backoffMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes);
+        this.replayBackoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        this.nanoClock = nanoClock;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to open spill directory " + directory, e);
+        }
+    }
+
+    /**
+     * @param response from libhoney for an event that was not accepted.
+     * @return true if sending the event again later may succeed: it overflowed libhoney's queue, the server was rate
+     * limiting (429) or failing (5xx) rather than rejecting the event itself, or it failed for another reason, such as
+     * the network.
+     */
+    static boolean isRetryable(final Response response) {
+        if (response instanceof ClientRejected) {
+            return ((ClientRejected) response).getReason() == ClientRejected.RejectionReason.QUEUE_OVERFLOW;
+        }
+        if (response instanceof ServerRejected) {
+            final ServerRejected rejected = (ServerRejected) response;
+            final int status = rejected.getBatchData() == null ? 0 : rejected.getBatchData().getBatchStatusCode();
+            return status == 429 || status >= 500;
+        }
+        return response instanceof Unknown;
+    }
+
+    /**
+     * Appends an event to the newest segment, starting a new one if it does not fit.
+     *
+     * @param event to spill.
+     * @return true if the event was written; false if it was dropped because the spill is full or closed, or the
+     * event is larger than a segment.
+     */
+    boolean append(final Event event) {
+        final byte[] payload;
+        try {
+            payload = serialize(event);
+        } catch (final IOException e) {
+            // only thrown by streams over real I/O, not the in-memory one serialize writes to
+            throw new UncheckedIOException(e);
+        }
+        final int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        synchronized (this) {
+            if (closed || recordBytes > segmentBytes) {
+                droppedEvents.incrementAndGet();
+                return false;
+            }
+            Segment segment = segments.peekLast();
+            if (segment == null || segment.sealed || segment.writePosition + recordBytes > segmentBytes) {
+                if (segment != null) {
+                    segment.sealed = true;
+                    deleteIfDone(segment);
+                }
+                segment = newSegment();
+                if (segment == null) {
+                    droppedEvents.incrementAndGet();
+                    return false;
+                }
+            }
+            final ByteBuffer view = segment.buffer.duplicate();
+            view.position(segment.writePosition + RECORD_HEADER_BYTES);
+            view.put(payload);
+            segment.buffer.putInt(segment.writePosition + 4, (int) crc.getValue());
+            // the length goes in last, so a record is never read without its payload
+            segment.buffer.putInt(segment.writePosition, payload.length);
+            segment.writePosition += recordBytes;
+            segment.records++;
+        }
+        spilledEvents.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Reads the oldest event to retry or, if there is none, the oldest event not yet replayed. Once it has been sent
+     * and had a response, pass its segment to {@link #acknowledge(Segment)}, or pass it to
+     * {@link #retry(SpilledEvent)} to replay it again.
+     *
+     * @return the event, or null if there is none.
+     */
+    SpilledEvent poll() {
+        int skipped = 0;
+        Exception lastError = null;
+        try {
+            while (true) {
+                final byte[] payload;
+                final Segment segment;
+                final long sequence;
+                synchronized (this) {
+                    final SpilledEvent retried = retries.poll();
+                    if (retried != null) {
+                        return retried;
+                    }
+                    segment = nextReadable();
+                    if (segment == null) {
+                        return null;
+                    }
+                    final int length = segment.buffer.getInt(segment.readPosition);
+                    payload = new byte[length];
+                    final ByteBuffer view = segment.buffer.duplicate();
+                    view.position(segment.readPosition + RECORD_HEADER_BYTES);
+                    view.get(payload);
+                    segment.readPosition += RECORD_HEADER_BYTES + length;
+                    segment.replayed++;
+                    sequence = nextSequence++;
+                }
+                try {
+                    final SpilledEvent event = deserialize(payload, segment, sequence);
+                    replayedEvents.incrementAndGet();
+                    return event;
+                } catch (final IOException | RuntimeException e) {
+                    // the CRC matched, so this is a record written by an incompatible version
+                    skipped++;
+                    lastError = e;
+                    corruptRecords.incrementAndGet();
+                    acknowledge(segment);
+                }
+            }
+        } finally {
+            if (skipped > 0) {
+                LOG.warn("Skipped {} spilled events that could not be read", skipped, lastError);
+            }
+        }
+    }
+
+    /**
+     * Marks a replayed event as done, deleting its segment once all of its events are.
+     *
+     * @param segment the event was read from.
+     */
+    synchronized void acknowledge(final Segment segment) {
+        segment.acknowledged++;
+        deleteIfDone(segment);
+    }
+
+    /**
+     * Puts a replayed event that failed to be sent back at the head of the queue, ahead of the events not yet
+     * replayed and of retried events read after it. Its segment is not acknowledged.
+     *
+     * @param event as returned by {@link #poll()}.
+     */
+    synchronized void retry(final SpilledEvent event) {
+        if (!closed) {
+            retries.add(event);
+        }
+    }
+
+    /**
+     * Drops a replayed event whose route is no longer configured, and acknowledges it. Its write key is not spilled,
+     * so it cannot be sent through its route, and sending it with another write key could file it under another team.
+     *
+     * @param event as returned by {@link #poll()}.
+     */
+    void dropUnroutable(final SpilledEvent event) {
+        unroutableEvents.incrementAndGet();
+        acknowledge(event.getSegment());
+    }
+
+    /**
+     * Pauses replaying, and has new events spilled rather than sent, for the backoff period.
+     */
+    void pauseReplay() {
+        replayPausedUntil = nanoClock.getAsLong() + replayBackoffNanos;
+        replayPaused = true;
+    }
+
+    /**
+     * @return true while replaying is paused after a failure.
+     */
+    boolean isReplayPaused() {
+        if (!replayPaused) {
+            return false;
+        }
+        if (nanoClock.getAsLong() - replayPausedUntil < 0) {
+            return true;
+        }
+        replayPaused = false;
+        return false;
+    }
+
+    /**
+     * Flushes the segments to disk and stops accepting events. Segments that have not been fully replayed are kept,
+     * to be replayed by the next queue opened on the directory.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+        // their segments were not acknowledged, so they are still on disk
+        retries.clear();
+    }
+
+    long getSpilledEvents() {
+        return spilledEvents.get();
+    }
+
+    long getReplayedEvents() {
+        return replayedEvents.get();
+    }
+
+    long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    long getCorruptRecords() {
+        return corruptRecords.get();
+    }
+
+    long getUnroutableEvents() {
+        return unroutableEvents.get();
+    }
+
+    /**
+     * @return the number of bytes of records not yet replayed.
+     */
+    synchronized long getBacklogBytes() {
+        long backlog = 0;
+        for (Segment segment : segments) {
+            backlog += segment.writePosition - segment.readPosition;
+        }
+        return backlog;
+    }
+
+    /**
+     * @return the number of segment files.
+     */
+    synchronized int getSegments() {
+        return segments.size();
+    }
+
+    private Segment nextReadable() {
+        final Iterator<Segment> iterator = segments.iterator();
+        while (iterator.hasNext()) {
+            final Segment segment = iterator.next();
+            while (segment.readPosition < segment.writePosition) {
+                final int length = recordLength(segment, segment.readPosition);
+                if (length < 0) {
+                    // without a length there is no telling where the next record starts, so skip the rest
+                    LOG.warn("Skipping unreadable end of spill segment {}", segment.path);
+                    corruptRecords.incrementAndGet();
+                    segment.readPosition = segment.writePosition;
+                } else if (crcMatches(segment, segment.readPosition, length)) {
+                    return segment;
+                } else {
+                    LOG.warn("Skipping corrupt record in spill segment {}", segment.path);
+                    corruptRecords.incrementAndGet();
+                    segment.readPosition += RECORD_HEADER_BYTES + length;
+                }
+            }
+            if (isDone(segment)) {
+                iterator.remove();
+                delete(segment);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the payload length of the record at the position, or -1 if there is no record there: the length is
+     * zero, as in the unwritten part of a segment, or runs past the end of what has been written.
+     */
+    private static int recordLength(final Segment segment, final int position) {
+        if (position + RECORD_HEADER_BYTES > segment.writePosition) {
+            return -1;
+        }
+        final int length = segment.buffer.getInt(position);
+        if (length <= 0 || length > segment.writePosition - position - RECORD_HEADER_BYTES) {
+            return -1;
+        }
+        return length;
+    }
+
+    private static boolean crcMatches(final Segment segment, final int position, final int length) {
+        final ByteBuffer view = segment.buffer.duplicate();
+        view.position(position + RECORD_HEADER_BYTES);
+        view.limit(position + RECORD_HEADER_BYTES + length);
+        final CRC32 crc = new CRC32();
+        crc.update(view);
+        return (int) crc.getValue() == segment.buffer.getInt(position + 4);
+    }
+
+    private void deleteIfDone(final Segment segment) {
+        if (isDone(segment) && segments.remove(segment)) {
+            delete(segment);
+        }
+    }
+
+    private static boolean isDone(final Segment segment) {
+        return segment.sealed && segment.readPosition >= segment.writePosition
+            && segment.acknowledged >= segment.replayed;
+    }
+
+    private static void delete(final Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (final IOException e) {
+            LOG.warn("Failed to delete spill segment {}", segment.path, e);
+        }
+    }
+
+    private Segment newSegment() {
+        if (segments.size() >= maxSegments) {
+            return null;
+        }
+        final Path path = directory.resolve(
+            String.format("%s%016d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        try {
+            final Segment segment = new Segment(path, map(path, segmentBytes));
+            segments.addLast(segment);
+            return segment;
+        } catch (final IOException e) {
+            LOG.warn("Failed to create spill segment {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the segments left in the directory, oldest first, finding the end of each by following the lengths of
+     * its records.
+     */
+    private void recover() throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        final String glob = SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        for (Path path : paths) {
+            final String name = path.getFileName().toString();
+            final long id;
+            try {
+                id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (final NumberFormatException e) {
+                continue;
+            }
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            final int size = (int) Math.min(Integer.MAX_VALUE, Files.size(path));
+            final Segment segment = new Segment(path, map(path, size));
+            segment.writePosition = size;
+            // corrupt records are framed by their length and skipped on replay, so only the length is checked here
+            int position = 0;
+            int length;
+            while ((length = recordLength(segment, position)) > 0) {
+                position += RECORD_HEADER_BYTES + length;
+                segment.records++;
+            }
+            segment.writePosition = position;
+            segment.sealed = true;
+            if (segment.records == 0) {
+                Files.deleteIfExists(path);
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("Replaying {} spilled segments from {}", segments.size(), directory);
+        }
+    }
+
+    private static MappedByteBuffer map(final Path path, final int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static byte[] serialize(final Event event) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        final Long timestamp = event.getTimestamp();
+        out.writeLong(timestamp == null ? System.currentTimeMillis() : timestamp);
+        out.writeInt(event.getSampleRate());
+        writeString(event.getDataset(), out);
+        writeString(event.getApiHost() == null ? null : event.getApiHost().toString(), out);
+        final Object route = event.getMetadata().get(SpanRouter.ROUTE_METADATA_KEY);
+        writeString(route instanceof String ? (String) route : null, out);
+        final Map<String, Object> fields = event.getFields();
+        out.writeInt(fields.size());
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            writeString(field.getKey(), out);
+            writeValue(field.getValue(), out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SpilledEvent deserialize(final byte[] payload, final Segment segment, final long sequence)
+        throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readByte() != FORMAT_VERSION) {
+            throw new IOException("Unknown spill record format");
+        }
+        final long timestamp = in.readLong();
+        final int sampleRate = in.readInt();
+        final String dataset = readString(in);
+        final String apiHost = readString(in);
+        final String route = readString(in);
+        final int count = in.readInt();
+        final Map<String, Object> fields = new LinkedHashMap<>(Math.max(16, count * 2));
+        for (int i = 0; i < count; i++) {
+            fields.put(readString(in), readValue(in));
+        }
+        return new SpilledEvent(segment, sequence, timestamp, sampleRate, dataset,
+            apiHost == null ? null : URI.create(apiHost), route, fields);
+    }
+
+    private static void writeValue(final Object value, final DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+            || value instanceof Byte) {
+            out.writeByte(LONG_VALUE);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(STRING_VALUE);
+            writeString(value.toString(), out);
+        }
+    }
+
+    private static Object readValue(final DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case LONG_VALUE:
+                return in.readLong();
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case BOOLEAN_VALUE:
+                return in.readBoolean();
+            case STRING_VALUE:
+                return readString(in);
+            default:
+                throw new IOException("Unknown spilled value type " + type);
+        }
+    }
+
+    // DataOutput.writeUTF is limited to 64KB, which long attribute values can exceed
+    private static void writeString(final String value, final DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A segment file. Its buffer stays mapped until it is garbage collected, as Java 8 offers no way to unmap it.
+     */
+    static final class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int readPosition;
+        private int records;
+        private int replayed;
+        private int acknowledged;
+        private boolean sealed;
+
+        private Segment(final Path path, final MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Holds an event in its own metadata, without the metadata's string form, as logged by debug response observers,
+     * recursing into the event.
+     */
+    static final class Retained {
+        private final Event event;
+
+        Retained(final Event event) {
+            this.event = event;
+        }
+
+        Event getEvent() {
+            return event;
+        }
+
+        @Override
+        public String toString() {
+            return "Retained";
+        }
+    }
+
+    /**
+     * An event read back from a segment.
+     */
+    static final class SpilledEvent {
+        private final Segment segment;
+        // the order the event was first read in
+        private final long sequence;
+        private final long timestamp;
+        private final int sampleRate;
+        private final String dataset;
+        private final URI apiHost;
+        private final String route;
+        private final Map<String, Object> fields;
+
+        private SpilledEvent(final Segment segment, final long sequence, final long timestamp, final int sampleRate,
+                             final String dataset, final URI apiHost, final String route,
+                             final Map<String, Object> fields) {
+            this.segment = segment;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.sampleRate = sampleRate;
+            this.dataset = dataset;
+            this.apiHost = apiHost;
+            this.route = route;
+            this.fields = fields;
+        }
+
+        /**
+         * Copies the spilled event onto a new event, tagging it with this spilled event. The dataset and API host are
+         * only restored for events that were not routed; a routed event takes them from its route, along with the
+         * write key.
+         *
+         * @param event created by the client to replay through.
+         * @return the event.
+         */
+        Event copyTo(final Event event) {
+            event.setTimestamp(timestamp);
+            event.setSampleRate(sampleRate);
+            event.addFields(fields);
+            event.addMetadata(RECORD_METADATA_KEY, this);
+            if (route != null) {
+                return event;
+            }
+            if (dataset != null) {
+                event.setDataset(dataset);
+            }
+            if (apiHost != null) {
+                event.setApiHost(apiHost);
+            }
+            return event;
+        }
+
+        Segment getSegment() {
+            return segment;
+        }
+
+        private long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the id of the route the event was sent through, or null if it was not routed.
+         */
+        String getRoute() {
+            return route;
+        }
+
+        Map<String, Object> getFields() {
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer.BatchRequestElement;
+import io.honeycomb.libhoney.transport.json.BatchRequestSerializer;
+import io.honeycomb.libhoney.transport.json.JsonSerializer;
+import io.honeycomb.libhoney.utils.JsonUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serializes batch requests to Honeycomb's batch JSON format by streaming each event straight into a reusable,
+ * per-thread byte buffer, rather than going through Jackson's object mapping as {@link BatchRequestSerializer} does.
+ * <p>
+ * Field names are encoded once, together with their surrounding quotes and separator, and copied into each event
+ * from then on. Strings, integral numbers and booleans are written without intermediate objects. Values of any other
+ * type fall back to libhoney's Jackson mapper, so the output is equivalent to that of
+ * {@link BatchRequestSerializer}.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+public class StreamingBatchRequestSerializer implements JsonSerializer<List<BatchRequestElement>> {
+
+    static final int MAX_CACHED_NAMES = 1024;
+    static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final byte[] TIME_PREFIX = ascii("{\"time\":");
+    private static final byte[] SAMPLERATE_PREFIX = ascii(",\"samplerate\":");
+    private static final byte[] DATA_PREFIX = ascii(",\"data\":{");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] MIN_LONG = ascii(Long.toString(Long.MIN_VALUE));
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private final ConcurrentMap<String, byte[]> encodedNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    @Override
+    public byte[] serialize(final List<BatchRequestElement> batch) throws IOException {
+        return serialize(batch, Arrays::copyOfRange);
+    }
+
+    /**
+     * Serializes the batch and hands the encoded bytes to the given encoder while they are still in the per-thread
+     * buffer, so that an encoder such as {@link GzipBatchRequestSerializer} does not need a copy of them first.
+     *
+     * @param batch   to serialize.
+     * @param encoder that turns the serialized bytes into the request body; it must not retain the array.
+     * @return the request body.
+     */
+    byte[] serialize(final List<BatchRequestElement> batch, final Encoder encoder) throws IOException {
+        final Buffer buffer = buffers.get();
+        try {
+            writeBatch(batch, buffer);
+            return encoder.encode(buffer.bytes, 0, buffer.size);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Writes the batch into the given buffer.
+     */
+    void writeBatch(final List<BatchRequestElement> batch, final Buffer out) throws IOException {
+        out.write('[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            final BatchRequestElement element = batch.get(i);
+            out.write(TIME_PREFIX);
+            writeString(element.getTime(), out);
+            out.write(SAMPLERATE_PREFIX);
+            writeLong(element.getSamplerate(), out);
+            out.write(DATA_PREFIX);
+            writeFields(element.getData(), out);
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    private void writeFields(final Map<String, ?> fields, final Buffer out) throws IOException {
+        boolean first = true;
+        for (Map.Entry<String, ?> field : fields.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write(encodedName(field.getKey()));
+            writeValue(field.getValue(), out);
+        }
+        out.write('}');
+    }
+
+    private byte[] encodedName(final String name) {
+        byte[] encoded = encodedNames.get(name);
+        if (encoded == null) {
+            final Buffer buffer = new Buffer(name.length() + 3);
+            writeString(name, buffer);
+            buffer.write(':');
+            encoded = buffer.toByteArray();
+            if (encodedNames.size() < MAX_CACHED_NAMES) {
+                encodedNames.putIfAbsent(name, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    private void writeValue(final Object value, final Buffer out) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof String) {
+            writeString((String) value, out);
+        } else if (value instanceof Long || value instanceof Integer
+            || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue(), out);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+            out.write('{');
+            writeFields(stringKeyed((Map<?, ?>) value), out);
+        } else if (value instanceof Collection) {
+            out.write('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeValue(element, out);
+            }
+            out.write(']');
+        } else {
+            // doubles, dates, arrays, maps with non-string keys and anything else keep Jackson's representation
+            out.write(JsonUtils.OBJECT_MAPPER.writeValueAsBytes(value));
+        }
+    }
+
+    private static boolean hasStringKeys(final Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, ?> stringKeyed(final Map<?, ?> map) {
+        return (Map<String, ?>) map;
+    }
+
+    private static void writeLong(final long value, final Buffer out) {
+        if (value == Long.MIN_VALUE) {
+            out.write(MIN_LONG);
+            return;
+        }
+        long remaining = value;
+        if (remaining < 0) {
+            out.write('-');
+            remaining = -remaining;
+        }
+        final int digits = digits(remaining);
+        out.ensureCapacity(digits);
+        int position = out.size + digits;
+        out.size = position;
+        do {
+            out.bytes[--position] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+    }
+
+    private static int digits(final long value) {
+        long limit = 10;
+        for (int digits = 1; digits < 19; digits++) {
+            if (value < limit) {
+                return digits;
+            }
+            limit *= 10;
+        }
+        return 19;
+    }
+
+    private static void writeString(final String value, final Buffer out) {
+        out.ensureCapacity(value.length() + 2);
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                out.write(c);
+            } else if (c < 0x80) {
+                writeEscaped(c, out);
+            } else if (c < 0x800) {
+                out.write(0xc0 | (c >> 6));
+                out.write(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.write(0xf0 | (codePoint >> 18));
+                out.write(0x80 | ((codePoint >> 12) & 0x3f));
+                out.write(0x80 | ((codePoint >> 6) & 0x3f));
+                out.write(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates cannot be encoded as UTF-8
+                out.write('?');
+            } else {
+                out.write(0xe0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3f));
+                out.write(0x80 | (c & 0x3f));
+            }
+        }
+        out.write('"');
+    }
+
+    private static void writeEscaped(final char c, final Buffer out) {
+        out.write('\\');
+        switch (c) {
+            case '"':
+            case '\\':
+                out.write(c);
+                break;
+            case '\n':
+                out.write('n');
+                break;
+            case '\r':
+                out.write('r');
+                break;
+            case '\t':
+                out.write('t');
+                break;
+            case '\b':
+                out.write('b');
+                break;
+            case '\f':
+                out.write('f');
+                break;
+            default:
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xf]);
+                break;
+        }
+    }
+
+    private static byte[] ascii(final String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes a serialized batch into a request body.
+     */
+    interface Encoder {
+        byte[] encode(byte[] bytes, int from, int to) throws IOException;
+    }
+
+    /**
+     * A growable byte buffer that is kept per thread and reused between batches. Buffers that had to grow beyond
+     * {@link #MAX_RETAINED_BUFFER_SIZE} for an unusually large batch are shrunk back when reset.
+     */
+    static final class Buffer {
+        private byte[] bytes;
+        private int size;
+
+        Buffer() {
+            this(INITIAL_BUFFER_SIZE);
+        }
+
+        Buffer(final int initialSize) {
+            this.bytes = new byte[initialSize];
+        }
+
+        void write(final int b) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void write(final byte[] b) {
+            ensureCapacity(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        void ensureCapacity(final int additional) {
+            final int required = size + additional;
+            if (required > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length << 1));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        void reset() {
+            size = 0;
+            if (bytes.length > MAX_RETAINED_BUFFER_SIZE) {
+                bytes = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.resources.Resource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttributeFilterTest {
+
+    private final Set<String> allowed = new HashSet<>();
+    private final Set<String> denied = new HashSet<>();
+    private final Map<String, String> renames = new HashMap<>();
+    private final Map<String, Integer> maxLengths = new HashMap<>();
+
+    @Test public void testInvalidArgumentsThrowException() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new AttributeFilter(null, denied, renames, maxLengths, 10, 10));
+        assertThrows(IllegalArgumentException.class,
+            () -> new AttributeFilter(allowed, denied, renames, maxLengths, 0, 10));
+        assertThrows(IllegalArgumentException.class,
+            () -> new AttributeFilter(allowed, denied, renames, maxLengths, 10, -1));
+        maxLengths.put("key", 0);
+        assertThrows(IllegalArgumentException.class,
+            () -> new AttributeFilter(allowed, denied, renames, maxLengths, 10, 10));
+    }
+
+    @Test public void testDeniedKeysAreDropped() {
+        denied.add("db.statement");
+        renames.put("db.statement", "sql");
+        final AttributeFilter filter = filter(AttributeFilter.UNLIMITED);
+
+        assertNull(filter.rule("db.statement"));
+        assertEquals("other", filter.rule("other").name("other"));
+        assertEquals("value", filter.rule("other").value("value"));
+    }
+
+    @Test public void testOnlyAllowedKeysAreKept() {
+        allowed.add("http.method");
+        allowed.add("db.statement");
+        denied.add("db.statement");
+        renames.put("not.allowed", "renamed");
+        final AttributeFilter filter = filter(AttributeFilter.UNLIMITED);
+
+        assertEquals("http.method", filter.rule("http.method").name("http.method"));
+        assertNull(filter.rule("db.statement"));
+        assertNull(filter.rule("not.allowed"));
+        assertNull(filter.rule("other"));
+    }
+
+    @Test public void testKeysAreRenamed() {
+        renames.put("http.method", "method");
+        final AttributeFilter filter = filter(AttributeFilter.UNLIMITED);
+
+        assertEquals("method", filter.rule("http.method").name("http.method"));
+        assertEquals("http.url", filter.rule("http.url").name("http.url"));
+    }
+
+    @Test public void testStringValuesAreTruncated() {
+        maxLengths.put("db.statement", 6);
+        maxLengths.put("emoji", 2);
+        final AttributeFilter filter = filter(4);
+
+        assertEquals("SELECT", filter.rule("db.statement").value("SELECT * FROM spans"));
+        assertEquals("abcd", filter.rule("other").value("abcdefgh"));
+        assertEquals("abc", filter.rule("other").value("abc"));
+        assertEquals(123456789L, filter.rule("other").value(123456789L));
+        assertEquals(true, filter.rule("other").value(true));
+        // a surrogate pair is not split
+        assertEquals("a", filter.rule("emoji").value("a😀b"));
+        assertEquals("😀", filter.rule("emoji").value("😀b"));
+    }
+
+    @Test public void testResourceFieldsAreFiltered() {
+        denied.add("host.name");
+        renames.put("service.version", "version");
+        final Resource resource = Resource.create(Attributes.of(
+            AttributeKey.stringKey("host.name"), "my-host",
+            AttributeKey.stringKey("service.version"), "1.2.3-SNAPSHOT",
+            AttributeKey.longKey("process.pid"), 42L));
+
+        final Map<String, Object> fields = new ResourceFieldsCache(1, filter(5)).get(resource);
+
+        assertEquals(2, fields.size());
+        assertEquals("1.2.3", fields.get("version"));
+        assertEquals(42L, fields.get("process.pid"));
+    }
+
+    @Test public void testEmptyConfigurationKeepsEverything() {
+        final AttributeFilter filter = new AttributeFilter(Collections.emptySet(), Collections.emptySet(),
+            Collections.emptyMap(), Collections.emptyMap(), AttributeFilter.UNLIMITED, AttributeFilter.UNLIMITED);
+
+        assertEquals("key", filter.rule("key").name("key"));
+        assertEquals("value", filter.rule("key").value("value"));
+        assertEquals(AttributeFilter.UNLIMITED, filter.getMaxFields());
+    }
+
+    private AttributeFilter filter(final int maxValueLength) {
+        return new AttributeFilter(allowed, denied, renames, maxLengths, maxValueLength, AttributeFilter.UNLIMITED);
+    }
+}
@@ -0,0 +1,191 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.Event;
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.libhoney.responses.ServerAccepted;
+import io.honeycomb.libhoney.responses.ServerRejected;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ExportTrackerTest {
+
+    private RecordingTransport transport;
+    private HoneycombSpanExporter exporter;
+    private ExportTracker tracker;
+
+    @BeforeEach
+    public void setUp() {
+        transport = new RecordingTransport();
+        tracker = new ExportTracker();
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), transport);
+        exporter = new HoneycombSpanExporter(new HoneycombSpanExporter.Settings(client, "my-service")
+            .tracker(tracker)
+            .awaitAcknowledgement(true));
+    }
+
+    @Test public void testResultCompletesWhenAllEventsAreAccepted() {
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(3));
+
+        assertFalse(result.isDone());
+        assertEquals(3, tracker.getOutstanding());
+
+        transport.accept(transport.submitted.get(0));
+        transport.accept(transport.submitted.get(1));
+        assertFalse(result.isDone());
+
+        transport.accept(transport.submitted.get(2));
+        assertTrue(result.isDone());
+        assertTrue(result.isSuccess());
+        assertEquals(0, tracker.getOutstanding());
+    }
+
+    @Test public void testResultFailsWhenAnEventIsRejectedByTheServer() {
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(2));
+
+        transport.accept(transport.submitted.get(0));
+        final ServerRejected rejected = mock(ServerRejected.class);
+        when(rejected.getEventMetadata()).thenReturn(transport.submitted.get(1).getMetadata());
+        transport.observable.publish(rejected);
+
+        assertTrue(result.isDone());
+        assertFalse(result.isSuccess());
+    }
+
+    @Test public void testResultFailsWhenQueueOverflows() {
+        transport.accepting = false;
+
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(2));
+
+        assertTrue(result.isDone());
+        assertFalse(result.isSuccess());
+        assertEquals(0, tracker.getOutstanding());
+    }
+
+    @Test public void testEmptyExportSucceedsImmediately() {
+        final CompletableResultCode result = exporter.export(new ArrayList<>());
+
+        assertTrue(result.isSuccess());
+    }
+
+    @Test public void testResponsesOfOtherEventsAreIgnored() {
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(1));
+
+        final ServerAccepted unrelated = mock(ServerAccepted.class);
+        tracker.onServerAccepted(unrelated);
+        assertFalse(result.isDone());
+
+        transport.accept(transport.submitted.get(0));
+        assertTrue(result.isSuccess());
+    }
+
+    @Test public void testResultSucceedsOnSubmissionWithoutAwaitingAcknowledgement() {
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), transport);
+        final HoneycombSpanExporter exporter =
+            new HoneycombSpanExporter(new HoneycombSpanExporter.Settings(client, "my-service")
+                .tracker(tracker));
+
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(2));
+
+        assertTrue(result.isSuccess());
+        assertEquals(2, tracker.getOutstanding());
+    }
+
+    @Test public void testFlushWithNothingOutstandingSucceedsImmediately() {
+        final FlushResult result = exporter.flush();
+
+        assertTrue(result.isSuccess());
+        assertEquals(0, result.getRemainingEvents());
+    }
+
+    @Test public void testFlushSucceedsOnceEarlierEventsAreAcknowledged() {
+        exporter.export(TestSpanData.createSpans(2));
+        final FlushResult result = exporter.flush();
+        assertFalse(result.isDone());
+
+        // events exported after the flush are not waited for
+        exporter.export(TestSpanData.createSpans(1));
+        transport.accept(transport.submitted.get(0));
+        transport.accept(transport.submitted.get(1));
+
+        assertTrue(result.isSuccess());
+        assertEquals(0, result.getRemainingEvents());
+        assertEquals(1, tracker.getOutstanding());
+    }
+
+    @Test public void testFlushTimesOutReportingOutstandingEvents() {
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), transport);
+        final HoneycombSpanExporter exporter =
+            new HoneycombSpanExporter(new HoneycombSpanExporter.Settings(client, "my-service")
+                .tracker(tracker)
+                .flushTimeoutMillis(50));
+        exporter.export(TestSpanData.createSpans(3));
+        transport.accept(transport.submitted.get(0));
+
+        final FlushResult result = exporter.flush();
+        result.join(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isDone());
+        assertFalse(result.isSuccess());
+        assertEquals(2, result.getRemainingEvents());
+    }
+
+    @Test public void testShutdownClosesClientOnceEventsAreAcknowledged() {
+        exporter.export(TestSpanData.createSpans(1));
+
+        final CompletableResultCode result = exporter.shutdown();
+        assertFalse(exporter.export(TestSpanData.createSpans(1)).isSuccess());
+        assertFalse(result.isDone());
+        assertEquals(1, transport.submitted.size());
+
+        transport.accept(transport.submitted.get(0));
+        assertTrue(result.join(5, TimeUnit.SECONDS).isSuccess());
+    }
+
+    @Test public void testReservedEventsDoNotCountTowardsTheSpillWatermark(@TempDir final Path directory) {
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 1_000);
+        final ExportTracker spilling = new ExportTracker(spill, 2);
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), transport);
+        try {
+            final ExportTracker.PendingExport pending = spilling.begin();
+            // e.g. waiting in the export queue
+            pending.reserve(10);
+            assertEquals(0, spilling.getOutstanding());
+
+            pending.sendReserved(event(client));
+            pending.sendReserved(event(client));
+            assertEquals(2, transport.submitted.size());
+            assertEquals(0, spill.getSpilledEvents());
+            assertEquals(2, spilling.getOutstanding());
+
+            // two events are now with libhoney, which is the watermark
+            pending.sendReserved(event(client));
+            assertEquals(2, transport.submitted.size());
+            assertEquals(1, spill.getSpilledEvents());
+            assertEquals(2, spilling.getOutstanding());
+
+            pending.dropReserved(7);
+            assertEquals(2, spilling.getOutstanding());
+        } finally {
+            client.close();
+        }
+    }
+
+    private static Event event(final HoneyClient client) {
+        final Event event = client.createEvent();
+        event.addField("name", "spanName");
+        return event;
+    }
+}
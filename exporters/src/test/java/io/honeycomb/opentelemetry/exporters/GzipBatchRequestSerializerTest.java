@@ -0,0 +1,181 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import com.sun.net.httpserver.HttpServer;
+import io.honeycomb.libhoney.shaded.com.fasterxml.jackson.databind.JsonNode;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer.BatchRequestElement;
+import io.honeycomb.libhoney.transport.json.BatchRequestSerializer;
+import io.honeycomb.libhoney.utils.JsonUtils;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GzipBatchRequestSerializerTest {
+
+    private HttpServer server;
+    private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+    private final List<JsonNode> batches = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts a stand-in for Honeycomb's batch endpoint that decodes each request body and accepts every event in it.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/1/batch/", exchange -> {
+            contentEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Content-Encoding")));
+            final JsonNode batch;
+            try (InputStream body = new GZIPInputStream(exchange.getRequestBody())) {
+                batch = JsonUtils.OBJECT_MAPPER.readTree(body);
+            }
+            batches.add(batch);
+
+            final StringBuilder response = new StringBuilder("[");
+            for (int i = 0; i < batch.size(); i++) {
+                response.append(i == 0 ? "" : ",").append("{\"status\":202}");
+            }
+            final byte[] bytes = response.append(']').toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test public void testInvalidArgumentsThrowException() {
+        assertThrows(IllegalArgumentException.class, () -> new GzipBatchRequestSerializer(null, 6));
+        assertThrows(IllegalArgumentException.class,
+            () -> new GzipBatchRequestSerializer(new BatchRequestSerializer(), 0));
+        assertThrows(IllegalArgumentException.class,
+            () -> new GzipBatchRequestSerializer(new BatchRequestSerializer(), 10));
+        assertThrows(IllegalArgumentException.class,
+            () -> HoneycombSpanExporter.newBuilder("service").gzipCompression(0));
+    }
+
+    @Test public void testOutputDecompressesToTheDelegateOutput() throws Exception {
+        final List<BatchRequestElement> batch = createBatch(200);
+        final byte[] json = new BatchRequestSerializer().serialize(batch);
+
+        for (int level = 1; level <= 9; level++) {
+            final GzipBatchRequestSerializer jackson =
+                new GzipBatchRequestSerializer(new BatchRequestSerializer(), level);
+            final GzipBatchRequestSerializer streaming =
+                new GzipBatchRequestSerializer(new StreamingBatchRequestSerializer(), level);
+
+            // compressors are pooled, so serialize twice to check that they are reset in between
+            for (int i = 0; i < 2; i++) {
+                assertArrayEquals(json, gunzip(jackson.serialize(batch)), "level " + level);
+                assertEquals(JsonUtils.OBJECT_MAPPER.readTree(json),
+                    JsonUtils.OBJECT_MAPPER.readTree(gunzip(streaming.serialize(batch))), "level " + level);
+            }
+        }
+    }
+
+    @Test public void testCompressionRatioIsReported() throws Exception {
+        final GzipBatchRequestSerializer serializer =
+            new GzipBatchRequestSerializer(new StreamingBatchRequestSerializer(), 6);
+        assertEquals(0, serializer.getCompressionRatio());
+
+        final byte[] compressed = serializer.serialize(createBatch(200));
+        final byte[] json = gunzip(compressed);
+
+        assertEquals(json.length, serializer.getUncompressedBytes());
+        assertEquals(compressed.length, serializer.getCompressedBytes());
+        assertEquals((double) json.length / compressed.length, serializer.getCompressionRatio());
+        assertTrue(serializer.getCompressionRatio() > 4, "ratio " + serializer.getCompressionRatio());
+    }
+
+    @Test public void testEmptyBatch() throws Exception {
+        final GzipBatchRequestSerializer serializer =
+            new GzipBatchRequestSerializer(new StreamingBatchRequestSerializer(), 1);
+        assertEquals("[]", new String(gunzip(serializer.serialize(Collections.emptyList())), StandardCharsets.UTF_8));
+    }
+
+    @Test public void testExporterSendsCompressedBatches() throws Exception {
+        for (boolean streaming : new boolean[] {false, true}) {
+            batches.clear();
+            contentEncodings.clear();
+            final HoneycombSpanExporter exporter = HoneycombSpanExporter.newBuilder("my-service")
+                .apiHost("http://localhost:" + server.getAddress().getPort())
+                .writeKey("key")
+                .dataSet("dataset")
+                .batchTimeoutMillis(10)
+                .streamingJsonEncoding(streaming)
+                .gzipCompression(6)
+                .awaitAcknowledgement(true)
+                .build();
+
+            final CompletableResultCode result = exporter.export(TestSpanData.createSpans(100));
+
+            assertTrue(result.join(10, TimeUnit.SECONDS).isSuccess());
+            // batches are sent concurrently, so they may arrive in any order
+            final Set<String> spanIds = new TreeSet<>();
+            for (JsonNode batch : batches) {
+                for (JsonNode event : batch) {
+                    assertEquals("my-service", event.get("data").get(AttributeNames.SERVICE_NAME_FIELD).asText());
+                    spanIds.add(event.get("data").get(AttributeNames.SPAN_ID_FIELD).asText());
+                }
+            }
+            assertEquals(100, spanIds.size());
+            assertEquals(String.format("%016x", 1), spanIds.iterator().next());
+            assertFalse(contentEncodings.isEmpty());
+            for (String contentEncoding : contentEncodings) {
+                assertEquals("gzip", contentEncoding);
+            }
+            assertTrue(exporter.getCompressionRatio() > 1, "ratio " + exporter.getCompressionRatio());
+            assertTrue(exporter.shutdown().join(10, TimeUnit.SECONDS).isSuccess());
+        }
+    }
+
+    private static byte[] gunzip(final byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static List<BatchRequestElement> createBatch(final int size) {
+        final List<BatchRequestElement> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final Map<String, Object> data = new LinkedHashMap<>();
+            data.put(AttributeNames.SERVICE_NAME_FIELD, "my-service");
+            data.put(AttributeNames.TRACE_ID_FIELD, "000000000063d76f0000000037fe0393");
+            data.put(AttributeNames.SPAN_ID_FIELD, String.format("%016x", i + 1));
+            data.put(AttributeNames.DURATION_FIELD, 200_000L + i);
+            data.put("unicode", "café € 😀");
+            batch.add(new BatchRequestElement("2020-01-01T00:00:00.000Z", 1, data));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,213 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.Event;
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.libhoney.eventdata.ResolvedEvent;
+import io.honeycomb.libhoney.responses.ResponseObservable;
+import io.honeycomb.libhoney.transport.Transport;
+import io.opentelemetry.common.AttributeConsumer;
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span.Kind;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards the number of bytes allocated on the exporting thread per exported span, on top of what libhoney allocates
+ * to create, fill and resolve an event with the same fields, which is measured in the same run so that differences
+ * between JVMs and collectors cancel out. The exporter's own conversion should add as little as possible on top.
+ * <p>
+ * If a change legitimately needs to allocate more, raise the budgets in the same change and say why.
+ */
+public class HoneycombSpanExporterAllocationTest {
+
+    // about 24 bytes over libhoney were measured on JDK 17, for an exporter created through the public constructor
+    private static final long MAX_BYTES_PER_SPAN = 64;
+    // about 140 bytes over libhoney were measured on JDK 17, as the builder's exporter tracks and tags every event
+    private static final long MAX_TRACKED_BYTES_PER_SPAN = 200;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 200;
+    private static final int REPETITIONS = 5;
+    private static final int SPANS_PER_EXPORT = 100;
+
+    @Test public void testBytesAllocatedPerExportedSpan() {
+        final com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null, "thread allocation measurement not supported by this JVM");
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(),
+            new NoopTransport());
+        final HoneycombSpanExporter exporter = new HoneycombSpanExporter(client, "my-service");
+
+        assertBytesPerSpan(threads, client, exporter, MAX_BYTES_PER_SPAN);
+    }
+
+    @Test public void testBytesAllocatedPerSpanExportedByBuiltExporter() {
+        final com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null, "thread allocation measurement not supported by this JVM");
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(),
+            new NoopTransport());
+        final HoneycombSpanExporter exporter = HoneycombSpanExporter.newBuilder("my-service")
+            .writeKey("key")
+            .dataSet("dataset")
+            .transport(new NoopTransport())
+            .build();
+
+        try {
+            assertBytesPerSpan(threads, client, exporter, MAX_TRACKED_BYTES_PER_SPAN);
+        } finally {
+            exporter.shutdown();
+        }
+    }
+
+    /**
+     * Exports the spans and, in turn, sends events with the same fields straight through the given client, and
+     * asserts that the exporter allocates at most the given number of bytes per span more than the client.
+     */
+    private static void assertBytesPerSpan(final com.sun.management.ThreadMXBean threads, final HoneyClient client,
+                                           final HoneycombSpanExporter exporter, final long maxBytesPerSpan) {
+        final List<SpanData> spans = createSpans();
+        final List<Map<String, Object>> fields = new ArrayList<>(SPANS_PER_EXPORT);
+        for (SpanData span : spans) {
+            fields.add(fields(span));
+        }
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            exporter.export(spans);
+            sendDirectly(client, fields);
+        }
+
+        // the least of several interleaved measurements, as the JIT may still be at work on either path
+        final long threadId = Thread.currentThread().getId();
+        final long spanCount = (long) MEASURED_ROUNDS * SPANS_PER_EXPORT;
+        long bytesPerSpan = Long.MAX_VALUE;
+        long libhoneyBytesPerSpan = Long.MAX_VALUE;
+        for (int repetition = 0; repetition < REPETITIONS; repetition++) {
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                exporter.export(spans);
+            }
+            final long exported = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                sendDirectly(client, fields);
+            }
+            final long sent = threads.getThreadAllocatedBytes(threadId);
+            bytesPerSpan = Math.min(bytesPerSpan, (exported - before) / spanCount);
+            libhoneyBytesPerSpan = Math.min(libhoneyBytesPerSpan, (sent - exported) / spanCount);
+        }
+        assertTrue(bytesPerSpan - libhoneyBytesPerSpan <= maxBytesPerSpan,
+            "allocated " + bytesPerSpan + " bytes per span, " + (bytesPerSpan - libhoneyBytesPerSpan)
+                + " over libhoney, budget is " + maxBytesPerSpan);
+    }
+
+    /**
+     * Sends events with the given, already converted, fields straight through the client.
+     */
+    private static void sendDirectly(final HoneyClient client, final List<Map<String, Object>> fields) {
+        for (int i = 0; i < fields.size(); i++) {
+            final Event event = client.createEvent().setTimestamp(100_000L);
+            for (Map.Entry<String, Object> field : fields.get(i).entrySet()) {
+                event.addField(field.getKey(), field.getValue());
+            }
+            event.sendPresampled();
+        }
+    }
+
+    /**
+     * @return the fields the exporter adds to the event of a span.
+     */
+    private static Map<String, Object> fields(final SpanData span) {
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put(AttributeNames.SERVICE_NAME_FIELD, "my-service");
+        fields.put(AttributeNames.TRACE_ID_FIELD, span.getTraceId());
+        fields.put(AttributeNames.SPAN_ID_FIELD, span.getSpanId());
+        fields.put(AttributeNames.DURATION_FIELD, TimeUnit.NANOSECONDS.toMillis(
+            span.getEndEpochNanos() - span.getStartEpochNanos()));
+        fields.put(AttributeNames.SPAN_NAME_FIELD, span.getName());
+        fields.put(AttributeNames.PARENT_ID_FIELD, span.getParentSpanId());
+        fields.put(AttributeNames.TYPE_FIELD, span.getKind().name());
+        final AttributeConsumer consumer = new AttributeConsumer() {
+            @Override
+            public <T> void consume(final AttributeKey<T> key, final T value) {
+                fields.put(key.getKey(), value);
+            }
+        };
+        span.getAttributes().forEach(consumer);
+        span.getResource().getAttributes().forEach(consumer);
+        return fields;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static List<SpanData> createSpans() {
+        final Resource resource = Resource.create(Attributes.of(
+            AttributeKey.stringKey("service.name"), "my-service",
+            AttributeKey.stringKey("host.name"), "host-1",
+            AttributeKey.longKey("process.pid"), 4242L
+        ));
+        final Attributes attributes = Attributes.of(
+            AttributeKey.stringKey("http.method"), "GET",
+            AttributeKey.stringKey("http.url"), "https://example.com/checkout",
+            AttributeKey.longKey("http.status_code"), 200L,
+            AttributeKey.longKey("http.response_content_length"), 123_456L,
+            AttributeKey.doubleKey("ratio"), 0.25d,
+            AttributeKey.booleanKey("error"), false
+        );
+
+        final List<SpanData> spans = new ArrayList<>(SPANS_PER_EXPORT);
+        for (int i = 0; i < SPANS_PER_EXPORT; i++) {
+            spans.add(TestSpanData.newBuilder()
+                .setTraceId("000000000063d76f0000000037fe0393")
+                .setSpanId("000000000012d685")
+                .setParentSpanId("100000000012d685")
+                .setAttributes(attributes)
+                .setResource(resource)
+                .setName("spanName")
+                .setKind(Kind.SERVER)
+                .setStartEpochNanos(TimeUnit.SECONDS.toNanos(100))
+                .setEndEpochNanos(TimeUnit.SECONDS.toNanos(300))
+                .setHasEnded(true)
+                .build());
+        }
+        return spans;
+    }
+
+    private static class NoopTransport implements Transport {
+        private final ResponseObservable observable = new ResponseObservable();
+
+        @Override
+        public boolean submit(final ResolvedEvent event) {
+            return true;
+        }
+
+        @Override
+        public ResponseObservable getResponseObservable() {
+            return observable;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
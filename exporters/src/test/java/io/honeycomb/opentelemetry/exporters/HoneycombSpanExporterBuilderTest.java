@@ -3,8 +3,10 @@ package io.honeycomb.opentelemetry.exporters;
 import io.honeycomb.libhoney.builders.HoneyClientBuilder;
 import io.honeycomb.libhoney.EventPostProcessor;
 import io.honeycomb.libhoney.ResponseObserver;
+import io.honeycomb.libhoney.TransportOptions;
 import io.honeycomb.libhoney.ValueSupplier;
 import io.honeycomb.libhoney.transport.Transport;
+import io.honeycomb.libhoney.transport.impl.BatchingHttpTransport;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,6 +16,7 @@ import javax.net.ssl.SSLContext;
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -217,6 +220,107 @@ public class HoneycombSpanExporterBuilderTest {
         completeNegativeVerification();
     }
 
+    @Test
+    public void streamingJsonEncoding() {
+        builder.streamingJsonEncoding(true).build().shutdown();
+
+        verify(mockBuilder, times(1)).transport(any(BatchingHttpTransport.class));
+        completeNegativeVerification();
+    }
+
+    @Test
+    public void awaitAcknowledgement() {
+        final Transport mockTransport = mock(Transport.class);
+        builder.transport(mockTransport).awaitAcknowledgement(true).build();
+
+        verify(mockBuilder, times(1)).transport(mockTransport);
+        verifyNoMoreInteractions(mockTransport);
+        completeNegativeVerification();
+    }
+
+    @Test
+    public void flushTimeoutMillis() {
+        builder.flushTimeoutMillis(500).build();
+
+        assertThrows(IllegalArgumentException.class, () -> builder.flushTimeoutMillis(-1));
+        completeNegativeVerification();
+    }
+
+    @Test
+    public void attributeFiltering() {
+        builder.allowAttributes("http.method", "db.statement")
+            .denyAttributes("http.request.body")
+            .renameAttribute("http.method", "method")
+            .maxAttributeValueLength(1_000)
+            .maxAttributeValueLength("db.statement", 100)
+            .maxAttributesPerEvent(64)
+            .build();
+
+        assertThrows(IllegalArgumentException.class, () -> builder.allowAttributes((String[]) null));
+        assertThrows(IllegalArgumentException.class, () -> builder.denyAttributes("key", null));
+        assertThrows(IllegalArgumentException.class, () -> builder.renameAttribute("key", ""));
+        assertThrows(IllegalArgumentException.class, () -> builder.maxAttributeValueLength(0));
+        assertThrows(IllegalArgumentException.class, () -> builder.maxAttributeValueLength("key", 0));
+        assertThrows(IllegalArgumentException.class, () -> builder.maxAttributesPerEvent(-1));
+        completeNegativeVerification();
+    }
+
+    @Test
+    public void parallelConversion() {
+        builder.parallelConversion(1_000).parallelConversion(1_000, Runnable::run).build();
+
+        assertThrows(IllegalArgumentException.class, () -> builder.parallelConversion(0));
+        assertThrows(IllegalArgumentException.class, () -> builder.parallelConversion(1_000, null));
+        completeNegativeVerification();
+    }
+
+    @Test
+    public void streamingJsonEncodingIgnoredForCustomTransport() {
+        final Transport mockTransport = mock(Transport.class);
+        builder.transport(mockTransport).streamingJsonEncoding(true).build();
+
+        verify(mockBuilder, times(1)).transport(mockTransport);
+        completeNegativeVerification();
+    }
+
+    @Test
+    public void transportOptionsFollowBuilderSettings() {
+        final TransportOptions options = builder
+            .batchSize(12)
+            .batchTimeoutMillis(34)
+            .queueCapacity(56)
+            .maxPendingBatchRequests(78)
+            .maxConnections(9)
+            .maxConnectionsPerApiHost(8)
+            .connectionTimeout(7)
+            .connectionRequestTimeout(6)
+            .socketTimeout(5)
+            .bufferSize(4_096)
+            .ioThreadCount(1)
+            .maximumHttpRequestShutdownWait(345L)
+            .additionalUserAgent("agent")
+            .addProxy("proxyHost")
+            .addProxy("proxy.domain.com:8443", "user", "secret")
+            .transportOptions();
+        builder.build();
+
+        assertEquals(12, options.getBatchSize());
+        assertEquals(34, options.getBatchTimeoutMillis());
+        assertEquals(56, options.getQueueCapacity());
+        assertEquals(78, options.getMaxPendingBatchRequests());
+        assertEquals(9, options.getMaxConnections());
+        assertEquals(8, options.getMaxHttpConnectionsPerApiHost());
+        assertEquals(7, options.getConnectTimeout());
+        assertEquals(6, options.getConnectionRequestTimeout());
+        assertEquals(5, options.getSocketTimeout());
+        assertEquals(4_096, options.getBufferSize());
+        assertEquals(1, options.getIoThreadCount());
+        assertEquals(345L, options.getMaximumHttpRequestShutdownWait());
+        assertEquals("agent", options.getAdditionalUserAgent());
+        assertEquals("proxyHost", options.getProxy().getHostName());
+        assertNotNull(options.getCredentialsProvider());
+    }
+
     private void completeNegativeVerification(){
         verify(mockBuilder, times(1)).build();
         verifyNoMoreInteractions(mockBuilder);
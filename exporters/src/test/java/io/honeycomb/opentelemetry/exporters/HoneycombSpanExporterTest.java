@@ -8,10 +8,15 @@ import io.opentelemetry.common.AttributeKey;
 import io.opentelemetry.sdk.common.CompletableResultCode;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.trace.Span.Kind;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -37,13 +42,60 @@ public class HoneycombSpanExporterTest {
 
     @Test public void testCallingShutdownClosesClient() {
         HoneycombSpanExporter exporter = new HoneycombSpanExporter(mockClient, serviceName);
-        CompletableResultCode result = exporter.shutdown();
+        CompletableResultCode result = exporter.shutdown().join(5, TimeUnit.SECONDS);
 
         assertTrue(result.isSuccess());
         verify(mockClient, times(1)).close();
         verifyNoMoreInteractions(mockClient);
     }
 
+    @Test public void testShutdownDoesNotBlockOnClosingClient() throws InterruptedException {
+        final CountDownLatch closing = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            closing.await();
+            return null;
+        }).when(mockClient).close();
+
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(mockClient, serviceName);
+        CompletableResultCode result = exporter.shutdown();
+        assertFalse(result.isDone());
+
+        closing.countDown();
+        assertTrue(result.join(5, TimeUnit.SECONDS).isSuccess());
+    }
+
+    @Test public void testShutdownIsIdempotent() {
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(mockClient, serviceName);
+        CompletableResultCode result = exporter.shutdown();
+
+        assertSame(result, exporter.shutdown());
+        assertTrue(result.join(5, TimeUnit.SECONDS).isSuccess());
+        verify(mockClient, times(1)).close();
+        verifyNoMoreInteractions(mockClient);
+    }
+
+    @Test public void testShutdownFailsIfClosingClientFails() {
+        doThrow(new IllegalStateException()).when(mockClient).close();
+
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(mockClient, serviceName);
+        CompletableResultCode result = exporter.shutdown().join(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isDone());
+        assertFalse(result.isSuccess());
+    }
+
+    @Test public void testExportAfterShutdownIsRejected() {
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(mockClient, serviceName);
+        exporter.shutdown().join(5, TimeUnit.SECONDS);
+
+        CompletableResultCode result = exporter.export(Arrays.asList(mock(SpanData.class)));
+
+        assertTrue(result.isDone());
+        assertFalse(result.isSuccess());
+        verify(mockClient, times(1)).close();
+        verifyNoMoreInteractions(mockClient);
+    }
+
     @Test public void testFlushDoesNothing() {
         HoneycombSpanExporter exporter = new HoneycombSpanExporter(mockClient, serviceName);
         CompletableResultCode result = exporter.flush();
@@ -123,4 +175,149 @@ public class HoneycombSpanExporterTest {
 
         verify(mockEvent, times(0)).addField(AttributeNames.PARENT_ID_FIELD, span.getParentSpanId());
     }
+
+    @Test
+    public void testResourceAttributesAreConvertedOncePerResource() {
+        when(mockClient.createEvent()).thenReturn(mockEvent);
+        when(mockEvent.addField(any(String.class), any(Object.class))).thenReturn(mockEvent);
+        when(mockEvent.setTimestamp(any(Long.class))).thenReturn(mockEvent);
+        when(mockResource.getAttributes()).thenReturn(Attributes.of(
+            AttributeKey.stringKey("rString"), "stringValue",
+            AttributeKey.longKey("rLong"), 200L,
+            AttributeKey.booleanKey("rBool"), false
+        ));
+
+        SpanData first = TestSpanData.newBuilder()
+            .setTraceId("000000000063d76f0000000037fe0393")
+            .setSpanId("000000000012d685")
+            .setResource(mockResource)
+            .build();
+        SpanData second = TestSpanData.newBuilder()
+            .setTraceId("000000000063d76f0000000037fe0393")
+            .setSpanId("000000000012d686")
+            .setResource(mockResource)
+            .build();
+
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(mockClient, serviceName);
+        exporter.export(Arrays.asList(first, second));
+        exporter.export(Arrays.asList(first));
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("rString", "stringValue");
+        expected.put("rLong", 200L);
+        expected.put("rBool", false);
+        verify(mockEvent, times(3)).addFields(expected);
+        verify(mockResource, times(1)).getAttributes();
+    }
+
+    @Test
+    public void testAttributesAreFilteredBeforeEventsArePopulated() {
+        when(mockClient.createEvent()).thenReturn(mockEvent);
+        when(mockEvent.addField(any(String.class), any(Object.class))).thenReturn(mockEvent);
+        when(mockEvent.setTimestamp(any(Long.class))).thenReturn(mockEvent);
+        when(mockResource.getAttributes()).thenReturn(Attributes.of(
+            AttributeKey.stringKey("host.name"), "my-host",
+            AttributeKey.stringKey("service.version"), "1.2.3"
+        ));
+
+        SpanData span = TestSpanData.newBuilder()
+            .setTraceId("000000000063d76f0000000037fe0393")
+            .setSpanId("000000000012d685")
+            .setAttributes(Attributes.of(
+                AttributeKey.stringKey("db.statement"), "SELECT * FROM spans",
+                AttributeKey.stringKey("http.request.body"), "secret",
+                AttributeKey.stringKey("http.method"), "GET",
+                AttributeKey.longKey("http.status_code"), 200L
+            ))
+            .setResource(mockResource)
+            .build();
+
+        AttributeFilter filter = new AttributeFilter(Collections.emptySet(),
+            Collections.singleton("http.request.body"), Collections.singletonMap("db.statement", "sql"),
+            Collections.emptyMap(), 6, 3);
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(
+            new HoneycombSpanExporter.Settings(mockClient, serviceName).attributeFilter(filter));
+        exporter.export(Arrays.asList(span));
+
+        Map<String, Object> resourceFields = new HashMap<>();
+        resourceFields.put("host.name", "my-hos");
+        resourceFields.put("service.version", "1.2.3");
+        verify(mockEvent, times(1)).addFields(resourceFields);
+        // one field is left for span attributes, which are added in key order
+        verify(mockEvent, times(1)).addField("sql", "SELECT");
+        verify(mockEvent, never()).addField(eq("http.request.body"), any());
+        verify(mockEvent, never()).addField(eq("http.method"), any());
+        verify(mockEvent, never()).addField(eq("http.status_code"), any());
+    }
+
+    @Test
+    public void testFieldLimitKeepsTheFirstResourceFields() {
+        when(mockClient.createEvent()).thenReturn(mockEvent);
+        when(mockEvent.addField(any(String.class), any(Object.class))).thenReturn(mockEvent);
+        when(mockEvent.setTimestamp(any(Long.class))).thenReturn(mockEvent);
+        when(mockResource.getAttributes()).thenReturn(Attributes.of(
+            AttributeKey.stringKey("a.zone"), "zone-1",
+            AttributeKey.stringKey("b.host"), "my-host",
+            AttributeKey.stringKey("c.region"), "region-1",
+            AttributeKey.stringKey("d.service"), "my-service",
+            AttributeKey.stringKey("e.version"), "1.2.3"
+        ));
+
+        SpanData span = TestSpanData.newBuilder()
+            .setTraceId("000000000063d76f0000000037fe0393")
+            .setSpanId("000000000012d685")
+            .setAttributes(Attributes.of(AttributeKey.stringKey("http.method"), "GET"))
+            .setResource(mockResource)
+            .build();
+
+        AttributeFilter filter = new AttributeFilter(Collections.emptySet(), Collections.emptySet(),
+            Collections.emptyMap(), Collections.emptyMap(), AttributeFilter.UNLIMITED, 3);
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(
+            new HoneycombSpanExporter.Settings(mockClient, serviceName).attributeFilter(filter));
+        exporter.export(Arrays.asList(span, span));
+
+        // the same fields, the first ones the resource holds, are kept on every event
+        InOrder inOrder = inOrder(mockEvent);
+        for (int i = 0; i < 2; i++) {
+            inOrder.verify(mockEvent).addField("a.zone", "zone-1");
+            inOrder.verify(mockEvent).addField("b.host", "my-host");
+            inOrder.verify(mockEvent).addField("c.region", "region-1");
+        }
+        verify(mockEvent, never()).addFields(any());
+        verify(mockEvent, never()).addField(eq("d.service"), any());
+        verify(mockEvent, never()).addField(eq("e.version"), any());
+        verify(mockEvent, never()).addField(eq("http.method"), any());
+    }
+
+    @Test
+    public void testResourceFieldsReplaceSpanAttributesOfTheSameName() {
+        when(mockClient.createEvent()).thenReturn(mockEvent);
+        when(mockEvent.addField(any(String.class), any(Object.class))).thenReturn(mockEvent);
+        when(mockEvent.setTimestamp(any(Long.class))).thenReturn(mockEvent);
+        when(mockResource.getAttributes()).thenReturn(Attributes.of(
+            AttributeKey.stringKey("host.name"), "resource-host"
+        ));
+
+        SpanData span = TestSpanData.newBuilder()
+            .setTraceId("000000000063d76f0000000037fe0393")
+            .setSpanId("000000000012d685")
+            .setAttributes(Attributes.of(
+                AttributeKey.stringKey("host.name"), "span-host",
+                AttributeKey.stringKey("http.method"), "GET"
+            ))
+            .setResource(mockResource)
+            .build();
+
+        AttributeFilter filter = new AttributeFilter(Collections.emptySet(), Collections.emptySet(),
+            Collections.emptyMap(), Collections.emptyMap(), AttributeFilter.UNLIMITED, 2);
+        HoneycombSpanExporter exporter = new HoneycombSpanExporter(
+            new HoneycombSpanExporter.Settings(mockClient, serviceName).attributeFilter(filter));
+        exporter.export(Arrays.asList(span));
+
+        // span attributes are added first, in key order, in the room left by the resource's
+        InOrder inOrder = inOrder(mockEvent);
+        inOrder.verify(mockEvent).addField("host.name", "span-host");
+        inOrder.verify(mockEvent).addFields(Collections.singletonMap("host.name", "resource-host"));
+        verify(mockEvent, never()).addField(eq("http.method"), any());
+    }
 }
@@ -0,0 +1,182 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.libhoney.ResponseObserver;
+import io.honeycomb.libhoney.responses.ClientRejected;
+import io.honeycomb.libhoney.responses.ServerAccepted;
+import io.honeycomb.libhoney.responses.ServerRejected;
+import io.honeycomb.libhoney.responses.Unknown;
+import io.honeycomb.libhoney.shaded.com.fasterxml.jackson.databind.JsonNode;
+import io.honeycomb.libhoney.utils.JsonUtils;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.SSLContext;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Http2BatchConsumerTest {
+
+    private MockWebServer server;
+    private final Set<String> spanIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+
+    /**
+     * Starts a cleartext HTTP/2 stand-in for Honeycomb's batch endpoint that decodes each request body and accepts
+     * every event in it.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(final RecordedRequest request) {
+                requests.incrementAndGet();
+                // the sequence number counts requests per connection
+                if (request.getSequenceNumber() == 0) {
+                    connections.incrementAndGet();
+                }
+                if (status != 200) {
+                    return new MockResponse().setResponseCode(status).setBody("{\"error\":\"unavailable\"}");
+                }
+                try {
+                    InputStream body = request.getBody().inputStream();
+                    if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                        body = new GZIPInputStream(body);
+                    }
+                    final JsonNode batch = JsonUtils.OBJECT_MAPPER.readTree(body);
+                    final StringBuilder response = new StringBuilder("[");
+                    for (int i = 0; i < batch.size(); i++) {
+                        spanIds.add(batch.get(i).get("data").get(AttributeNames.SPAN_ID_FIELD).asText());
+                        response.append(i == 0 ? "" : ",").append("{\"status\":202}");
+                    }
+                    return new MockResponse().setBody(response.append(']').toString());
+                } catch (final IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test public void testConcurrentBatchesShareAConnection() throws Exception {
+        for (boolean compressed : new boolean[] {false, true}) {
+            spanIds.clear();
+            connections.set(0);
+            requests.set(0);
+            final HoneycombSpanExporterBuilder builder = newBuilder().batchSize(10).maxPendingBatchRequests(50);
+            if (compressed) {
+                builder.streamingJsonEncoding(true).gzipCompression(1);
+            }
+            final HoneycombSpanExporter exporter = builder.build();
+
+            final CompletableResultCode result = exporter.export(TestSpanData.createSpans(1_000));
+
+            assertTrue(result.join(10, TimeUnit.SECONDS).isSuccess());
+            assertEquals(1_000, spanIds.size());
+            assertTrue(requests.get() >= 100, "requests " + requests.get());
+            assertEquals(1, connections.get());
+            if (compressed) {
+                assertTrue(exporter.getCompressionRatio() > 1);
+            }
+            assertTrue(exporter.shutdown().join(10, TimeUnit.SECONDS).isSuccess());
+        }
+    }
+
+    @Test public void testServerErrorsAreReportedAsRejected() throws Exception {
+        status = 503;
+        final HoneycombSpanExporter exporter = newBuilder().build();
+
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(5));
+
+        assertFalse(result.join(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(result.isDone());
+        assertTrue(exporter.shutdown().join(10, TimeUnit.SECONDS).isDone());
+    }
+
+    @Test public void testConnectionFailuresAreReportedAsUnknown() throws Exception {
+        final int port = server.getPort();
+        server.shutdown();
+        final CountDownLatch failures = new CountDownLatch(5);
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset")
+                .setApiHost(new URI("http://localhost:" + port)).build(),
+            Http2BatchConsumer.transport(LibHoney.transportOptions().setBatchTimeoutMillis(10).build(),
+                new StreamingBatchRequestSerializer(), null));
+        client.addResponseObserver(new ResponseObserver() {
+            @Override
+            public void onServerAccepted(final ServerAccepted serverAccepted) {
+            }
+
+            @Override
+            public void onServerRejected(final ServerRejected serverRejected) {
+            }
+
+            @Override
+            public void onClientRejected(final ClientRejected clientRejected) {
+            }
+
+            @Override
+            public void onUnknown(final Unknown unknown) {
+                failures.countDown();
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            client.createEvent().addField("index", i).send();
+        }
+
+        assertTrue(failures.await(10, TimeUnit.SECONDS));
+        client.close();
+    }
+
+    @Test public void testSslContextIsRejected() throws Exception {
+        final HoneycombSpanExporterBuilder builder = newBuilder().sslContext(SSLContext.getDefault());
+
+        assertThrows(IllegalStateException.class, builder::build);
+    }
+
+    @Test public void testMissingOkHttpIsReported() {
+        // a class loader without a parent only sees the JDK's own classes
+        final ClassLoader withoutOkHttp = new URLClassLoader(new URL[0], null);
+
+        assertThrows(IllegalStateException.class, () -> HoneycombSpanExporterBuilder.requireOkHttp(withoutOkHttp));
+        HoneycombSpanExporterBuilder.requireOkHttp(getClass().getClassLoader());
+    }
+
+    private HoneycombSpanExporterBuilder newBuilder() throws Exception {
+        return HoneycombSpanExporter.newBuilder("my-service")
+            .apiHost("http://localhost:" + server.getPort())
+            .writeKey("key")
+            .dataSet("dataset")
+            .batchTimeoutMillis(10)
+            .http2(true)
+            .awaitAcknowledgement(true);
+    }
+}
@@ -0,0 +1,158 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.Event;
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.libhoney.transport.Transport;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelSpanConverterTest {
+
+    private ExecutorService executor;
+    private AtomicInteger executions;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        executions = new AtomicInteger();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test public void testEventsAreSubmittedInSpanOrder() {
+        final RecordingTransport transport = new RecordingTransport();
+        final HoneycombSpanExporter exporter = createExporter(transport, 100);
+
+        final List<SpanData> spans = TestSpanData.createSpans(1_000);
+        exporter.export(spans);
+
+        assertTrue(executions.get() > 0);
+        assertEquals(spans.size(), transport.submitted.size());
+        for (int i = 0; i < spans.size(); i++) {
+            assertEquals(spans.get(i).getSpanId(),
+                transport.submitted.get(i).getFields().get(AttributeNames.SPAN_ID_FIELD));
+        }
+    }
+
+    @Test public void testBatchesBelowThresholdAreConvertedOnCallingThread() {
+        final RecordingTransport transport = new RecordingTransport();
+        final HoneycombSpanExporter exporter = createExporter(transport, 500);
+
+        exporter.export(TestSpanData.createSpans(499));
+
+        assertEquals(0, executions.get());
+        assertEquals(499, transport.submitted.size());
+    }
+
+    @Test public void testSmallBatchesAreNotSplit() {
+        final ParallelSpanConverter converter = new ParallelSpanConverter(executor, 1, 8);
+
+        assertFalse(converter.appliesTo(ParallelSpanConverter.MIN_CHUNK_SIZE));
+        assertTrue(converter.appliesTo(ParallelSpanConverter.MIN_CHUNK_SIZE * 2));
+    }
+
+    @Test public void testChunksUseDistinctThreads() {
+        final ParallelSpanConverter converter = new ParallelSpanConverter(executor, 1, 4);
+        final LinkedHashSet<String> threads = new LinkedHashSet<>();
+
+        final Event[] events = converter.convert(TestSpanData.createSpans(1_000), span -> {
+            synchronized (threads) {
+                threads.add(Thread.currentThread().getName());
+            }
+            return null;
+        });
+
+        assertEquals(1_000, events.length);
+        assertTrue(threads.contains(Thread.currentThread().getName()));
+        assertTrue(threads.size() > 1);
+    }
+
+    @Test public void testRejectedChunksAreConvertedOnCallingThread() {
+        final ParallelSpanConverter converter = new ParallelSpanConverter(command -> {
+            throw new RejectedExecutionException();
+        }, 1, 4);
+        final List<SpanData> spans = TestSpanData.createSpans(1_000);
+        final Set<String> threads = new HashSet<>();
+        final AtomicInteger converted = new AtomicInteger();
+
+        converter.convert(spans, span -> {
+            threads.add(Thread.currentThread().getName());
+            converted.incrementAndGet();
+            return null;
+        });
+
+        assertEquals(1_000, converted.get());
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), threads);
+    }
+
+    @Test public void testCollectionsThatAreSlowToIndexAreCopied() {
+        final ParallelSpanConverter converter = new ParallelSpanConverter(executor, 1, 4);
+        final List<SpanData> spans = TestSpanData.createSpans(1_000);
+        final List<SpanData> linked = new LinkedList<SpanData>(spans) {
+            @Override
+            public SpanData get(final int index) {
+                throw new AssertionError("indexed a linked list");
+            }
+        };
+        final List<SpanData> converted = Collections.synchronizedList(new ArrayList<>());
+
+        converter.convert(linked, span -> {
+            converted.add(span);
+            return null;
+        });
+
+        assertEquals(new HashSet<>(spans), new HashSet<>(converted));
+        assertEquals(1_000, converted.size());
+    }
+
+    @Test public void testConversionFailureIsRethrown() {
+        final ParallelSpanConverter converter = new ParallelSpanConverter(executor, 1, 4);
+        final List<SpanData> spans = TestSpanData.createSpans(1_000);
+        final SpanData failing = spans.get(900);
+
+        final IllegalStateException thrown = assertThrows(IllegalStateException.class,
+            () -> converter.convert(spans, span -> {
+                if (span == failing) {
+                    throw new IllegalStateException("failed");
+                }
+                return null;
+            }));
+        assertEquals("failed", thrown.getMessage());
+    }
+
+    @Test public void testInvalidArgumentsThrowException() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelSpanConverter(null, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ParallelSpanConverter(executor, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ParallelSpanConverter(executor, 1, 0));
+    }
+
+    private HoneycombSpanExporter createExporter(final Transport transport, final int threshold) {
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), transport);
+        final ParallelSpanConverter converter = new ParallelSpanConverter(command -> {
+            executions.incrementAndGet();
+            executor.execute(command);
+        }, threshold, 4);
+        return new HoneycombSpanExporter(new HoneycombSpanExporter.Settings(client, "my-service")
+            .parallelConverter(converter));
+    }
+}
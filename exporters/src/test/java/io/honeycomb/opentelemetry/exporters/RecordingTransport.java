@@ -0,0 +1,44 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.eventdata.ResolvedEvent;
+import io.honeycomb.libhoney.responses.ResponseObservable;
+import io.honeycomb.libhoney.responses.ServerAccepted;
+import io.honeycomb.libhoney.transport.Transport;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Records the events libhoney submits instead of sending them, and lets tests publish the responses. Refusing events
+ * simulates an outage, which libhoney reports as a queue overflow.
+ */
+class RecordingTransport implements Transport {
+    final ResponseObservable observable = new ResponseObservable();
+    final List<ResolvedEvent> submitted = new CopyOnWriteArrayList<>();
+    volatile boolean accepting = true;
+
+    @Override
+    public boolean submit(final ResolvedEvent event) {
+        submitted.add(event);
+        return accepting;
+    }
+
+    @Override
+    public ResponseObservable getResponseObservable() {
+        return observable;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Publishes a response accepting a submitted event.
+     */
+    void accept(final ResolvedEvent event) {
+        final ServerAccepted accepted = mock(ServerAccepted.class);
+        when(accepted.getEventMetadata()).thenReturn(event.getMetadata());
+        observable.publish(accepted);
+    }
+}
@@ -0,0 +1,55 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.resources.Resource;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResourceFieldsCacheTest {
+
+    @Test public void testNullAndEmptyResourcesHaveNoFields() {
+        ResourceFieldsCache cache = new ResourceFieldsCache();
+
+        assertTrue(cache.get(null).isEmpty());
+        assertTrue(cache.get(Resource.getEmpty()).isEmpty());
+    }
+
+    @Test public void testResourceAttributesAreConvertedToFields() {
+        Resource resource = Resource.create(Attributes.of(
+            AttributeKey.stringKey("rString"), "stringValue",
+            AttributeKey.longKey("rLong"), 200L,
+            AttributeKey.doubleKey("rDouble"), 1.5d,
+            AttributeKey.booleanKey("rBool"), false,
+            AttributeKey.stringArrayKey("rArray"), Arrays.asList("a", "b")
+        ));
+
+        Map<String, Object> fields = new ResourceFieldsCache().get(resource);
+
+        assertEquals(4, fields.size());
+        assertEquals("stringValue", fields.get("rString"));
+        assertEquals(200L, fields.get("rLong"));
+        assertEquals(1.5d, fields.get("rDouble"));
+        assertEquals(false, fields.get("rBool"));
+    }
+
+    @Test public void testSameResourceReturnsCachedFields() {
+        ResourceFieldsCache cache = new ResourceFieldsCache();
+        Resource resource = Resource.create(Attributes.of(AttributeKey.stringKey("key"), "value"));
+
+        assertSame(cache.get(resource), cache.get(resource));
+    }
+
+    @Test public void testCacheIsBoundedAndStillCorrectOnCollision() {
+        ResourceFieldsCache cache = new ResourceFieldsCache(1);
+        Resource first = Resource.create(Attributes.of(AttributeKey.stringKey("key"), "first"));
+        Resource second = Resource.create(Attributes.of(AttributeKey.stringKey("key"), "second"));
+
+        assertEquals("first", cache.get(first).get("key"));
+        assertEquals("second", cache.get(second).get("key"));
+        assertEquals("first", cache.get(first).get("key"));
+    }
+}
@@ -0,0 +1,240 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter.OverflowStrategy;
+import io.honeycomb.opentelemetry.exporters.HoneycombSpanExporter.WaitStrategy;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SpanExportQueueTest {
+
+    @Test public void testInvalidArgumentsThrowException() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new SpanExportQueue(0, 1, OverflowStrategy.DROP, WaitStrategy.BLOCKING));
+        assertThrows(IllegalArgumentException.class,
+            () -> new SpanExportQueue(8, 0, OverflowStrategy.DROP, WaitStrategy.BLOCKING));
+        assertThrows(IllegalArgumentException.class, () -> new SpanExportQueue(8, 1, null, WaitStrategy.BLOCKING));
+        assertThrows(IllegalArgumentException.class, () -> new SpanExportQueue(8, 1, OverflowStrategy.DROP, null));
+        assertThrows(IllegalArgumentException.class, () -> HoneycombSpanExporter.newBuilder("service").exportQueue(0));
+        assertThrows(IllegalArgumentException.class,
+            () -> HoneycombSpanExporter.newBuilder("service").exportQueueDrainThreads(0));
+    }
+
+    @Test public void testCapacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new SpanExportQueue(1, 1, OverflowStrategy.DROP, WaitStrategy.BLOCKING).capacity());
+        assertEquals(8, new SpanExportQueue(5, 1, OverflowStrategy.DROP, WaitStrategy.BLOCKING).capacity());
+        assertEquals(8, new SpanExportQueue(8, 1, OverflowStrategy.DROP, WaitStrategy.BLOCKING).capacity());
+    }
+
+    @Test public void testQueueOfOneSlotDrainsEverySpan() {
+        final SpanExportQueue queue = new SpanExportQueue(1, 1, OverflowStrategy.BLOCK, WaitStrategy.BLOCKING);
+        final AtomicInteger drained = new AtomicInteger();
+        queue.start((span, pending) -> {
+            drained.incrementAndGet();
+            pending.dropReserved(1);
+        });
+        final ExportTracker.PendingExport pending = new ExportTracker().begin();
+        pending.reserve(100);
+
+        assertEquals(100, queue.offer(TestSpanData.createSpans(100), pending));
+        pending.sent();
+
+        assertTrue(pending.getResult().join(5, TimeUnit.SECONDS).isDone());
+        assertEquals(100, drained.get());
+    }
+
+    @Test public void testSpansThatDoNotFitAreDropped() {
+        final SpanExportQueue queue = new SpanExportQueue(4, 1, OverflowStrategy.DROP, WaitStrategy.BLOCKING);
+        final ExportTracker tracker = new ExportTracker();
+        final ExportTracker.PendingExport pending = tracker.begin();
+        pending.reserve(10);
+
+        // not started, so nothing drains the queue
+        assertEquals(4, queue.offer(TestSpanData.createSpans(10), pending));
+        assertEquals(4, queue.size());
+        assertEquals(6, queue.getDroppedSpans());
+        // queued spans are part of the export, but not outstanding until they are handed to libhoney
+        assertEquals(0, tracker.getOutstanding());
+        final FlushResult flushed = tracker.flush(0);
+        flushed.join(5, TimeUnit.SECONDS);
+        assertEquals(4, flushed.getRemainingEvents());
+    }
+
+    @Test public void testFullQueueBlocksUntilDrained() {
+        final SpanExportQueue queue = new SpanExportQueue(2, 1, OverflowStrategy.BLOCK, WaitStrategy.BLOCKING);
+        final AtomicInteger drained = new AtomicInteger();
+        queue.start((span, pending) -> {
+            drained.incrementAndGet();
+            pending.dropReserved(1);
+        });
+        final ExportTracker.PendingExport pending = new ExportTracker().begin();
+        pending.reserve(1_000);
+
+        assertEquals(1_000, queue.offer(TestSpanData.createSpans(1_000), pending));
+        pending.sent();
+
+        assertTrue(pending.getResult().join(5, TimeUnit.SECONDS).isDone());
+        assertEquals(1_000, drained.get());
+        assertEquals(0, queue.getDroppedSpans());
+    }
+
+    @Test public void testEverySpanIsDrainedExactlyOnce() throws InterruptedException {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            assertDrainedExactlyOnce(waitStrategy);
+        }
+    }
+
+    private static void assertDrainedExactlyOnce(final WaitStrategy waitStrategy) throws InterruptedException {
+        final SpanExportQueue queue = new SpanExportQueue(64, 4, OverflowStrategy.BLOCK, waitStrategy);
+        final Set<SpanData> drained = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(10_000);
+        queue.start((span, pending) -> {
+            if (!drained.add(span)) {
+                duplicates.incrementAndGet();
+            }
+            pending.dropReserved(1);
+            done.countDown();
+        });
+
+        final ExportTracker tracker = new ExportTracker();
+        final List<SpanData> spans = TestSpanData.createSpans(10_000);
+        for (int batch = 0; batch < 100; batch++) {
+            final ExportTracker.PendingExport pending = tracker.begin();
+            pending.reserve(100);
+            queue.offer(spans.subList(batch * 100, (batch + 1) * 100), pending);
+            pending.sent();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS), waitStrategy.name());
+        assertEquals(10_000, drained.size());
+        assertEquals(0, duplicates.get());
+        assertEquals(0, tracker.getOutstanding());
+        queue.close();
+        assertTrue(queue.awaitTermination(5_000));
+    }
+
+    @Test public void testClosedQueueDrainsBeforeExiting() throws InterruptedException {
+        final SpanExportQueue queue = new SpanExportQueue(16, 2, OverflowStrategy.DROP, WaitStrategy.SLEEPING);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger drained = new AtomicInteger();
+        queue.start((span, pending) -> {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drained.incrementAndGet();
+            pending.dropReserved(1);
+        });
+        final ExportTracker.PendingExport pending = new ExportTracker().begin();
+        pending.reserve(10);
+        queue.offer(TestSpanData.createSpans(10), pending);
+
+        queue.close();
+        final ExportTracker.PendingExport late = new ExportTracker().begin();
+        late.reserve(1);
+        assertEquals(0, queue.offer(TestSpanData.createSpans(1), late));
+        release.countDown();
+
+        assertTrue(queue.awaitTermination(5_000));
+        assertEquals(10, drained.get());
+        assertEquals(1, queue.getDroppedSpans());
+    }
+
+    @Test public void testSpansOfferedWhileClosingAreDrainedOrDropped() throws Exception {
+        final List<SpanData> spans = TestSpanData.createSpans(4);
+        for (int round = 0; round < 200; round++) {
+            final SpanExportQueue queue = new SpanExportQueue(2, 1, OverflowStrategy.BLOCK, WaitStrategy.YIELDING);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicInteger drained = new AtomicInteger();
+            queue.start((span, pending) -> {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                drained.incrementAndGet();
+                pending.dropReserved(1);
+            });
+            final ExportTracker.PendingExport pending = new ExportTracker().begin();
+            pending.reserve(spans.size());
+            final Thread producer = new Thread(() -> {
+                queue.offer(spans, pending);
+                pending.sent();
+            });
+            producer.start();
+
+            // the first span is held by the drain thread and the next two fill the queue, so the producer waits for
+            // room with the last while the queue is closed and drained
+            while (producer.getState() != Thread.State.TIMED_WAITING && producer.isAlive()) {
+                Thread.yield();
+            }
+            queue.close();
+            release.countDown();
+            producer.join(5_000);
+
+            // a span enqueued after the drain thread exited would be neither drained nor dropped
+            assertTrue(queue.awaitTermination(5_000), "round " + round);
+            assertTrue(pending.getResult().join(5, TimeUnit.SECONDS).isDone(), "round " + round);
+            assertEquals(spans.size(), drained.get() + queue.getDroppedSpans(), "round " + round);
+        }
+    }
+
+    @Test public void testExporterEnqueuesAndDrainThreadsSend() throws InterruptedException {
+        final RecordingTransport transport = new RecordingTransport();
+        final HoneyClient client = new HoneyClient(
+            LibHoney.options().setWriteKey("key").setDataset("dataset").build(), transport);
+        final ExportTracker tracker = new ExportTracker();
+        final SpanExportQueue queue = new SpanExportQueue(1_024, 2, OverflowStrategy.DROP, WaitStrategy.BLOCKING);
+        final HoneycombSpanExporter exporter =
+            new HoneycombSpanExporter(new HoneycombSpanExporter.Settings(client, "my-service")
+                .tracker(tracker)
+                .awaitAcknowledgement(true)
+                .exportQueue(queue));
+
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(100));
+        final FlushResult flush = exporter.flush();
+        assertFalse(result.isDone());
+        assertFalse(flush.isDone());
+
+        // the drain threads send asynchronously, so acknowledge events as they arrive
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int acknowledged = 0;
+        while (acknowledged < 100 && System.nanoTime() < deadline) {
+            if (acknowledged < transport.submitted.size()) {
+                transport.accept(transport.submitted.get(acknowledged++));
+            } else {
+                Thread.yield();
+            }
+        }
+
+        assertTrue(result.join(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue(flush.join(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(0, exporter.getQueuedSpans());
+        assertEquals(0, exporter.getDroppedSpans());
+        assertTrue(exporter.shutdown().join(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue(queue.awaitTermination(5_000));
+    }
+
+    @Test public void testExportQueueRequiresTracker() {
+        final HoneyClient client = mock(HoneyClient.class);
+        final SpanExportQueue queue = new SpanExportQueue(8, 1, OverflowStrategy.DROP, WaitStrategy.BLOCKING);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> new HoneycombSpanExporter(new HoneycombSpanExporter.Settings(client, "my-service")
+                .exportQueue(queue)));
+    }
+}
@@ -0,0 +1,222 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import com.sun.net.httpserver.HttpServer;
+import io.honeycomb.libhoney.Event;
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.libhoney.shaded.com.fasterxml.jackson.databind.JsonNode;
+import io.honeycomb.libhoney.utils.JsonUtils;
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.resources.ResourceAttributes;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span.Kind;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SpanRouterTest {
+
+    private HttpServer server;
+    // events received by write key and dataset, e.g. "key-a/tenant-a"
+    private final Map<String, AtomicInteger> events = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> batches = new ConcurrentHashMap<>();
+
+    /**
+     * Starts a stand-in for Honeycomb's batch endpoint that counts events and batches by write key and dataset, and
+     * accepts every event.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/1/batch/", exchange -> {
+            final String dataset = exchange.getRequestURI().getPath().substring("/1/batch/".length());
+            final String lane = exchange.getRequestHeaders().getFirst("X-Honeycomb-Team") + "/" + dataset;
+            final JsonNode batch;
+            try (InputStream body = exchange.getRequestBody()) {
+                batch = JsonUtils.OBJECT_MAPPER.readTree(body);
+            }
+            events.computeIfAbsent(lane, k -> new AtomicInteger()).addAndGet(batch.size());
+            batches.computeIfAbsent(lane, k -> new AtomicInteger()).incrementAndGet();
+
+            final StringBuilder response = new StringBuilder("[");
+            for (int i = 0; i < batch.size(); i++) {
+                response.append(i == 0 ? "" : ",").append("{\"status\":202}");
+            }
+            final byte[] bytes = response.append(']').toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test public void testInvalidArgumentsThrowException() {
+        final SpanRouter.Builder builder = new SpanRouter.Builder();
+        assertThrows(IllegalArgumentException.class, () -> builder.serviceName(null, "dataset", null, null));
+        assertThrows(IllegalArgumentException.class, () -> builder.serviceName("service", "", null, null));
+        assertThrows(IllegalArgumentException.class, () -> builder.attribute("", "value", "dataset", null, null));
+        assertThrows(IllegalArgumentException.class, () -> builder.attribute("key", null, "dataset", null, null));
+        assertThrows(IllegalArgumentException.class,
+            () -> HoneycombSpanExporter.newBuilder("service").routeAttribute("key", "value", null));
+        assertThrows(URISyntaxException.class,
+            () -> HoneycombSpanExporter.newBuilder("service").routeServiceName("s", "d", "k", "http://bad host"));
+    }
+
+    @Test public void testSpansAreRoutedByServiceName() {
+        final SpanRouter router = new SpanRouter.Builder()
+            .serviceName("checkout", "checkout-dataset", null, null)
+            .build();
+
+        assertEquals("checkout-dataset", router.route(span(Attributes.empty(), service("checkout"))).getDataset());
+        assertNull(router.route(span(Attributes.empty(), service("cart"))));
+        assertNull(router.route(span(Attributes.empty(), Resource.getEmpty())));
+        assertNull(router.route(span(Attributes.empty(), null)));
+    }
+
+    @Test public void testSpanAttributesTakePrecedenceOverResourceAttributes() {
+        final SpanRouter router = new SpanRouter.Builder()
+            .serviceName("gateway", "gateway", null, null)
+            .attribute("tenant.id", "a", "tenant-a", "key-a", null)
+            .attribute("tenant.id", "b", "tenant-b", "key-b", null)
+            .attribute("region", "eu", "eu", null, null)
+            .build();
+        final Resource tenantB = Resource.create(Attributes.of(
+            ResourceAttributes.SERVICE_NAME, "gateway",
+            AttributeKey.stringKey("tenant.id"), "b"));
+
+        assertEquals("tenant-a", router.route(span(tenantAttribute("a"), tenantB)).getDataset());
+        assertEquals("tenant-b", router.route(span(Attributes.empty(), tenantB)).getDataset());
+        // an unknown value falls through to the next route
+        assertEquals("tenant-b", router.route(span(tenantAttribute("c"), tenantB)).getDataset());
+        assertEquals("gateway", router.route(span(Attributes.empty(), service("gateway"))).getDataset());
+        // keys are matched in the order they were added
+        assertEquals("tenant-a", router.route(span(Attributes.of(
+            AttributeKey.stringKey("region"), "eu",
+            AttributeKey.stringKey("tenant.id"), "a"), null)).getDataset());
+    }
+
+    @Test public void testResourceRoutesAreCached() {
+        final SpanRouter router = new SpanRouter.Builder()
+            .serviceName("checkout", "checkout-dataset", null, null)
+            .build();
+        final Resource routed = mock(Resource.class);
+        when(routed.getAttributes()).thenReturn(Attributes.of(ResourceAttributes.SERVICE_NAME, "checkout"));
+        final Resource unrouted = mock(Resource.class);
+        when(unrouted.getAttributes()).thenReturn(Attributes.of(ResourceAttributes.SERVICE_NAME, "cart"));
+
+        // one at a time, as both could map to the same slot of the cache
+        for (int i = 0; i < 3; i++) {
+            assertEquals("checkout-dataset", router.route(routed).getDataset());
+        }
+        for (int i = 0; i < 3; i++) {
+            assertNull(router.route(unrouted));
+        }
+        verify(routed, times(1)).getAttributes();
+        verify(unrouted, times(1)).getAttributes();
+    }
+
+    @Test public void testRoutesApplyToEventsAndAreFoundById() throws Exception {
+        final SpanRouter router = new SpanRouter.Builder()
+            .attribute("tenant.id", "a", "tenant-a", "key-a", new URI("https://eu.example.com"))
+            .build();
+        final HoneyClient client = new HoneyClient(LibHoney.options().setWriteKey("key").setDataset("dataset").build());
+        try {
+            final SpanRouter.Route route = router.route(span(tenantAttribute("a"), null));
+            final Event event = route.applyTo(client.createEvent());
+
+            assertEquals("tenant-a", event.getDataset());
+            assertEquals("key-a", event.getWriteKey());
+            assertEquals(new URI("https://eu.example.com"), event.getApiHost());
+            assertEquals(route.getId(), event.getMetadata().get(SpanRouter.ROUTE_METADATA_KEY));
+            assertFalse(route.getId().contains("key-a"));
+            assertSame(route, router.get(route.getId()));
+            assertNull(router.get("attribute:tenant.id=b"));
+            assertNull(router.get(null));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test public void testEachRouteIsBatchedSeparately() throws Exception {
+        final String apiHost = "http://localhost:" + server.getAddress().getPort();
+        final HoneycombSpanExporter exporter = HoneycombSpanExporter.newBuilder("gateway")
+            .apiHost(apiHost)
+            .writeKey("key")
+            .dataSet("dataset")
+            .batchTimeoutMillis(10)
+            .routeAttribute("tenant.id", "a", "tenant-a", "key-a", null)
+            .routeAttribute("tenant.id", "b", "tenant-b", "key-b", apiHost)
+            .routeServiceName("checkout", "checkout")
+            .awaitAcknowledgement(true)
+            .build();
+        final List<SpanData> spans = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            spans.add(span(tenantAttribute("a"), null));
+            spans.add(span(tenantAttribute("b"), null));
+            spans.add(span(Attributes.empty(), service("checkout")));
+            spans.add(span(Attributes.empty(), service("cart")));
+        }
+
+        final CompletableResultCode result = exporter.export(spans);
+
+        assertTrue(result.join(10, TimeUnit.SECONDS).isSuccess());
+        assertEquals(4, events.size());
+        assertEquals(30, events.get("key-a/tenant-a").get());
+        assertEquals(30, events.get("key-b/tenant-b").get());
+        assertEquals(30, events.get("key/checkout").get());
+        assertEquals(30, events.get("key/dataset").get());
+        // each batch holds the events of a single route
+        assertEquals(batches.keySet(), events.keySet());
+        assertTrue(exporter.shutdown().join(10, TimeUnit.SECONDS).isSuccess());
+    }
+
+    private static Attributes tenantAttribute(final String tenant) {
+        return Attributes.of(AttributeKey.stringKey("tenant.id"), tenant);
+    }
+
+    private static Resource service(final String serviceName) {
+        return Resource.create(Attributes.of(ResourceAttributes.SERVICE_NAME, serviceName));
+    }
+
+    private static SpanData span(final Attributes attributes, final Resource resource) {
+        final TestSpanData.Builder builder = TestSpanData.newBuilder()
+            .setTraceId("000000000063d76f0000000037fe0393")
+            .setSpanId("000000000012d685")
+            .setName("spanName")
+            .setKind(Kind.SERVER)
+            .setAttributes(attributes)
+            .setStartEpochNanos(TimeUnit.SECONDS.toNanos(100))
+            .setEndEpochNanos(TimeUnit.SECONDS.toNanos(300))
+            .setHasEnded(true);
+        if (resource != null) {
+            builder.setResource(resource);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,426 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.Event;
+import io.honeycomb.libhoney.HoneyClient;
+import io.honeycomb.libhoney.LibHoney;
+import io.honeycomb.libhoney.eventdata.ResolvedEvent;
+import io.honeycomb.libhoney.responses.ServerRejected;
+import io.honeycomb.libhoney.responses.ServerResponse;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.resources.ResourceAttributes;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SpillQueueTest {
+
+    @TempDir
+    Path directory;
+
+    private RecordingTransport transport;
+    private HoneyClient client;
+    private final AtomicLong clock = new AtomicLong();
+
+    @BeforeEach
+    public void setUp() {
+        transport = new RecordingTransport();
+        client = new HoneyClient(LibHoney.options().setWriteKey("key").setDataset("dataset").build(), transport);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        client.close();
+    }
+
+    @Test public void testInvalidArgumentsThrowException() {
+        assertThrows(IllegalArgumentException.class, () -> new SpillQueue(null, 4096, 8192, 0));
+        assertThrows(IllegalArgumentException.class, () -> new SpillQueue(directory, 8, 8192, 0));
+        assertThrows(IllegalArgumentException.class, () -> new SpillQueue(directory, 4096, 1024, 0));
+        assertThrows(IllegalArgumentException.class, () -> new SpillQueue(directory, 4096, 8192, -1));
+        assertThrows(IllegalArgumentException.class,
+            () -> HoneycombSpanExporter.newBuilder("service").spillWatermark(0));
+    }
+
+    @Test public void testEventsAreReplayedInOrderWithTheirFields() {
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 0);
+        for (int i = 0; i < 3; i++) {
+            final Event event = client.createEvent();
+            event.setTimestamp(1_000 + i);
+            event.setDataset("spilled");
+            event.addField("index", (long) i);
+            event.addField("name", "event " + i);
+            event.addField("ratio", 0.5);
+            event.addField("error", true);
+            event.addField("missing", null);
+            assertTrue(spill.append(event));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            final SpillQueue.SpilledEvent spilled = spill.poll();
+            assertEquals((long) i, spilled.getFields().get("index"));
+            assertEquals("event " + i, spilled.getFields().get("name"));
+            assertEquals(0.5, spilled.getFields().get("ratio"));
+            assertEquals(true, spilled.getFields().get("error"));
+            assertTrue(spilled.getFields().containsKey("missing"));
+
+            final Event replayed = spilled.copyTo(client.createEvent());
+            assertEquals(1_000L + i, (long) replayed.getTimestamp());
+            assertEquals("spilled", replayed.getDataset());
+        }
+        assertNull(spill.poll());
+        assertEquals(3, spill.getSpilledEvents());
+        assertEquals(3, spill.getReplayedEvents());
+    }
+
+    @Test public void testSegmentsAreDeletedOnceReplayedAndAcknowledged() throws IOException {
+        final SpillQueue spill = new SpillQueue(directory, 1024, 1 << 20, 0);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(spill.append(event(i)));
+        }
+        final int segments = spill.getSegments();
+        assertTrue(segments > 1, "segments " + segments);
+        assertEquals(segments, countSegmentFiles());
+
+        final List<SpillQueue.SpilledEvent> replayed = new ArrayList<>();
+        SpillQueue.SpilledEvent spilled;
+        while ((spilled = spill.poll()) != null) {
+            replayed.add(spilled);
+        }
+        assertEquals(50, replayed.size());
+        // nothing is deleted before the replayed events have had a response
+        assertEquals(segments, countSegmentFiles());
+
+        for (SpillQueue.SpilledEvent event : replayed) {
+            spill.acknowledge(event.getSegment());
+        }
+        // only the segment still being written to is kept
+        assertEquals(1, spill.getSegments());
+        assertEquals(1, countSegmentFiles());
+        assertEquals(0, spill.getBacklogBytes());
+    }
+
+    @Test public void testDiskUsageIsBounded() throws IOException {
+        final SpillQueue spill = new SpillQueue(directory, 1024, 2048, 0);
+        int appended = 0;
+        for (int i = 0; i < 100; i++) {
+            if (spill.append(event(i))) {
+                appended++;
+            }
+        }
+
+        assertTrue(appended > 0 && appended < 100, "appended " + appended);
+        assertEquals(100 - appended, spill.getDroppedEvents());
+        assertTrue(countSegmentFiles() <= 2);
+    }
+
+    @Test public void testSpilledEventsSurviveRestart() {
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 0);
+        for (int i = 0; i < 5; i++) {
+            spill.append(event(i));
+        }
+        spill.close();
+        assertFalse(spill.append(event(5)));
+
+        final SpillQueue reopened = new SpillQueue(directory, 4096, 1 << 20, 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals((long) i, reopened.poll().getFields().get("index"));
+        }
+        assertNull(reopened.poll());
+        assertTrue(reopened.append(event(6)));
+    }
+
+    @Test public void testCorruptRecordsAreSkipped() throws IOException {
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 0);
+        for (int i = 0; i < 3; i++) {
+            spill.append(event(i));
+        }
+        spill.close();
+
+        // flip the last payload byte of the second record
+        final Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 0);
+            final int second = 8 + header.getInt(0);
+            header.clear();
+            channel.read(header, second);
+            final long lastByte = second + 8 + header.getInt(0) - 1;
+            final ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, lastByte);
+            value.put(0, (byte) ~value.get(0));
+            value.rewind();
+            channel.write(value, lastByte);
+        }
+
+        final SpillQueue reopened = new SpillQueue(directory, 4096, 1 << 20, 0);
+        assertEquals(0L, reopened.poll().getFields().get("index"));
+        assertEquals(2L, reopened.poll().getFields().get("index"));
+        assertNull(reopened.poll());
+        assertEquals(1, reopened.getCorruptRecords());
+    }
+
+    @Test public void testManyUnreadableRecordsAreSkippedInOnePoll() throws IOException {
+        // records that pass their CRC check but are in an unknown format, as if written by an incompatible version
+        final int unreadable = 20_000;
+        final byte[] payload = {99};
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer segment = ByteBuffer.allocate(unreadable * (8 + payload.length));
+        for (int i = 0; i < unreadable; i++) {
+            segment.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+        Files.write(directory.resolve("spill-0000000000000000.seg"), segment.array());
+
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 0);
+        assertTrue(spill.append(event(1)));
+
+        assertEquals(1L, spill.poll().getFields().get("index"));
+        assertEquals(unreadable, spill.getCorruptRecords());
+        assertNull(spill.poll());
+        // the unreadable segment was acknowledged as it was skipped
+        assertEquals(1, countSegmentFiles());
+    }
+
+    @Test public void testEventsAreSpilledDuringAnOutageAndReplayedAfterwards() {
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 1_000, clock::get);
+        final ExportTracker tracker = new ExportTracker(spill, 1_000);
+        final HoneycombSpanExporter exporter = new HoneycombSpanExporter(tracked(tracker));
+
+        // libhoney's queue overflows, so the event is spilled, and while replay backs off so are the next ones
+        transport.accepting = false;
+        final CompletableResultCode result = exporter.export(TestSpanData.createSpans(10));
+        assertTrue(result.isSuccess());
+        assertEquals(10, exporter.getSpilledEvents());
+        assertEquals(1, transport.submitted.size());
+
+        assertTrue(exporter.export(TestSpanData.createSpans(15).subList(10, 15)).isSuccess());
+        assertEquals(15, exporter.getSpilledEvents());
+        assertEquals(1, transport.submitted.size());
+        assertTrue(exporter.getSpillBacklogBytes() > 0);
+
+        // once the backoff has passed, the replay thread sends the spilled events in order
+        transport.accepting = true;
+        transport.submitted.clear();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (transport.submitted.size() < 15 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+
+        assertEquals(15, transport.submitted.size());
+        for (int i = 0; i < 15; i++) {
+            final ResolvedEvent event = transport.submitted.get(i);
+            assertEquals(String.format("%016x", i + 1), event.getFields().get(AttributeNames.SPAN_ID_FIELD));
+            transport.accept(event);
+        }
+        assertEquals(0, exporter.getSpillBacklogBytes());
+        assertEquals(0, tracker.getOutstanding());
+        assertEquals(15, spill.getReplayedEvents());
+        assertTrue(exporter.shutdown().join(5, TimeUnit.SECONDS).isSuccess());
+    }
+
+    @Test public void testRoutedEventsAreReplayedThroughTheirRoute() throws Exception {
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 1_000, clock::get);
+        final ExportTracker tracker = new ExportTracker(spill, 1_000);
+        final SpanRouter router = new SpanRouter.Builder()
+            .serviceName("my-service", "routed", "routed-key", null)
+            .build();
+        final HoneycombSpanExporter exporter = new HoneycombSpanExporter(tracked(tracker).router(router));
+        final List<SpanData> spans = new ArrayList<>();
+        for (SpanData span : TestSpanData.createSpans(3)) {
+            spans.add(TestSpanData.newBuilder()
+                .setTraceId(span.getTraceId())
+                .setSpanId(span.getSpanId())
+                .setResource(Resource.create(Attributes.of(ResourceAttributes.SERVICE_NAME, "my-service")))
+                .build());
+        }
+
+        transport.accepting = false;
+        assertTrue(exporter.export(spans).isSuccess());
+        assertEquals(3, exporter.getSpilledEvents());
+        // the route's write key is not written to disk
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("routed-key"));
+            }
+        }
+
+        transport.accepting = true;
+        transport.submitted.clear();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (transport.submitted.size() < 3 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+
+        assertEquals(3, transport.submitted.size());
+        for (ResolvedEvent event : transport.submitted) {
+            assertEquals("routed", event.getDataset());
+            assertEquals("routed-key", event.getWriteKey());
+            transport.accept(event);
+        }
+        assertTrue(exporter.shutdown().join(5, TimeUnit.SECONDS).isSuccess());
+    }
+
+    @Test public void testEventsOfARemovedRouteAreDroppedOnReplay() throws Exception {
+        final SpanRouter removed = new SpanRouter.Builder()
+            .attribute("tenant.id", "a", "tenant-a", "key-a", new URI("https://eu.example.com"))
+            .build();
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 0);
+        for (int i = 0; i < 2; i++) {
+            final Event event = event(i);
+            removed.get("attribute:tenant.id=a").applyTo(event);
+            assertTrue(spill.append(event));
+        }
+        assertTrue(spill.append(event(2)));
+        spill.close();
+
+        final SpillQueue reopened = new SpillQueue(directory, 4096, 1 << 20, 1_000, clock::get);
+        final SpanRouter router = new SpanRouter.Builder()
+            .attribute("tenant.id", "b", "tenant-b", "key-b", null)
+            .build();
+        final HoneycombSpanExporter exporter =
+            new HoneycombSpanExporter(tracked(new ExportTracker(reopened, 1_000)).router(router));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (transport.submitted.isEmpty() && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+
+        // neither the removed route's API host and dataset, nor another write key, are used for its events
+        assertEquals(1, transport.submitted.size());
+        final ResolvedEvent replayed = transport.submitted.get(0);
+        assertEquals(2L, replayed.getFields().get("index"));
+        assertEquals("dataset", replayed.getDataset());
+        assertEquals("key", replayed.getWriteKey());
+        assertEquals(2, exporter.getSpillUnroutableEvents());
+        assertEquals(2, reopened.getUnroutableEvents());
+        exporter.shutdown().join(5, TimeUnit.SECONDS);
+    }
+
+    @Test public void testEventsRejectedByAFailingServerAreSpilled() {
+        for (int status : new int[] {503, 429, 400}) {
+            // the rejection pauses replay, and new events would be spilled straight away, so each status starts afresh
+            final SpillQueue spill = new SpillQueue(directory.resolve("status-" + status), 4096, 1 << 20, 1_000,
+                clock::get);
+            final ExportTracker tracker = new ExportTracker(spill, 1_000);
+            final HoneycombSpanExporter exporter = new HoneycombSpanExporter(tracked(tracker));
+            transport.submitted.clear();
+            final CompletableResultCode result = exporter.export(TestSpanData.createSpans(1));
+            assertEquals(1, transport.submitted.size());
+
+            final ServerResponse.BatchData batch = mock(ServerResponse.BatchData.class);
+            when(batch.getBatchStatusCode()).thenReturn(status);
+            final ServerRejected rejected = mock(ServerRejected.class);
+            when(rejected.getBatchData()).thenReturn(batch);
+            when(rejected.getEventMetadata()).thenReturn(transport.submitted.get(0).getMetadata());
+            transport.observable.publish(rejected);
+
+            // an event the server may accept later is back in the spill, and counts as accepted; a bad one fails
+            final boolean retryable = status != 400;
+            assertEquals(retryable, result.isSuccess(), "status " + status);
+            assertEquals(retryable ? 1 : 0, spill.getSpilledEvents(), "status " + status);
+            assertEquals(0, tracker.getOutstanding());
+            if (retryable) {
+                assertEquals(String.format("%016x", 1), spill.poll().getFields().get(AttributeNames.SPAN_ID_FIELD));
+            }
+            exporter.shutdown().join(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test public void testReplayedEventsThatFailAgainAreRetriedFirstInOrder() {
+        final SpillQueue spill = new SpillQueue(directory, 4096, 1 << 20, 1_000, clock::get);
+        final ExportTracker tracker = new ExportTracker(spill, 1_000);
+        final HoneycombSpanExporter exporter = new HoneycombSpanExporter(tracked(tracker));
+        transport.accepting = false;
+        assertTrue(exporter.export(TestSpanData.createSpans(5)).isSuccess());
+
+        transport.accepting = true;
+        transport.submitted.clear();
+        final List<ResolvedEvent> replayed = awaitReplay(5);
+
+        // the fourth and second spans fail again, in that order; the others are accepted
+        for (int i : new int[] {3, 1}) {
+            final ServerResponse.BatchData batch = mock(ServerResponse.BatchData.class);
+            when(batch.getBatchStatusCode()).thenReturn(503);
+            final ServerRejected rejected = mock(ServerRejected.class);
+            when(rejected.getBatchData()).thenReturn(batch);
+            when(rejected.getEventMetadata()).thenReturn(replayed.get(i).getMetadata());
+            transport.observable.publish(rejected);
+        }
+        for (int i : new int[] {0, 2, 4}) {
+            transport.accept(replayed.get(i));
+        }
+        // replay is paused, so a new span is spilled behind the retried ones
+        assertTrue(exporter.export(TestSpanData.createSpans(6).subList(5, 6)).isSuccess());
+        assertEquals(6, spill.getSpilledEvents());
+
+        transport.submitted.clear();
+        final List<ResolvedEvent> retried = awaitReplay(3);
+        assertEquals(String.format("%016x", 2), retried.get(0).getFields().get(AttributeNames.SPAN_ID_FIELD));
+        assertEquals(String.format("%016x", 4), retried.get(1).getFields().get(AttributeNames.SPAN_ID_FIELD));
+        assertEquals(String.format("%016x", 6), retried.get(2).getFields().get(AttributeNames.SPAN_ID_FIELD));
+        for (ResolvedEvent event : retried) {
+            transport.accept(event);
+        }
+        assertEquals(0, tracker.getOutstanding());
+        assertEquals(0, exporter.getSpillBacklogBytes());
+        assertTrue(exporter.shutdown().join(5, TimeUnit.SECONDS).isSuccess());
+    }
+
+    /**
+     * Moves the clock past the replay backoff and waits for the replay thread to send the given number of events.
+     */
+    private List<ResolvedEvent> awaitReplay(final int events) {
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (transport.submitted.size() < events && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(events, transport.submitted.size());
+        return new ArrayList<>(transport.submitted);
+    }
+
+    private HoneycombSpanExporter.Settings tracked(final ExportTracker tracker) {
+        return new HoneycombSpanExporter.Settings(client, "my-service")
+            .tracker(tracker)
+            .awaitAcknowledgement(true);
+    }
+
+    private Event event(final int index) {
+        final Event event = client.createEvent();
+        event.setTimestamp(index);
+        event.addField("index", (long) index);
+        event.addField("name", "a span name that takes up a little room");
+        return event;
+    }
+
+    private long countSegmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
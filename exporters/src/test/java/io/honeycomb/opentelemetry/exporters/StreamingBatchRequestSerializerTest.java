@@ -0,0 +1,86 @@
+package io.honeycomb.opentelemetry.exporters;
+
+import io.honeycomb.libhoney.shaded.com.fasterxml.jackson.databind.JsonNode;
+import io.honeycomb.libhoney.transport.batch.impl.HoneycombBatchConsumer.BatchRequestElement;
+import io.honeycomb.libhoney.transport.json.BatchRequestSerializer;
+import io.honeycomb.libhoney.utils.JsonUtils;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingBatchRequestSerializerTest {
+
+    private final StreamingBatchRequestSerializer serializer = new StreamingBatchRequestSerializer();
+
+    @Test public void testEmptyBatch() throws Exception {
+        assertEquals("[]", new String(serializer.serialize(Collections.emptyList()), StandardCharsets.UTF_8));
+    }
+
+    @Test public void testSimpleBatchIsWrittenExactly() throws Exception {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("name", "value");
+        data.put("count", 42L);
+        data.put("negative", -7);
+        data.put("flag", true);
+        data.put("missing", null);
+
+        byte[] json = serializer.serialize(Collections.singletonList(
+            new BatchRequestElement("2020-01-01T00:00:00.000Z", 3, data)));
+
+        assertEquals("[{\"time\":\"2020-01-01T00:00:00.000Z\",\"samplerate\":3,\"data\":"
+            + "{\"name\":\"value\",\"count\":42,\"negative\":-7,\"flag\":true,\"missing\":null}}]",
+            new String(json, StandardCharsets.UTF_8));
+    }
+
+    @Test public void testOutputIsEquivalentToJacksonSerializer() throws Exception {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("inner", Arrays.asList(1L, "two", false));
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put(AttributeNames.SERVICE_NAME_FIELD, "my-service");
+        data.put(AttributeNames.TRACE_ID_FIELD, "000000000063d76f0000000037fe0393");
+        data.put(AttributeNames.DURATION_FIELD, 200000L);
+        data.put("escapes", "quote\" backslash\\ newline\n tab\t control\u0001 slash/");
+        data.put("unicode", "café € 😀");
+        data.put("unicode key é", "value");
+        data.put("min", Long.MIN_VALUE);
+        data.put("max", Long.MAX_VALUE);
+        data.put("zero", 0L);
+        data.put("double", 0.25d);
+        data.put("nan", Double.NaN);
+        data.put("date", new Date(1000L));
+        data.put("nested", nested);
+        data.put("array", new int[] {1, 2, 3});
+        data.put("numberKeys", Collections.singletonMap(1, "one"));
+
+        List<BatchRequestElement> batch = Arrays.asList(
+            new BatchRequestElement("2020-01-01T00:00:00.000Z", 1, data),
+            new BatchRequestElement("2020-01-01T00:00:01.000Z", 10, Collections.singletonMap("a", "b")));
+
+        JsonNode expected = JsonUtils.OBJECT_MAPPER.readTree(new BatchRequestSerializer().serialize(batch));
+        JsonNode actual = JsonUtils.OBJECT_MAPPER.readTree(serializer.serialize(batch));
+        assertEquals(expected, actual);
+    }
+
+    @Test public void testBufferIsReusedBetweenBatches() throws Exception {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < StreamingBatchRequestSerializer.INITIAL_BUFFER_SIZE; i++) {
+            large.append('x');
+        }
+        List<BatchRequestElement> big = Collections.singletonList(
+            new BatchRequestElement("t", 1, Collections.singletonMap("big", large.toString())));
+        List<BatchRequestElement> small = Collections.singletonList(
+            new BatchRequestElement("t", 1, Collections.singletonMap("small", "y")));
+
+        assertEquals(large.length() + 47, serializer.serialize(big).length);
+        assertEquals("[{\"time\":\"t\",\"samplerate\":1,\"data\":{\"small\":\"y\"}}]",
+            new String(serializer.serialize(small), StandardCharsets.UTF_8));
+    }
+}
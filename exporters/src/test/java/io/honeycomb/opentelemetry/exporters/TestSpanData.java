@@ -8,7 +8,9 @@ import io.opentelemetry.sdk.trace.data.SpanData;
 import io.opentelemetry.trace.Span;
 import io.opentelemetry.trace.SpanId;
 import io.opentelemetry.trace.TraceState;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class TestSpanData implements SpanData {
   private final String traceId;
@@ -45,6 +47,28 @@ public class TestSpanData implements SpanData {
     return new Builder();
   }
 
+  /**
+   * Creates ended server spans of a single trace, with span ids numbered from 1.
+   *
+   * @param count the number of spans.
+   * @return the spans.
+   */
+  public static List<SpanData> createSpans(final int count) {
+    final List<SpanData> spans = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      spans.add(newBuilder()
+          .setTraceId("000000000063d76f0000000037fe0393")
+          .setSpanId(String.format("%016x", i + 1))
+          .setName("spanName")
+          .setKind(Span.Kind.SERVER)
+          .setStartEpochNanos(TimeUnit.SECONDS.toNanos(100))
+          .setEndEpochNanos(TimeUnit.SECONDS.toNanos(300))
+          .setHasEnded(true)
+          .build());
+    }
+    return spans;
+  }
+
   @Override
   public String getTraceId() {
     return traceId;
@@ -8,14 +8,12 @@ import io.opentelemetry.sdk.trace.Sampler;
 import io.opentelemetry.sdk.trace.data.SpanData;
 import io.opentelemetry.trace.Span.Kind;
 import io.opentelemetry.trace.SpanContext;
+import io.opentelemetry.trace.TraceState;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 /**
  * This TraceSampler allows for distributed sampling based on a common field
  * such as a request or trace ID. It accepts a sample rate N and will
@@ -28,6 +26,30 @@ import java.security.NoSuchAlgorithmException;
  * <p>
  * This implementation is based on the implementations (and necessarily needs to
  * be in line with) the other Beeline implementations.
+ * <p>
+ * A sampler created with {@link #parentBased(int)} only hashes the trace ID at
+ * root spans. Spans with a valid parent, local or remote, follow the parent's
+ * sampled flag and record this sampler's {@code sampleRate}, which gives the
+ * same outcomes as hashing when the whole trace is sampled at that rate,
+ * without repeating the work for every span of the trace.
+ * <p>
+ * Trace IDs are hashed with SHA-1 by default, as the Beelines do. The
+ * {@link HashAlgorithm#MURMUR3} algorithm is several times cheaper and spreads
+ * trace IDs just as uniformly, but decides differently from the Beelines, so
+ * it should only be used where traces are not also sampled by other Beelines.
+ * <p>
+ * A sampler built with {@link Builder#trustTraceState(boolean)} looks for a
+ * decision in the parent's W3C {@code tracestate}, under
+ * {@link #TRACE_STATE_KEY}, and uses it instead of hashing if it was made at
+ * the same sample rate. The entry is written with
+ * {@link #withDecision(TraceState, boolean, int)} wherever the trace state can
+ * be set, for example by a propagator or by other Honeycomb components; this
+ * version of the OpenTelemetry SDK does not let samplers update it.
+ *
+ * <p>
+ * A sampler built with {@link Builder#metrics(SamplerMetrics)} counts the
+ * decisions of {@code shouldSample} and times a fraction of them, without
+ * locking or allocating.
  *
  * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be
  * shared.
@@ -40,15 +62,30 @@ import java.security.NoSuchAlgorithmException;
  *      Nodejs sampler</a>
  */
 public class DeterministicTraceSampler implements Sampler {
-    private static final int MAX_U_INT = 0xffffffff;
     private static final int ALWAYS_SAMPLE = 1;
     private static final int NEVER_SAMPLE = 0;
 
+    private static final AttributeKey<Long> SAMPLE_RATE = AttributeKey.longKey("sample.rate");
+
     private final int sampleRate;
+    private final boolean parentBased;
+    private final boolean trustTraceState;
+    private final boolean murmur3;
     private final int upperBound;
+    private final SamplingResult sampledResult;
+    private final SamplingResult droppedResult;
+    // null unless metrics are enabled
+    private final SamplerMetrics metrics;
+    private final SamplerMetrics.RateCounters rateCounters;
 
     public final static String DESCRIPTION = "HoneycombDeterministicSampler";
 
+    /**
+     * The key of the sampling decision in the W3C {@code tracestate}. Its value is {@code s} for a sampled trace or
+     * {@code d} for a dropped one, followed by the sample rate, e.g. {@code s10}.
+     */
+    public static final String TRACE_STATE_KEY = "honeycomb";
+
     /**
      * See the class level javadoc for an explanation of the sampleRate.
      *
@@ -57,10 +94,84 @@ public class DeterministicTraceSampler implements Sampler {
      * @throws IllegalStateException    if SHA-1 is not supported.
      */
     public DeterministicTraceSampler(final int sampleRate) {
+        this(sampleRate, HashAlgorithm.SHA1, false, false, null);
+    }
+
+    /**
+     * See the class level javadoc for an explanation of the sampleRate and hash algorithms.
+     *
+     * @param sampleRate    to use - must not be negative.
+     * @param hashAlgorithm to hash trace IDs with.
+     * @throws IllegalArgumentException if sampleRate is negative or hashAlgorithm is null.
+     * @throws IllegalStateException    if hashAlgorithm is SHA-1 and SHA-1 is not supported.
+     */
+    public DeterministicTraceSampler(final int sampleRate, final HashAlgorithm hashAlgorithm) {
+        this(sampleRate, hashAlgorithm, false, false, null);
+    }
+
+    private DeterministicTraceSampler(final int sampleRate, final HashAlgorithm hashAlgorithm,
+                                      final boolean parentBased, final boolean trustTraceState,
+                                      final SamplerMetrics metrics) {
         Assert.isTrue(sampleRate >= 0, "Sample rate must not be negative");
+        Assert.notNull(hashAlgorithm, "Hash algorithm must not be null");
         this.sampleRate = sampleRate;
-        getSha(); // quick check that SHA-1 is available
-        upperBound = sampleRate == 0 ? 0 : Integer.divideUnsigned(MAX_U_INT, sampleRate);
+        this.parentBased = parentBased;
+        this.trustTraceState = trustTraceState;
+        this.murmur3 = hashAlgorithm == HashAlgorithm.MURMUR3;
+        if (!murmur3) {
+            TraceIdHash.newSha1(); // quick check that SHA-1 is available
+        }
+        upperBound = TraceIdHash.upperBound(sampleRate);
+        droppedResult = newResult(0);
+        sampledResult = sampleRate == 0 ? droppedResult : newResult(sampleRate);
+        this.metrics = metrics;
+        this.rateCounters = metrics == null ? null : metrics.forRate(sampleRate);
+    }
+
+    /**
+     * Creates a sampler that decides at root spans as {@link #DeterministicTraceSampler(int)} does, and otherwise
+     * follows the parent span's sampled flag. A sample rate of 0 never samples, whatever the parent decided.
+     *
+     * @param sampleRate to use - must not be negative.
+     * @return a new parent-based sampler.
+     * @throws IllegalArgumentException if sampleRate is negative.
+     * @throws IllegalStateException    if SHA-1 is not supported.
+     */
+    public static DeterministicTraceSampler parentBased(final int sampleRate) {
+        return new DeterministicTraceSampler(sampleRate, HashAlgorithm.SHA1, true, false, null);
+    }
+
+    /**
+     * Creates a parent-based sampler, see {@link #parentBased(int)}, that hashes trace IDs at root spans with the
+     * given algorithm.
+     *
+     * @param sampleRate    to use - must not be negative.
+     * @param hashAlgorithm to hash trace IDs with.
+     * @return a new parent-based sampler.
+     * @throws IllegalArgumentException if sampleRate is negative or hashAlgorithm is null.
+     * @throws IllegalStateException    if hashAlgorithm is SHA-1 and SHA-1 is not supported.
+     */
+    public static DeterministicTraceSampler parentBased(final int sampleRate, final HashAlgorithm hashAlgorithm) {
+        return new DeterministicTraceSampler(sampleRate, hashAlgorithm, true, false, null);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Records a sampling decision in the trace state, under {@link #TRACE_STATE_KEY}, for samplers that
+     * {@link Builder#trustTraceState(boolean) trust the trace state} in downstream services.
+     *
+     * @param traceState to add the decision to.
+     * @param sampled    true if the trace is sampled.
+     * @param sampleRate the trace was decided at - must not be negative.
+     * @return the trace state with the decision.
+     * @throws IllegalArgumentException if sampleRate is negative.
+     */
+    public static TraceState withDecision(final TraceState traceState, final boolean sampled, final int sampleRate) {
+        Assert.isTrue(sampleRate >= 0, "Sample rate must not be negative");
+        return traceState.toBuilder().set(TRACE_STATE_KEY, (sampled ? "s" : "d") + sampleRate).build();
     }
 
     /**
@@ -78,22 +189,96 @@ public class DeterministicTraceSampler implements Sampler {
         if (sampleRate == NEVER_SAMPLE) {
             return 0;
         }
-        final MessageDigest sha = getSha();
-        sha.update(traceId.getBytes(StandardCharsets.UTF_8));
-        final byte[] digest = sha.digest();
-        final int first4Bytes = ByteBuffer.wrap(digest).order(ByteOrder.BIG_ENDIAN).getInt(0);
-        final boolean shouldSample = Integer.compareUnsigned(first4Bytes, upperBound) <= 0;
-        return shouldSample ? sampleRate : 0;
+        if (murmur3) {
+            return TraceIdHash.isSampledMurmur3(traceId, upperBound) ? sampleRate : 0;
+        }
+        return TraceIdHash.current().isSampled(traceId, upperBound) ? sampleRate : 0;
+    }
+
+    /**
+     * Decides, for each of the given traceIds, whether to sample its trace, as {@link #sample(String)} does. This
+     * avoids per-id overhead when deciding for many traces at once.
+     *
+     * @param traceIds to decide for.
+     * @param rates    to fill with the decisions, 0 or the configured {@code sampleRate}, in the order of the
+     *                 traceIds; must be at least as long as traceIds.
+     * @throws IllegalArgumentException if rates is shorter than traceIds.
+     */
+    public void sample(final String[] traceIds, final int[] rates) {
+        sample(Arrays.asList(traceIds), rates);
     }
 
-    private MessageDigest getSha() {
-        try {
-            return MessageDigest.getInstance("SHA-1");
-        } catch (final NoSuchAlgorithmException e) { // very unlikely to happen!
-            throw new IllegalStateException("Failed to load SHA-1 algorithm", e);
+    /**
+     * Decides, for each of the given traceIds, whether to sample its trace, as {@link #sample(String)} does. This
+     * avoids per-id overhead when deciding for many traces at once.
+     *
+     * @param traceIds to decide for.
+     * @param rates    to fill with the decisions, 0 or the configured {@code sampleRate}, in the iteration order of
+     *                 the traceIds; must be at least as long as traceIds.
+     * @throws IllegalArgumentException if rates is shorter than traceIds.
+     */
+    public void sample(final Collection<String> traceIds, final int[] rates) {
+        Assert.isTrue(rates.length >= traceIds.size(), "Rates must have room for all trace ids");
+        if (sampleRate == ALWAYS_SAMPLE || sampleRate == NEVER_SAMPLE) {
+            Arrays.fill(rates, 0, traceIds.size(), sampleRate);
+            return;
+        }
+        final TraceIdHash hash = murmur3 ? null : TraceIdHash.current();
+        int i = 0;
+        for (String traceId : traceIds) {
+            rates[i++] = isSampled(hash, traceId) ? sampleRate : 0;
         }
     }
 
+    /**
+     * Decides, for each of the given traceIds, whether to sample its trace, as {@link #sample(String)} does. This
+     * avoids per-id overhead when deciding for many traces at once.
+     *
+     * @param traceIds to decide for.
+     * @param sampled  to set bit {@code i} of if the i-th traceId is to be sampled, and clear it otherwise.
+     */
+    public void sample(final String[] traceIds, final BitSet sampled) {
+        sample(Arrays.asList(traceIds), sampled);
+    }
+
+    /**
+     * Decides, for each of the given traceIds, whether to sample its trace, as {@link #sample(String)} does. This
+     * avoids per-id overhead when deciding for many traces at once.
+     *
+     * @param traceIds to decide for.
+     * @param sampled  to set bit {@code i} of if the i-th traceId, in iteration order, is to be sampled, and clear
+     *                 it otherwise.
+     */
+    public void sample(final Collection<String> traceIds, final BitSet sampled) {
+        if (sampleRate == ALWAYS_SAMPLE || sampleRate == NEVER_SAMPLE) {
+            sampled.set(0, traceIds.size(), sampleRate == ALWAYS_SAMPLE);
+            return;
+        }
+        final TraceIdHash hash = murmur3 ? null : TraceIdHash.current();
+        int i = 0;
+        for (String traceId : traceIds) {
+            sampled.set(i++, isSampled(hash, traceId));
+        }
+    }
+
+    /**
+     * @param hash    the current thread's SHA-1 hash, or null if this sampler uses Murmur3.
+     * @param traceId to decide for.
+     * @return true if the trace is to be sampled.
+     */
+    private boolean isSampled(final TraceIdHash hash, final String traceId) {
+        return hash == null
+            ? TraceIdHash.isSampledMurmur3(traceId, upperBound)
+            : hash.isSampled(traceId, upperBound);
+    }
+
+    /**
+     * @return the configured sample rate.
+     */
+    int getSampleRate() {
+        return sampleRate;
+    }
+
     @Override
     public String getDescription() {
         return DESCRIPTION;
@@ -108,18 +293,195 @@ public class DeterministicTraceSampler implements Sampler {
         ReadableAttributes attributes,
         List<SpanData.Link> parentLinks) {
 
+        if (metrics == null) {
+            return decide(parentContext, traceId);
+        }
+        final boolean timed = metrics.shouldTime();
+        final long start = timed ? System.nanoTime() : 0;
+        final SamplingResult result = decide(parentContext, traceId);
+        if (timed) {
+            metrics.recordTime(System.nanoTime() - start);
+        }
+        rateCounters.record(result.getDecision() == Decision.RECORD_AND_SAMPLE);
+        return result;
+    }
+
+    private SamplingResult decide(final SpanContext parentContext, final String traceId) {
+        if (parentContext != null && parentContext.isValid()) {
+            if (trustTraceState) {
+                final int decided = traceStateDecision(parentContext.getTraceState());
+                if (decided >= 0) {
+                    return createResult(decided);
+                }
+            }
+            if (parentBased) {
+                return createResult(parentContext.isSampled() ? sampleRate : 0);
+            }
+        }
         int sampleRate = sample(traceId);
         return createResult(sampleRate);
     }
 
+    /**
+     * Reads the decision recorded under {@link #TRACE_STATE_KEY}, without allocating.
+     *
+     * @return the decision, 0 or the configured {@code sampleRate}, or -1 if there is no entry, it was made at a
+     * different rate, or it cannot be parsed.
+     */
+    private int traceStateDecision(final TraceState traceState) {
+        final String entry = traceState == null ? null : traceState.get(TRACE_STATE_KEY);
+        if (entry == null || entry.length() < 2 || entry.length() > 11) {
+            return -1;
+        }
+        long rate = 0;
+        for (int i = 1; i < entry.length(); i++) {
+            final int digit = entry.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            rate = rate * 10 + digit;
+        }
+        if (rate != sampleRate) {
+            return -1;
+        }
+        switch (entry.charAt(0)) {
+            case 's':
+                return sampleRate;
+            case 'd':
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Creates the result for a sampling decision. The results for this sampler's sample rate and for dropping are
+     * created once, on construction, and shared between decisions.
+     *
+     * @param sampleRate the decision, as returned by {@link #sample(String)}.
+     * @return the sampling result.
+     */
     protected SamplingResult createResult(int sampleRate) {
-        Attributes attrs = Attributes.of(AttributeKey.longKey("sample.rate"), (long) sampleRate);
+        if (sampleRate == this.sampleRate) {
+            return sampledResult;
+        }
+        if (sampleRate == 0) {
+            return droppedResult;
+        }
+        return newResult(sampleRate);
+    }
+
+    static SamplingResult newResult(final int sampleRate) {
+        Attributes attrs = Attributes.of(SAMPLE_RATE, (long) sampleRate);
         Decision decision = sampleRate > 0 ? Decision.RECORD_AND_SAMPLE : Decision.DROP;
 
         return new HoneycombSamplingResult(decision, attrs);
     }
 
-    class HoneycombSamplingResult implements SamplingResult {
+    public static class Builder {
+        private int sampleRate = 1;
+        private HashAlgorithm hashAlgorithm = HashAlgorithm.SHA1;
+        private boolean parentBased;
+        private boolean trustTraceState;
+        private SamplerMetrics metrics;
+
+        private Builder() {
+        }
+
+        /**
+         * See the class level javadoc for an explanation of the sampleRate.
+         * <p>
+         * Default: 1
+         *
+         * @param sampleRate to set, must not be negative.
+         * @return this.
+         */
+        public Builder sampleRate(final int sampleRate) {
+            Assert.isTrue(sampleRate >= 0, "Sample rate must not be negative");
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * See {@link HashAlgorithm}.
+         * <p>
+         * Default: {@link HashAlgorithm#SHA1}
+         *
+         * @param hashAlgorithm to set.
+         * @return this.
+         */
+        public Builder hashAlgorithm(final HashAlgorithm hashAlgorithm) {
+            Assert.notNull(hashAlgorithm, "Hash algorithm must not be null");
+            this.hashAlgorithm = hashAlgorithm;
+            return this;
+        }
+
+        /**
+         * Whether spans with a valid parent follow the parent's sampled flag, see
+         * {@link DeterministicTraceSampler#parentBased(int)}.
+         * <p>
+         * Default: false
+         *
+         * @param parentBased to set.
+         * @return this.
+         */
+        public Builder parentBased(final boolean parentBased) {
+            this.parentBased = parentBased;
+            return this;
+        }
+
+        /**
+         * Whether to use a decision recorded in the parent's trace state, under {@link #TRACE_STATE_KEY}, instead of
+         * hashing, provided it was made at the same sample rate. Spans without such an entry are decided as usual.
+         * <p>
+         * Default: false
+         *
+         * @param trustTraceState to set.
+         * @return this.
+         */
+        public Builder trustTraceState(final boolean trustTraceState) {
+            this.trustTraceState = trustTraceState;
+            return this;
+        }
+
+        /**
+         * Metrics to record the decisions of {@code shouldSample} in, which may be shared with other samplers.
+         * <p>
+         * Default: none
+         *
+         * @param metrics to set, may be null to record none.
+         * @return this.
+         */
+        public Builder metrics(final SamplerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @return a new DeterministicTraceSampler.
+         * @throws IllegalStateException if the hash algorithm is SHA-1 and SHA-1 is not supported.
+         */
+        public DeterministicTraceSampler build() {
+            return new DeterministicTraceSampler(sampleRate, hashAlgorithm, parentBased, trustTraceState, metrics);
+        }
+    }
+
+    /**
+     * The algorithm trace IDs are hashed with to decide whether to sample them.
+     */
+    public enum HashAlgorithm {
+        /**
+         * The first 4 bytes of the SHA-1 digest of the trace ID, which decides as the Beelines do. The default.
+         */
+        SHA1,
+        /**
+         * 32-bit Murmur3 of the trace ID. Several times cheaper than SHA-1 and as uniform, but it decides
+         * differently from the Beelines, so traces sampled both by this and by another Beeline may be broken up.
+         */
+        MURMUR3
+    }
+
+    static class HoneycombSamplingResult implements SamplingResult {
         private final Decision decision;
         private final Attributes attributes;
 
@@ -0,0 +1,498 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.honeycomb.libhoney.utils.Assert;
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.ReadableAttributes;
+import io.opentelemetry.sdk.trace.Sampler;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span.Kind;
+import io.opentelemetry.trace.SpanContext;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This TraceSampler adjusts its sample rate per key, such as the span name, so that rare keys are kept while
+ * frequent ones are sampled more heavily, averaging out at a goal sample rate. It is based on the exponential
+ * moving average sampler of the Beelines' dynamic samplers.
+ * <p>
+ * Spans are counted per key as they are sampled. On every adjustment interval the counts are folded into a moving
+ * average per key, and new sample rates are computed from the averages: each key is given a share of the goal
+ * number of events proportional to the logarithm of its count. Until the first adjustment all keys are sampled at
+ * the goal sample rate; afterwards keys that have not been seen before are always sampled.
+ * <p>
+ * Within a key, whether to sample is decided deterministically from the trace id, as
+ * {@link DeterministicTraceSampler} does. The sample rate is recorded in the {@code sample.rate} attribute.
+ * <p>
+ * By default every span is sampled by its own key, whatever its parent decided, so a trace may be kept in part. A
+ * sampler built with {@link Builder#parentBased(boolean)} only decides at root spans: spans with a valid parent, local
+ * or remote, follow the parent's sampled flag and are not counted. As the rate the root was sampled at is not known
+ * here, they record the goal sample rate, which is what the rates of all keys average out at.
+ * <p>
+ * Counting is lock-free and striped, so that many threads can sample concurrently. At most {@code maxKeys} keys are
+ * tracked besides {@link #OVERFLOW_KEY}; spans with further keys are counted, and sampled, together under it. A key
+ * that has not been seen for a whole adjustment interval stops being tracked, making room for another. Adjustments run
+ * on a shared background thread until the sampler is {@link #close() closed}, which should be part of its lifecycle.
+ * The background thread only holds the sampler weakly, so that one that is dropped without being closed can still be
+ * garbage collected, after which its adjustments are cancelled.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ *
+ * @see <a href="https://github.com/honeycombio/dynsampler-go/blob/main/emasamplerate.go">Go EMA sampler</a>
+ */
+public class DynamicTraceSampler implements Sampler, Closeable {
+
+    public final static String DESCRIPTION = "HoneycombDynamicSampler";
+
+    /**
+     * The key spans are counted under once {@code maxKeys} keys are tracked, or if their key is null.
+     */
+    public static final String OVERFLOW_KEY = "";
+
+    // moving averages below this are dropped, so keys that are no longer seen age out
+    private static final double AGE_OUT_VALUE = 0.5;
+    private static final SamplingResult DROPPED = DeterministicTraceSampler.newResult(0);
+
+    private final int goalSampleRate;
+    private final double weight;
+    private final int maxKeys;
+    private final KeyExtractor keyExtractor;
+    private final boolean parentBased;
+    private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+    // keys in counts other than the overflow key, reserved before a key is added so that maxKeys is never exceeded
+    private final AtomicInteger trackedKeys = new AtomicInteger();
+    // keys that were not counted in the last interval, guarded by adjustRates
+    private final Set<String> idleKeys = new HashSet<>();
+    private final Map<String, Double> movingAverages = new HashMap<>();
+    private final Rate goalRate;
+    private final Rate alwaysSample = new Rate(1);
+    private final ScheduledFuture<?> adjustments;
+    private volatile Map<String, Rate> rates;
+
+    private DynamicTraceSampler(final Builder builder) {
+        this.goalSampleRate = builder.goalSampleRate;
+        this.weight = builder.weight;
+        this.maxKeys = builder.maxKeys;
+        this.keyExtractor = builder.keyExtractor;
+        this.parentBased = builder.parentBased;
+        TraceIdHash.newSha1(); // quick check that SHA-1 is available
+        this.goalRate = new Rate(goalSampleRate);
+        this.adjustments = builder.adjustmentIntervalMillis == 0
+            ? null
+            : Adjustments.schedule(this, builder.adjustmentIntervalMillis);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public String getDescription() {
+        return DESCRIPTION;
+    }
+
+    @Override
+    public SamplingResult shouldSample(
+        SpanContext parentContext,
+        String traceId,
+        String name,
+        Kind spanKind,
+        ReadableAttributes attributes,
+        List<SpanData.Link> parentLinks) {
+
+        if (parentBased && parentContext != null && parentContext.isValid()) {
+            return parentContext.isSampled() ? goalRate.sampled : DROPPED;
+        }
+        final String key = count(keyExtractor.key(name, spanKind, attributes));
+        final Rate rate = rate(key);
+        if (rate.sampleRate == 1 || TraceIdHash.current().isSampled(traceId, rate.upperBound)) {
+            return rate.sampled;
+        }
+        return DROPPED;
+    }
+
+    /**
+     * Stops adjusting sample rates, removing the adjustments from the shared background thread. The sampler keeps
+     * sampling at the rates last computed.
+     */
+    @Override
+    public void close() {
+        if (adjustments != null) {
+            adjustments.cancel(false);
+        }
+    }
+
+    /**
+     * @return the number of adjustments scheduled on the shared background thread, across all samplers.
+     */
+    static int scheduledAdjustments() {
+        return Adjustments.SCHEDULER.getQueue().size();
+    }
+
+    /**
+     * @param key of the span.
+     * @return the sample rate currently used for the key.
+     */
+    int getSampleRate(final String key) {
+        return rate(key).sampleRate;
+    }
+
+    /**
+     * @return the number of keys tracked, besides {@link #OVERFLOW_KEY}.
+     */
+    int getTrackedKeys() {
+        return trackedKeys.get();
+    }
+
+    private String count(final String spanKey) {
+        final String key = spanKey == null ? OVERFLOW_KEY : spanKey;
+        LongAdder counter = counts.get(key);
+        if (counter == null && !key.equals(OVERFLOW_KEY)) {
+            counter = track(key);
+        }
+        if (counter == null) {
+            counts.computeIfAbsent(OVERFLOW_KEY, k -> new LongAdder()).increment();
+            return OVERFLOW_KEY;
+        }
+        counter.increment();
+        return key;
+    }
+
+    /**
+     * @param key not tracked yet.
+     * @return the counter of the key, or null if {@code maxKeys} keys are tracked already.
+     */
+    private LongAdder track(final String key) {
+        if (trackedKeys.incrementAndGet() > maxKeys) {
+            trackedKeys.decrementAndGet();
+            return null;
+        }
+        final LongAdder counter = new LongAdder();
+        final LongAdder existing = counts.putIfAbsent(key, counter);
+        if (existing != null) {
+            // another thread tracked the key first
+            trackedKeys.decrementAndGet();
+            return existing;
+        }
+        return counter;
+    }
+
+    private Rate rate(final String key) {
+        final Map<String, Rate> current = rates;
+        if (current == null) {
+            return goalRate;
+        }
+        final Rate rate = current.get(key);
+        return rate == null ? alwaysSample : rate;
+    }
+
+    /**
+     * Folds the counts since the last adjustment into the moving averages and recomputes the sample rates. This
+     * runs on the adjustment interval, and can be called directly by tests.
+     */
+    synchronized void adjustRates() {
+        final Map<String, Long> intervalCounts = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+            final String key = entry.getKey();
+            final long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                intervalCounts.put(key, count);
+                idleKeys.remove(key);
+            } else if (!idleKeys.add(key)) {
+                // idle for a whole interval, so a sampling thread is unlikely to still hold the counter; the sum is
+                // checked again under the map's lock, so that a span counted since the reset keeps the key tracked
+                idleKeys.remove(key);
+                if (counts.computeIfPresent(key, (k, counter) -> counter.sum() == 0 ? null : counter) == null
+                    && !key.equals(OVERFLOW_KEY)) {
+                    trackedKeys.decrementAndGet();
+                }
+            }
+        }
+
+        final Set<String> keys = new HashSet<>(movingAverages.keySet());
+        keys.addAll(intervalCounts.keySet());
+        for (String key : keys) {
+            final double previous = movingAverages.getOrDefault(key, 0d);
+            final double average = weight * intervalCounts.getOrDefault(key, 0L) + (1 - weight) * previous;
+            if (average < AGE_OUT_VALUE) {
+                movingAverages.remove(key);
+            } else {
+                movingAverages.put(key, average);
+            }
+        }
+
+        final Map<String, Integer> sampleRates = calculateSampleRates(goalSampleRate, movingAverages);
+        final Map<String, Rate> newRates = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : sampleRates.entrySet()) {
+            newRates.put(entry.getKey(), entry.getValue() == 1 ? alwaysSample : new Rate(entry.getValue()));
+        }
+        rates = Collections.unmodifiableMap(newRates);
+    }
+
+    /**
+     * Gives each key a share of the goal number of events, {@code sum(counts) / goalSampleRate}, proportional to the
+     * logarithm of its count, and derives its sample rate from that. Keys are visited in a fixed order, and any share
+     * a key cannot use is passed on to the keys after it.
+     *
+     * @param goalSampleRate to average out at.
+     * @param counts         per key.
+     * @return the sample rate per key.
+     */
+    static Map<String, Integer> calculateSampleRates(final int goalSampleRate, final Map<String, Double> counts) {
+        final List<String> keys = new ArrayList<>(counts.keySet());
+        Collections.sort(keys);
+
+        double sumEvents = 0;
+        double logSum = 0;
+        for (double count : counts.values()) {
+            sumEvents += count;
+            logSum += Math.log10(Math.max(1, count));
+        }
+
+        final Map<String, Integer> sampleRates = new HashMap<>();
+        if (logSum == 0) {
+            // every key was seen at most once per interval, which is too rare to sample
+            for (String key : keys) {
+                sampleRates.put(key, 1);
+            }
+            return sampleRates;
+        }
+        final double goalCount = sumEvents / goalSampleRate;
+        final double goalRatio = goalCount / logSum;
+
+        int keysRemaining = keys.size();
+        double extra = 0;
+        for (String key : keys) {
+            final double count = counts.get(key);
+            final double extraForKey = extra / keysRemaining;
+            final double goalForKey = Math.max(1, Math.log10(Math.max(1, count)) * goalRatio) + extraForKey;
+            extra -= extraForKey;
+            keysRemaining--;
+            if (count <= goalForKey) {
+                sampleRates.put(key, 1);
+                extra += goalForKey - count;
+            } else {
+                final double rate = Math.ceil(count / goalForKey);
+                sampleRates.put(key, (int) Math.min(Integer.MAX_VALUE, rate));
+                extra += goalForKey - (count / rate);
+            }
+        }
+        return sampleRates;
+    }
+
+    /**
+     * Derives the key that spans are counted and sampled by.
+     */
+    @FunctionalInterface
+    public interface KeyExtractor {
+
+        /**
+         * @param name       of the span.
+         * @param spanKind   of the span.
+         * @param attributes of the span, as available when it starts.
+         * @return the key, or null to count the span under {@link #OVERFLOW_KEY}.
+         */
+        String key(String name, Kind spanKind, ReadableAttributes attributes);
+
+        /**
+         * @return an extractor that keys spans by their name.
+         */
+        static KeyExtractor spanName() {
+            return (name, spanKind, attributes) -> name;
+        }
+
+        /**
+         * @return an extractor that keys spans by their kind.
+         */
+        static KeyExtractor spanKind() {
+            return (name, spanKind, attributes) -> spanKind == null ? null : spanKind.name();
+        }
+
+        /**
+         * @param key of the attribute.
+         * @return an extractor that keys spans by the value of the given attribute, as a string.
+         */
+        static KeyExtractor attribute(final AttributeKey<?> key) {
+            Assert.notNull(key, "Attribute key must not be null");
+            return (name, spanKind, attributes) -> {
+                final Object value = attributes == null ? null : attributes.get(key);
+                return value == null ? null : value.toString();
+            };
+        }
+    }
+
+    public static class Builder {
+        private int goalSampleRate = 10;
+        private double weight = 0.5;
+        private long adjustmentIntervalMillis = 15_000;
+        private int maxKeys = 500;
+        private KeyExtractor keyExtractor = KeyExtractor.spanName();
+        private boolean parentBased;
+
+        private Builder() {
+        }
+
+        /**
+         * The sample rate to average out at across all keys.
+         * <p>
+         * Default: 10
+         *
+         * @param goalSampleRate to set, must be positive.
+         * @return this.
+         */
+        public Builder goalSampleRate(final int goalSampleRate) {
+            Assert.isTrue(goalSampleRate > 0, "Goal sample rate must be positive");
+            this.goalSampleRate = goalSampleRate;
+            return this;
+        }
+
+        /**
+         * How much the counts of the latest interval weigh in the moving average per key, between 0 (exclusive) and
+         * 1. A weight of 1 bases sample rates on the latest interval only.
+         * <p>
+         * Default: 0.5
+         *
+         * @param weight to set.
+         * @return this.
+         */
+        public Builder weight(final double weight) {
+            Assert.isTrue(weight > 0 && weight <= 1, "Weight must be greater than 0 and at most 1");
+            this.weight = weight;
+            return this;
+        }
+
+        /**
+         * How often sample rates are recomputed, in milliseconds. 0 disables adjustments, leaving all keys sampled
+         * at the goal sample rate.
+         * <p>
+         * Default: 15000
+         *
+         * @param adjustmentIntervalMillis to set, must not be negative.
+         * @return this.
+         */
+        public Builder adjustmentIntervalMillis(final long adjustmentIntervalMillis) {
+            Assert.isTrue(adjustmentIntervalMillis >= 0, "Adjustment interval must not be negative");
+            this.adjustmentIntervalMillis = adjustmentIntervalMillis;
+            return this;
+        }
+
+        /**
+         * The maximum number of keys to track, besides {@link #OVERFLOW_KEY}, which spans with further keys are
+         * counted under. A key stops being tracked once it has not been seen for a whole adjustment interval.
+         * <p>
+         * Default: 500
+         *
+         * @param maxKeys to set, must be positive.
+         * @return this.
+         */
+        public Builder maxKeys(final int maxKeys) {
+            Assert.isTrue(maxKeys > 0, "Max keys must be positive");
+            this.maxKeys = maxKeys;
+            return this;
+        }
+
+        /**
+         * How to derive the key of a span. See {@link KeyExtractor#spanName()}, {@link KeyExtractor#spanKind()} and
+         * {@link KeyExtractor#attribute(AttributeKey)}.
+         * <p>
+         * Default: the span name.
+         *
+         * @param keyExtractor to set.
+         * @return this.
+         */
+        public Builder keyExtractor(final KeyExtractor keyExtractor) {
+            Assert.notNull(keyExtractor, "Key extractor must not be null");
+            this.keyExtractor = keyExtractor;
+            return this;
+        }
+
+        /**
+         * Whether spans with a valid parent follow the parent's sampled flag, recording the goal sample rate, instead
+         * of being sampled by their own key. Only root spans are then counted and sampled per key.
+         * <p>
+         * Default: false
+         *
+         * @param parentBased to set.
+         * @return this.
+         */
+        public Builder parentBased(final boolean parentBased) {
+            this.parentBased = parentBased;
+            return this;
+        }
+
+        /**
+         * @return a new DynamicTraceSampler, which adjusts its sample rates until it is closed.
+         * @throws IllegalStateException if SHA-1 is not supported.
+         */
+        public DynamicTraceSampler build() {
+            return new DynamicTraceSampler(this);
+        }
+    }
+
+    private static final class Rate {
+        private final int sampleRate;
+        private final int upperBound;
+        private final SamplingResult sampled;
+
+        private Rate(final int sampleRate) {
+            this.sampleRate = sampleRate;
+            this.upperBound = TraceIdHash.upperBound(sampleRate);
+            this.sampled = DeterministicTraceSampler.newResult(sampleRate);
+        }
+    }
+
+    /**
+     * A single daemon thread, shared by all dynamic samplers, that recomputes sample rates.
+     */
+    private static final class Adjustments implements Runnable {
+        private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+        private final WeakReference<DynamicTraceSampler> sampler;
+        private volatile ScheduledFuture<?> future;
+
+        private Adjustments(final DynamicTraceSampler sampler) {
+            this.sampler = new WeakReference<>(sampler);
+        }
+
+        private static ScheduledFuture<?> schedule(final DynamicTraceSampler sampler, final long intervalMillis) {
+            final Adjustments adjustments = new Adjustments(sampler);
+            adjustments.future = SCHEDULER.scheduleAtFixedRate(adjustments, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+            return adjustments.future;
+        }
+
+        @Override
+        public void run() {
+            final DynamicTraceSampler current = sampler.get();
+            if (current != null) {
+                current.adjustRates();
+            } else if (future != null) {
+                // the sampler was collected without being closed
+                future.cancel(false);
+            }
+        }
+
+        private static ScheduledThreadPoolExecutor createScheduler() {
+            final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("honeycomb-sampler-adjustments")
+                .setDaemon(true)
+                .build());
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.honeycomb.libhoney.utils.Assert;
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.ReadableAttributes;
+import io.opentelemetry.sdk.trace.Sampler;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span.Kind;
+import io.opentelemetry.trace.SpanContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * This TraceSampler chooses a sample rate per span from an ordered list of rules, each matching on the span name,
+ * {@link Kind} and attributes, for example health checks at 1000, spans with an error attribute at 1, and checkout
+ * at 5. The first rule that matches sets the sample rate, and spans no rule matches are sampled at a default rate.
+ * Whether to sample is then decided deterministically from the trace id, as {@link DeterministicTraceSampler} does,
+ * and the rate is recorded in the {@code sample.rate} attribute.
+ * <p>
+ * Rules are compiled once, when they are set: span kinds into a bit mask, and name conditions, including regular
+ * expressions, are evaluated once per distinct span name, whose result is memoized, so that sampling a span only
+ * checks the kind and attributes of the rules its name can match. Up to {@code maxMemoizedNames} names are
+ * memoized; further names are matched without memoizing them. The rules can be replaced at runtime with
+ * {@link #setRules(List, int)}, which takes effect atomically.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+public class RulesTraceSampler implements Sampler {
+
+    public final static String DESCRIPTION = "HoneycombRulesSampler";
+
+    private static final int ANY_KIND = -1;
+    // the bit for spans without a kind, which only rules for any kind match
+    private static final int NO_KIND = 1 << 31;
+
+    private final int maxMemoizedNames;
+    private volatile RuleSet ruleSet;
+
+    private RulesTraceSampler(final Builder builder) {
+        this.maxMemoizedNames = builder.maxMemoizedNames;
+        this.ruleSet = new RuleSet(builder.rules, builder.defaultSampleRate, maxMemoizedNames);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public String getDescription() {
+        return DESCRIPTION;
+    }
+
+    @Override
+    public SamplingResult shouldSample(
+        SpanContext parentContext,
+        String traceId,
+        String name,
+        Kind spanKind,
+        ReadableAttributes attributes,
+        List<SpanData.Link> parentLinks) {
+
+        final DeterministicTraceSampler sampler = ruleSet.match(name, spanKind, attributes);
+        return sampler.createResult(sampler.sample(traceId));
+    }
+
+    /**
+     * Replaces the rules. Spans sampled after this returns use the new rules; spans being sampled concurrently use
+     * either the old or the new rules, never a mix of both.
+     *
+     * @param rules             to match spans against, in order.
+     * @param defaultSampleRate for spans no rule matches, must not be negative.
+     * @throws IllegalArgumentException if a rule is null or the default sample rate is negative.
+     */
+    public void setRules(final List<Rule> rules, final int defaultSampleRate) {
+        Assert.notNull(rules, "Rules must not be null");
+        Assert.isTrue(defaultSampleRate >= 0, "Sample rate must not be negative");
+        this.ruleSet = new RuleSet(rules, defaultSampleRate, maxMemoizedNames);
+    }
+
+    /**
+     * @param name       of the span.
+     * @param spanKind   of the span.
+     * @param attributes of the span.
+     * @return the sample rate the span would be sampled at.
+     */
+    int getSampleRate(final String name, final Kind spanKind, final ReadableAttributes attributes) {
+        return ruleSet.match(name, spanKind, attributes).getSampleRate();
+    }
+
+    /**
+     * The compiled form of a list of rules. Immutable, apart from the memoized name matches.
+     */
+    private static final class RuleSet {
+        private static final int[] NO_RULES = new int[0];
+
+        private final CompiledRule[] rules;
+        private final DeterministicTraceSampler defaultSampler;
+        private final int maxMemoizedNames;
+        private final ConcurrentHashMap<String, int[]> rulesByName = new ConcurrentHashMap<>();
+
+        private RuleSet(final List<Rule> rules, final int defaultSampleRate, final int maxMemoizedNames) {
+            this.rules = new CompiledRule[rules.size()];
+            for (int i = 0; i < this.rules.length; i++) {
+                final Rule rule = rules.get(i);
+                Assert.notNull(rule, "Rule must not be null");
+                this.rules[i] = new CompiledRule(rule);
+            }
+            this.defaultSampler = new DeterministicTraceSampler(defaultSampleRate);
+            this.maxMemoizedNames = maxMemoizedNames;
+        }
+
+        private DeterministicTraceSampler match(final String name, final Kind spanKind,
+                                                final ReadableAttributes attributes) {
+            final int kindBit = spanKind == null ? NO_KIND : 1 << spanKind.ordinal();
+            for (int index : rulesMatchingName(name == null ? "" : name)) {
+                final CompiledRule rule = rules[index];
+                if ((rule.kinds & kindBit) != 0 && rule.matchesAttributes(attributes)) {
+                    return rule.sampler;
+                }
+            }
+            return defaultSampler;
+        }
+
+        /**
+         * @return the indexes, in order, of the rules whose name condition the name satisfies.
+         */
+        private int[] rulesMatchingName(final String name) {
+            final int[] memoized = rulesByName.get(name);
+            if (memoized != null) {
+                return memoized;
+            }
+            final int[] candidates = new int[rules.length];
+            int count = 0;
+            for (int i = 0; i < rules.length; i++) {
+                if (rules[i].name.test(name)) {
+                    candidates[count++] = i;
+                }
+            }
+            final int[] matching = count == 0 ? NO_RULES : Arrays.copyOf(candidates, count);
+            if (rulesByName.size() < maxMemoizedNames) {
+                rulesByName.putIfAbsent(name, matching);
+            }
+            return matching;
+        }
+    }
+
+    private static final class CompiledRule {
+        private final Predicate<String> name;
+        // bit mask of the Kind ordinals the rule applies to, all bits set if it applies to any kind
+        private final int kinds;
+        private final AttributeKey<?>[] attributeKeys;
+        private final Object[] attributeValues;
+        private final DeterministicTraceSampler sampler;
+
+        private CompiledRule(final Rule rule) {
+            this.name = rule.name;
+            int kinds = 0;
+            for (Kind kind : rule.kinds) {
+                kinds |= 1 << kind.ordinal();
+            }
+            this.kinds = rule.kinds.isEmpty() ? ANY_KIND : kinds;
+            this.attributeKeys = rule.attributeKeys.toArray(new AttributeKey<?>[0]);
+            this.attributeValues = rule.attributeValues.toArray();
+            this.sampler = new DeterministicTraceSampler(rule.sampleRate);
+        }
+
+        private boolean matchesAttributes(final ReadableAttributes attributes) {
+            for (int i = 0; i < attributeKeys.length; i++) {
+                final Object value = attributes == null ? null : attributes.get(attributeKeys[i]);
+                if (value == null || (attributeValues[i] != null && !attributeValues[i].equals(value))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A condition on spans, and the sample rate for the spans that meet it. All of a rule's conditions must hold
+     * for it to match; a rule without conditions matches every span.
+     */
+    public static final class Rule {
+        private final Predicate<String> name;
+        private final List<Kind> kinds;
+        private final List<AttributeKey<?>> attributeKeys;
+        private final List<Object> attributeValues;
+        private final int sampleRate;
+
+        private Rule(final RuleBuilder builder) {
+            this.name = builder.name;
+            this.kinds = Collections.unmodifiableList(new ArrayList<>(builder.kinds));
+            this.attributeKeys = Collections.unmodifiableList(new ArrayList<>(builder.attributeKeys));
+            this.attributeValues = Collections.unmodifiableList(new ArrayList<>(builder.attributeValues));
+            this.sampleRate = builder.sampleRate;
+        }
+
+        /**
+         * @param sampleRate to sample matching spans at, 1 in sampleRate; must not be negative.
+         * @return a builder for a rule with the given sample rate.
+         */
+        public static RuleBuilder newBuilder(final int sampleRate) {
+            return new RuleBuilder(sampleRate);
+        }
+    }
+
+    public static class RuleBuilder {
+        private final int sampleRate;
+        private Predicate<String> name = spanName -> true;
+        private final List<Kind> kinds = new ArrayList<>();
+        private final List<AttributeKey<?>> attributeKeys = new ArrayList<>();
+        private final List<Object> attributeValues = new ArrayList<>();
+
+        private RuleBuilder(final int sampleRate) {
+            Assert.isTrue(sampleRate >= 0, "Sample rate must not be negative");
+            this.sampleRate = sampleRate;
+        }
+
+        /**
+         * Matches spans with exactly this name.
+         *
+         * @param spanName to match.
+         * @return this.
+         */
+        public RuleBuilder spanName(final String spanName) {
+            Assert.notNull(spanName, "Span name must not be null");
+            this.name = spanName::equals;
+            return this;
+        }
+
+        /**
+         * Matches spans whose name starts with this prefix.
+         *
+         * @param prefix to match.
+         * @return this.
+         */
+        public RuleBuilder spanNamePrefix(final String prefix) {
+            Assert.notNull(prefix, "Span name prefix must not be null");
+            this.name = spanName -> spanName.startsWith(prefix);
+            return this;
+        }
+
+        /**
+         * Matches spans whose whole name matches this regular expression. It is evaluated once per distinct span
+         * name, as long as names are memoized.
+         *
+         * @param regex to match.
+         * @return this.
+         * @throws java.util.regex.PatternSyntaxException if the expression is not valid.
+         */
+        public RuleBuilder spanNameMatches(final String regex) {
+            Assert.notNull(regex, "Span name pattern must not be null");
+            final Pattern pattern = Pattern.compile(regex);
+            this.name = spanName -> pattern.matcher(spanName).matches();
+            return this;
+        }
+
+        /**
+         * Matches spans of any of the given kinds. Calling this more than once adds kinds.
+         *
+         * @param spanKinds to match.
+         * @return this.
+         */
+        public RuleBuilder spanKind(final Kind... spanKinds) {
+            for (Kind kind : spanKinds) {
+                Assert.notNull(kind, "Span kind must not be null");
+                this.kinds.add(kind);
+            }
+            return this;
+        }
+
+        /**
+         * Matches spans that have the attribute, with any value.
+         *
+         * @param key of the attribute.
+         * @return this.
+         */
+        public RuleBuilder attributePresent(final AttributeKey<?> key) {
+            Assert.notNull(key, "Attribute key must not be null");
+            this.attributeKeys.add(key);
+            this.attributeValues.add(null);
+            return this;
+        }
+
+        /**
+         * Matches spans whose attribute has the given value, as available when the span starts.
+         *
+         * @param key   of the attribute.
+         * @param value to match.
+         * @param <T>   the type of the attribute.
+         * @return this.
+         */
+        public <T> RuleBuilder attributeEquals(final AttributeKey<T> key, final T value) {
+            Assert.notNull(key, "Attribute key must not be null");
+            Assert.notNull(value, "Attribute value must not be null");
+            this.attributeKeys.add(key);
+            this.attributeValues.add(value);
+            return this;
+        }
+
+        public Rule build() {
+            return new Rule(this);
+        }
+    }
+
+    public static class Builder {
+        private final List<Rule> rules = new ArrayList<>();
+        private int defaultSampleRate = 1;
+        private int maxMemoizedNames = 1_000;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a rule, to be matched after those added before it.
+         *
+         * @param rule to add.
+         * @return this.
+         */
+        public Builder addRule(final Rule rule) {
+            Assert.notNull(rule, "Rule must not be null");
+            this.rules.add(rule);
+            return this;
+        }
+
+        /**
+         * The sample rate for spans that no rule matches.
+         * <p>
+         * Default: 1
+         *
+         * @param defaultSampleRate to set, must not be negative.
+         * @return this.
+         */
+        public Builder defaultSampleRate(final int defaultSampleRate) {
+            Assert.isTrue(defaultSampleRate >= 0, "Sample rate must not be negative");
+            this.defaultSampleRate = defaultSampleRate;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct span names whose matching rules are memoized, per set of rules.
+         * <p>
+         * Default: 1000
+         *
+         * @param maxMemoizedNames to set, must not be negative.
+         * @return this.
+         */
+        public Builder maxMemoizedNames(final int maxMemoizedNames) {
+            Assert.isTrue(maxMemoizedNames >= 0, "Max memoized names must not be negative");
+            this.maxMemoizedNames = maxMemoizedNames;
+            return this;
+        }
+
+        /**
+         * @return a new RulesTraceSampler.
+         * @throws IllegalStateException if SHA-1 is not supported.
+         */
+        public RulesTraceSampler build() {
+            return new RulesTraceSampler(this);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.common.AttributeConsumer;
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.common.ReadableAttributes;
+import io.opentelemetry.sdk.common.InstrumentationLibraryInfo;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span.Kind;
+import io.opentelemetry.trace.TraceState;
+
+import java.util.List;
+
+/**
+ * A span that was kept by tail sampling at a sample rate, which is recorded in its {@code sample.rate} attribute. A
+ * rate the span was already sampled at, by head sampling, is multiplied by the tail sampling rate.
+ */
+final class SampledSpanData implements SpanData {
+
+    static final AttributeKey<Long> SAMPLE_RATE = AttributeKey.longKey("sample.rate");
+
+    private final SpanData delegate;
+    private final Attributes attributes;
+
+    SampledSpanData(final SpanData delegate, final int sampleRate) {
+        this.delegate = delegate;
+        final ReadableAttributes original = delegate.getAttributes();
+        final Long headSampleRate = original == null ? null : original.get(SAMPLE_RATE);
+        final Attributes.Builder builder = Attributes.newBuilder();
+        if (original != null) {
+            original.forEach(new AttributeConsumer() {
+                @Override
+                public <T> void consume(final AttributeKey<T> key, final T value) {
+                    if (!SAMPLE_RATE.getKey().equals(key.getKey())) {
+                        builder.setAttribute(key, value);
+                    }
+                }
+            });
+        }
+        builder.setAttribute(SAMPLE_RATE, headSampleRate == null ? sampleRate : headSampleRate * sampleRate);
+        this.attributes = builder.build();
+    }
+
+    @Override
+    public ReadableAttributes getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public String getTraceId() {
+        return delegate.getTraceId();
+    }
+
+    @Override
+    public String getSpanId() {
+        return delegate.getSpanId();
+    }
+
+    @Override
+    public boolean isSampled() {
+        return delegate.isSampled();
+    }
+
+    @Override
+    public TraceState getTraceState() {
+        return delegate.getTraceState();
+    }
+
+    @Override
+    public String getParentSpanId() {
+        return delegate.getParentSpanId();
+    }
+
+    @Override
+    public Resource getResource() {
+        return delegate.getResource();
+    }
+
+    @Override
+    public InstrumentationLibraryInfo getInstrumentationLibraryInfo() {
+        return delegate.getInstrumentationLibraryInfo();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public Kind getKind() {
+        return delegate.getKind();
+    }
+
+    @Override
+    public long getStartEpochNanos() {
+        return delegate.getStartEpochNanos();
+    }
+
+    @Override
+    public List<Event> getEvents() {
+        return delegate.getEvents();
+    }
+
+    @Override
+    public List<Link> getLinks() {
+        return delegate.getLinks();
+    }
+
+    @Override
+    public Status getStatus() {
+        return delegate.getStatus();
+    }
+
+    @Override
+    public long getEndEpochNanos() {
+        return delegate.getEndEpochNanos();
+    }
+
+    @Override
+    public boolean getHasRemoteParent() {
+        return delegate.getHasRemoteParent();
+    }
+
+    @Override
+    public boolean getHasEnded() {
+        return delegate.getHasEnded();
+    }
+
+    @Override
+    public int getTotalRecordedEvents() {
+        return delegate.getTotalRecordedEvents();
+    }
+
+    @Override
+    public int getTotalRecordedLinks() {
+        return delegate.getTotalRecordedLinks();
+    }
+
+    @Override
+    public int getTotalAttributeCount() {
+        return delegate.getTotalAttributeCount();
+    }
+}
@@ -0,0 +1,183 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.honeycomb.libhoney.utils.Assert;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts a sampler's decisions, sampled and dropped, per sample rate, and times a fraction of them. Pass an instance
+ * to {@link DeterministicTraceSampler.Builder#metrics(SamplerMetrics)}, and read it directly or through JMX, see
+ * {@link #register(String)}.
+ * <p>
+ * Recording a decision takes no locks: counters are striped {@link LongAdder}s, resolved per sample rate when the
+ * sampler is created rather than looked up per decision, and whether to time a decision is a thread-local random
+ * draw. Timing 1 in {@code timingSampleRate} decisions keeps the cost of reading the clock off most decisions.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared between samplers.
+ */
+public class SamplerMetrics implements SamplerMetricsMXBean {
+
+    /**
+     * The JMX domain metrics are registered under.
+     */
+    public static final String JMX_DOMAIN = "io.honeycomb.opentelemetry.samplers";
+
+    private final int timingMask;
+    private final ConcurrentHashMap<Integer, RateCounters> counters = new ConcurrentHashMap<>();
+    private final LongAdder timedDecisions = new LongAdder();
+    private final LongAdder timedNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private volatile ObjectName registeredName;
+
+    /**
+     * Times 1 in 1024 decisions.
+     */
+    public SamplerMetrics() {
+        this(1024);
+    }
+
+    /**
+     * @param timingSampleRate to time 1 in that many decisions, must be a power of two; 1 times every decision.
+     * @throws IllegalArgumentException if timingSampleRate is not a positive power of two.
+     */
+    public SamplerMetrics(final int timingSampleRate) {
+        Assert.isTrue(timingSampleRate > 0 && Integer.bitCount(timingSampleRate) == 1,
+            "Timing sample rate must be a positive power of two");
+        this.timingMask = timingSampleRate - 1;
+    }
+
+    @Override
+    public long getSampledDecisions() {
+        long sum = 0;
+        for (RateCounters rate : counters.values()) {
+            sum += rate.sampled.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getDroppedDecisions() {
+        long sum = 0;
+        for (RateCounters rate : counters.values()) {
+            sum += rate.dropped.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public Map<Integer, Long> getSampledDecisionsByRate() {
+        final Map<Integer, Long> byRate = new HashMap<>();
+        counters.forEach((rate, rateCounters) -> byRate.put(rate, rateCounters.sampled.sum()));
+        return byRate;
+    }
+
+    @Override
+    public Map<Integer, Long> getDroppedDecisionsByRate() {
+        final Map<Integer, Long> byRate = new HashMap<>();
+        counters.forEach((rate, rateCounters) -> byRate.put(rate, rateCounters.dropped.sum()));
+        return byRate;
+    }
+
+    @Override
+    public long getTimedDecisions() {
+        return timedDecisions.sum();
+    }
+
+    @Override
+    public double getMeanDecisionNanos() {
+        final long count = timedDecisions.sum();
+        return count == 0 ? 0 : (double) timedNanos.sum() / count;
+    }
+
+    @Override
+    public long getMaxDecisionNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, under the name
+     * {@code io.honeycomb.opentelemetry.samplers:type=SamplerMetrics,name=<name>}.
+     *
+     * @param name to tell these metrics apart from those of other samplers.
+     * @throws IllegalStateException if the metrics are already registered, or registration fails.
+     */
+    public void register(final String name) {
+        Assert.notNull(name, "Name must not be null");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName(
+                JMX_DOMAIN + ":type=SamplerMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            registeredName = objectName;
+        } catch (final InstanceAlreadyExistsException e) {
+            throw new IllegalStateException("Sampler metrics are already registered as " + name, e);
+        } catch (final JMException e) {
+            throw new IllegalStateException("Failed to register sampler metrics", e);
+        }
+    }
+
+    /**
+     * Unregisters these metrics from the platform MBean server, if they were registered.
+     */
+    public void unregister() {
+        final ObjectName name = registeredName;
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (final InstanceNotFoundException e) {
+            // already gone
+        } catch (final JMException e) {
+            throw new IllegalStateException("Failed to unregister sampler metrics", e);
+        }
+        registeredName = null;
+    }
+
+    /**
+     * @param sampleRate decisions are made at.
+     * @return the counters for decisions at the given rate, to be resolved once and kept by the sampler.
+     */
+    RateCounters forRate(final int sampleRate) {
+        return counters.computeIfAbsent(sampleRate, rate -> new RateCounters());
+    }
+
+    /**
+     * @return true if the caller should time its current decision.
+     */
+    boolean shouldTime() {
+        return timingMask == 0 || (ThreadLocalRandom.current().nextInt() & timingMask) == 0;
+    }
+
+    /**
+     * @param nanos a timed decision took.
+     */
+    void recordTime(final long nanos) {
+        timedDecisions.increment();
+        timedNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * The counters of decisions made at one sample rate.
+     */
+    static final class RateCounters {
+        private final LongAdder sampled = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        void record(final boolean isSampled) {
+            (isSampled ? sampled : dropped).increment();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link SamplerMetrics}.
+ */
+public interface SamplerMetricsMXBean {
+
+    /**
+     * @return the number of decisions to sample.
+     */
+    long getSampledDecisions();
+
+    /**
+     * @return the number of decisions to drop.
+     */
+    long getDroppedDecisions();
+
+    /**
+     * @return the number of decisions to sample, by the sample rate they were made at.
+     */
+    Map<Integer, Long> getSampledDecisionsByRate();
+
+    /**
+     * @return the number of decisions to drop, by the sample rate they were made at.
+     */
+    Map<Integer, Long> getDroppedDecisionsByRate();
+
+    /**
+     * @return the number of decisions that were timed.
+     */
+    long getTimedDecisions();
+
+    /**
+     * @return the mean time taken by the timed decisions, in nanoseconds, or 0 if none were timed.
+     */
+    double getMeanDecisionNanos();
+
+    /**
+     * @return the longest time taken by a timed decision, in nanoseconds.
+     */
+    long getMaxDecisionNanos();
+}
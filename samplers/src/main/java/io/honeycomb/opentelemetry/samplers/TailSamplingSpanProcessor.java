@@ -0,0 +1,453 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.honeycomb.libhoney.utils.Assert;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.trace.SpanId;
+import io.opentelemetry.trace.StatusCanonicalCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This SpanProcessor decides whether to keep a trace once it has ended, rather than when it starts, so that it can
+ * keep, for example, all traces with errors and 1 in 100 of the others. It should be paired with a sampler that
+ * records every span, such as a {@link DeterministicTraceSampler} with a rate of 1.
+ * <p>
+ * Ended spans are buffered per trace. A trace is decided once its local root span, the span without a parent or
+ * with a remote one, has ended, or once it has been buffered for the decision wait. The {@link Rule rules} are
+ * asked in order, and the first to decide sets the sample rate the trace is kept at; traces no rule decides on are
+ * dropped. The spans of kept traces are passed to the exporter, typically a {@code HoneycombSpanExporter}, with the
+ * sample rate in their {@code sample.rate} attribute. Spans that end after their trace was decided are buffered as
+ * a new trace.
+ * <p>
+ * The buffer is split into segments, each locked separately and keyed by the two longs of the trace id, and holds
+ * at most {@code maxBufferedSpans} spans and about {@code maxBufferedTraces} traces. When it is full, the oldest
+ * trace of the segment the span belongs to is evicted, without a decision; see {@link #getEvictedTraces()} and
+ * {@link #getEvictedSpans()}. Decisions and exports happen on a background thread, not on the threads ending spans.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+public class TailSamplingSpanProcessor implements SpanProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TailSamplingSpanProcessor.class);
+
+    private static final int SEGMENTS = 16;
+    private static final int SEGMENT_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(SEGMENTS);
+
+    private final SpanExporter exporter;
+    private final List<Rule> rules;
+    private final long decisionWaitNanos;
+    private final int maxBufferedSpans;
+    private final LongSupplier nanoClock;
+    private final TraceBuffer[] segments = new TraceBuffer[SEGMENTS];
+    private final Queue<TraceBuffer.Trace> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedSpans = new AtomicInteger();
+    private final LongAdder evictedTraces = new LongAdder();
+    private final LongAdder evictedSpans = new LongAdder();
+    private final LongAdder keptTraces = new LongAdder();
+    private final LongAdder droppedTraces = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+
+    TailSamplingSpanProcessor(final Builder builder, final LongSupplier nanoClock) {
+        this.exporter = builder.exporter;
+        this.rules = Collections.unmodifiableList(new ArrayList<>(builder.rules));
+        this.decisionWaitNanos = TimeUnit.MILLISECONDS.toNanos(builder.decisionWaitMillis);
+        this.maxBufferedSpans = builder.maxBufferedSpans;
+        this.nanoClock = nanoClock;
+        final int tracesPerSegment = Math.max(1, (builder.maxBufferedTraces + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new TraceBuffer(tracesPerSegment);
+        }
+        if (builder.sweepIntervalMillis == 0) {
+            this.scheduler = null;
+        } else {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("honeycomb-tail-sampling")
+                .setDaemon(true)
+                .build());
+            this.scheduler.scheduleWithFixedDelay(this::sweep, builder.sweepIntervalMillis,
+                builder.sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static Builder newBuilder(final SpanExporter exporter) {
+        return new Builder(exporter);
+    }
+
+    @Override
+    public void onStart(final ReadWriteSpan span) {
+        // nothing to do until the span ends
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(final ReadableSpan readableSpan) {
+        if (shutdown.get()) {
+            return;
+        }
+        final SpanData span = readableSpan.toSpanData();
+        final String traceId = span.getTraceId();
+        final long high = parseHex(traceId, 0);
+        final long low = parseHex(traceId, 16);
+        final TraceBuffer segment = segments[(int) (TraceBuffer.mix(high, low) >>> SEGMENT_SHIFT)];
+        final boolean localRoot = !SpanId.isValid(span.getParentSpanId()) || span.getHasRemoteParent();
+
+        synchronized (segment) {
+            TraceBuffer.Trace trace = segment.get(high, low);
+            if (trace == null) {
+                if (segment.isFull()) {
+                    evict(segment, segment.oldest());
+                }
+                trace = segment.add(high, low, traceId, nanoClock.getAsLong());
+            }
+            // make room among the older traces of this segment, or give up on this span
+            while (bufferedSpans.get() >= maxBufferedSpans && segment.oldest() != trace) {
+                evict(segment, segment.oldest());
+            }
+            if (bufferedSpans.incrementAndGet() > maxBufferedSpans) {
+                bufferedSpans.decrementAndGet();
+                evictedSpans.increment();
+                if (trace.spanCount() == 0) {
+                    segment.remove(trace);
+                }
+                return;
+            }
+            trace.add(span);
+            if (localRoot) {
+                segment.remove(trace);
+                completed.add(trace);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    /**
+     * Decides all buffered traces straight away, whether or not they have completed, and flushes the exporter.
+     *
+     * @return the result of flushing the exporter.
+     */
+    @Override
+    public CompletableResultCode forceFlush() {
+        decide(true);
+        return exporter.flush();
+    }
+
+    /**
+     * Stops buffering spans, decides all buffered traces and shuts the exporter down. Calling this more than once
+     * has no further effect.
+     *
+     * @return the result of shutting down the exporter.
+     */
+    @Override
+    public CompletableResultCode shutdown() {
+        if (!shutdown.compareAndSet(false, true)) {
+            return CompletableResultCode.ofSuccess();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        decide(true);
+        return exporter.shutdown();
+    }
+
+    /**
+     * @return the number of spans currently buffered, including those of traces waiting for a decision.
+     */
+    public int getBufferedSpans() {
+        return bufferedSpans.get();
+    }
+
+    /**
+     * @return the number of traces evicted, without a decision, to stay within the buffer's limits.
+     */
+    public long getEvictedTraces() {
+        return evictedTraces.sum();
+    }
+
+    /**
+     * @return the number of spans lost to eviction, including those of evicted traces.
+     */
+    public long getEvictedSpans() {
+        return evictedSpans.sum();
+    }
+
+    /**
+     * @return the number of traces kept and exported.
+     */
+    public long getKeptTraces() {
+        return keptTraces.sum();
+    }
+
+    /**
+     * @return the number of traces dropped by the rules.
+     */
+    public long getDroppedTraces() {
+        return droppedTraces.sum();
+    }
+
+    /**
+     * Decides the traces that have completed or waited for too long. This runs on the sweep interval, and can be
+     * called directly by tests.
+     */
+    void sweep() {
+        try {
+            decide(false);
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to decide buffered traces", e);
+        }
+    }
+
+    private synchronized void decide(final boolean all) {
+        final List<TraceBuffer.Trace> traces = new ArrayList<>();
+        TraceBuffer.Trace trace;
+        while ((trace = completed.poll()) != null) {
+            traces.add(trace);
+        }
+        final long deadline = nanoClock.getAsLong() - decisionWaitNanos;
+        for (TraceBuffer segment : segments) {
+            synchronized (segment) {
+                while ((trace = segment.oldest()) != null && (all || trace.firstSeenNanos - deadline <= 0)) {
+                    segment.remove(trace);
+                    traces.add(trace);
+                }
+            }
+        }
+        if (traces.isEmpty()) {
+            return;
+        }
+
+        final List<SpanData> kept = new ArrayList<>();
+        for (TraceBuffer.Trace decided : traces) {
+            final int sampleRate = sampleRate(decided);
+            bufferedSpans.addAndGet(-decided.spanCount());
+            if (sampleRate > 0) {
+                keptTraces.increment();
+                for (SpanData span : decided.spans()) {
+                    kept.add(sampleRate == 1 ? span : new SampledSpanData(span, sampleRate));
+                }
+            } else {
+                droppedTraces.increment();
+            }
+        }
+        if (!kept.isEmpty()) {
+            exporter.export(kept);
+        }
+    }
+
+    private int sampleRate(final TraceBuffer.Trace trace) {
+        final List<SpanData> spans = trace.spans();
+        for (Rule rule : rules) {
+            final int sampleRate;
+            try {
+                sampleRate = rule.sampleRate(trace.traceId, spans);
+            } catch (final RuntimeException e) {
+                LOG.warn("Tail sampling rule failed for trace {}", trace.traceId, e);
+                continue;
+            }
+            if (sampleRate != Rule.NO_DECISION) {
+                return sampleRate;
+            }
+        }
+        return 0;
+    }
+
+    private void evict(final TraceBuffer segment, final TraceBuffer.Trace trace) {
+        segment.remove(trace);
+        bufferedSpans.addAndGet(-trace.spanCount());
+        evictedTraces.increment();
+        evictedSpans.add(trace.spanCount());
+    }
+
+    /**
+     * @return the 16 hex digits of the trace id from the given offset, as a long; characters that are not hex
+     * digits, or missing from a short id, are read as 0.
+     */
+    static long parseHex(final String traceId, final int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 16; i++) {
+            final int digit = i < traceId.length() ? Character.digit(traceId.charAt(i), 16) : 0;
+            value = value << 4 | Math.max(0, digit);
+        }
+        return value;
+    }
+
+    /**
+     * Decides on the sample rate of a trace from its buffered spans.
+     */
+    @FunctionalInterface
+    public interface Rule {
+
+        /**
+         * The result of a rule that leaves the decision to the rules after it.
+         */
+        int NO_DECISION = -1;
+
+        /**
+         * @param traceId of the trace.
+         * @param spans   of the trace that have ended, in the order they ended.
+         * @return the sample rate to keep the trace at, 0 to drop it, or {@link #NO_DECISION}.
+         */
+        int sampleRate(String traceId, List<SpanData> spans);
+
+        /**
+         * @return a rule that keeps every trace with a span whose status is an error.
+         */
+        static Rule keepErrors() {
+            return (traceId, spans) -> {
+                for (SpanData span : spans) {
+                    if (span.getStatus() != null && span.getStatus().getCanonicalCode() == StatusCanonicalCode.ERROR) {
+                        return 1;
+                    }
+                }
+                return NO_DECISION;
+            };
+        }
+
+        /**
+         * @param durationMillis at least which a span must last.
+         * @return a rule that keeps every trace with a span that lasted at least the given duration.
+         */
+        static Rule keepSlowerThan(final long durationMillis) {
+            final long durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            return (traceId, spans) -> {
+                for (SpanData span : spans) {
+                    if (span.getEndEpochNanos() - span.getStartEpochNanos() >= durationNanos) {
+                        return 1;
+                    }
+                }
+                return NO_DECISION;
+            };
+        }
+
+        /**
+         * @param sampleRate to keep 1 in, must not be negative.
+         * @return a rule that decides every trace deterministically by its id, as {@link DeterministicTraceSampler}
+         * does.
+         */
+        static Rule deterministic(final int sampleRate) {
+            final DeterministicTraceSampler sampler = new DeterministicTraceSampler(sampleRate);
+            return (traceId, spans) -> sampler.sample(traceId);
+        }
+    }
+
+    public static class Builder {
+        private final SpanExporter exporter;
+        private final List<Rule> rules = new ArrayList<>();
+        private long decisionWaitMillis = 30_000;
+        private int maxBufferedSpans = 100_000;
+        private int maxBufferedTraces = 10_000;
+        private long sweepIntervalMillis = 1_000;
+
+        private Builder(final SpanExporter exporter) {
+            Assert.notNull(exporter, "Exporter must not be null");
+            this.exporter = exporter;
+        }
+
+        /**
+         * Adds a rule, to be asked after those added before it.
+         *
+         * @param rule to add.
+         * @return this.
+         */
+        public Builder addRule(final Rule rule) {
+            Assert.notNull(rule, "Rule must not be null");
+            this.rules.add(rule);
+            return this;
+        }
+
+        /**
+         * How long to wait, from the first span of a trace ending, for its local root span to end before deciding
+         * the trace anyway.
+         * <p>
+         * Default: 30000
+         *
+         * @param decisionWaitMillis to set, must not be negative.
+         * @return this.
+         */
+        public Builder decisionWaitMillis(final long decisionWaitMillis) {
+            Assert.isTrue(decisionWaitMillis >= 0, "Decision wait must not be negative");
+            this.decisionWaitMillis = decisionWaitMillis;
+            return this;
+        }
+
+        /**
+         * The maximum number of spans to buffer, which is a hard limit.
+         * <p>
+         * Default: 100000
+         *
+         * @param maxBufferedSpans to set, must be positive.
+         * @return this.
+         */
+        public Builder maxBufferedSpans(final int maxBufferedSpans) {
+            Assert.isTrue(maxBufferedSpans > 0, "Max buffered spans must be positive");
+            this.maxBufferedSpans = maxBufferedSpans;
+            return this;
+        }
+
+        /**
+         * The maximum number of traces to buffer. The limit is spread evenly over the buffer's segments, so it is
+         * rounded up to a multiple of the number of segments, and traces may be evicted from a full segment before
+         * the limit is reached overall.
+         * <p>
+         * Default: 10000
+         *
+         * @param maxBufferedTraces to set, must be positive.
+         * @return this.
+         */
+        public Builder maxBufferedTraces(final int maxBufferedTraces) {
+            Assert.isTrue(maxBufferedTraces > 0, "Max buffered traces must be positive");
+            this.maxBufferedTraces = maxBufferedTraces;
+            return this;
+        }
+
+        /**
+         * How often completed and timed out traces are decided and exported, in milliseconds. 0 disables the
+         * background thread, leaving traces to be decided on {@link #forceFlush()} and {@link #shutdown()}.
+         * <p>
+         * Default: 1000
+         *
+         * @param sweepIntervalMillis to set, must not be negative.
+         * @return this.
+         */
+        public Builder sweepIntervalMillis(final long sweepIntervalMillis) {
+            Assert.isTrue(sweepIntervalMillis >= 0, "Sweep interval must not be negative");
+            this.sweepIntervalMillis = sweepIntervalMillis;
+            return this;
+        }
+
+        /**
+         * @return a new TailSamplingSpanProcessor, which decides traces on a background thread until it is shut
+         * down.
+         */
+        public TailSamplingSpanProcessor build() {
+            return new TailSamplingSpanProcessor(this, System::nanoTime);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.honeycomb.libhoney.utils.Assert;
+import io.opentelemetry.common.ReadableAttributes;
+import io.opentelemetry.sdk.trace.Sampler;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span.Kind;
+import io.opentelemetry.trace.SpanContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This TraceSampler adjusts its sample rate so that the number of sampled spans stays close to a budget of events
+ * per second, however much traffic varies.
+ * <p>
+ * Time is divided into epochs, each with a fixed sample rate. Within an epoch, whether to sample is decided
+ * deterministically from the trace id, as {@link DeterministicTraceSampler} does, and the sample rate is recorded in
+ * the {@code sample.rate} attribute. At the end of an epoch the spans seen during it are folded into an exponentially
+ * weighted moving average of the incoming throughput, and the next epoch samples at
+ * {@code throughput / eventsPerSecond}, rounded up so that the expected number of sampled spans stays within the
+ * budget.
+ * <p>
+ * Each epoch also holds a bucket of {@code eventsPerSecond * epoch} tokens, one of which is taken by every sampled
+ * span. If traffic surges and the bucket runs dry, the epoch ends early and the rate is re-estimated straight away,
+ * rather than overshooting the budget for the rest of the epoch. The first epoch samples everything.
+ * <p>
+ * Epochs roll over on the sampling threads themselves, without locks or a background thread.
+ *
+ * <h1>Thread-safety</h1> Instances of this class are thread-safe and can be shared.
+ */
+public class ThroughputTraceSampler implements Sampler {
+
+    public final static String DESCRIPTION = "HoneycombThroughputSampler";
+
+    private static final SamplingResult DROPPED = DeterministicTraceSampler.newResult(0);
+    // lower bound for the length of an epoch that ended early, so that a burst does not divide by ~0
+    private static final long MIN_EPOCH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // how far above a multiple of the budget the throughput may be and still be sampled at that multiple, so that a
+    // moving average still converging on steady traffic does not tip the rate over; at most 1% over budget
+    private static final double RATE_SLACK = 0.01;
+
+    private final double eventsPerSecond;
+    private final long epochNanos;
+    private final double weight;
+    private final LongSupplier nanoClock;
+    private final AtomicReference<Epoch> epoch;
+
+    ThroughputTraceSampler(final Builder builder, final LongSupplier nanoClock) {
+        this.eventsPerSecond = builder.eventsPerSecond;
+        this.epochNanos = TimeUnit.MILLISECONDS.toNanos(builder.epochMillis);
+        this.weight = builder.weight;
+        this.nanoClock = nanoClock;
+        TraceIdHash.newSha1(); // quick check that SHA-1 is available
+        this.epoch = new AtomicReference<>(new Epoch(nanoClock.getAsLong(), 1, Double.NaN));
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public String getDescription() {
+        return DESCRIPTION;
+    }
+
+    @Override
+    public SamplingResult shouldSample(
+        SpanContext parentContext,
+        String traceId,
+        String name,
+        Kind spanKind,
+        ReadableAttributes attributes,
+        List<SpanData.Link> parentLinks) {
+
+        final Epoch current = currentEpoch();
+        current.seen.increment();
+        if (current.sampleRate != 1 && !TraceIdHash.current().isSampled(traceId, current.upperBound)) {
+            return DROPPED;
+        }
+        if (current.tokens.decrementAndGet() == 0) {
+            roll(current, nanoClock.getAsLong());
+        }
+        return current.sampled;
+    }
+
+    /**
+     * @return the sample rate of the current epoch.
+     */
+    int getSampleRate() {
+        return currentEpoch().sampleRate;
+    }
+
+    private Epoch currentEpoch() {
+        final Epoch current = epoch.get();
+        final long now = nanoClock.getAsLong();
+        if (now - current.startNanos < epochNanos) {
+            return current;
+        }
+        roll(current, now);
+        return epoch.get();
+    }
+
+    /**
+     * Replaces the given epoch by the next one, unless another thread already has. Spans counted against the old
+     * epoch while it is being replaced are not carried over, which only makes the estimate slightly low.
+     */
+    private void roll(final Epoch current, final long now) {
+        final long elapsed = Math.max(MIN_EPOCH_NANOS, now - current.startNanos);
+        final double observed = current.seen.sum() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        final double throughput = Double.isNaN(current.throughput)
+            ? observed
+            : weight * observed + (1 - weight) * current.throughput;
+        // rounded up, as the token bucket does not cap the sampled spans: it only ends an epoch early, and a rate
+        // rounded down would let e.g. 1.4 times the budget through, epoch after epoch
+        final double rate = Math.ceil(throughput / eventsPerSecond - RATE_SLACK);
+        final int sampleRate = (int) Math.max(1, Math.min(Integer.MAX_VALUE, rate));
+        epoch.compareAndSet(current, new Epoch(now, sampleRate, throughput));
+    }
+
+    private final class Epoch {
+        private final long startNanos;
+        private final int sampleRate;
+        private final int upperBound;
+        private final SamplingResult sampled;
+        // moving average of the throughput before this epoch, in spans per second, NaN for the first epoch
+        private final double throughput;
+        private final LongAdder seen = new LongAdder();
+        private final AtomicLong tokens;
+
+        private Epoch(final long startNanos, final int sampleRate, final double throughput) {
+            this.startNanos = startNanos;
+            this.sampleRate = sampleRate;
+            this.upperBound = TraceIdHash.upperBound(sampleRate);
+            this.sampled = DeterministicTraceSampler.newResult(sampleRate);
+            this.throughput = throughput;
+            this.tokens = new AtomicLong((long) Math.max(1, Math.ceil(
+                eventsPerSecond * epochNanos / TimeUnit.SECONDS.toNanos(1))));
+        }
+    }
+
+    public static class Builder {
+        private double eventsPerSecond;
+        private long epochMillis = 1_000;
+        private double weight = 0.5;
+
+        private Builder() {
+        }
+
+        /**
+         * The budget of sampled spans per second. Required.
+         *
+         * @param eventsPerSecond to set, must be positive.
+         * @return this.
+         */
+        public Builder eventsPerSecond(final double eventsPerSecond) {
+            Assert.isTrue(eventsPerSecond > 0, "Events per second must be positive");
+            this.eventsPerSecond = eventsPerSecond;
+            return this;
+        }
+
+        /**
+         * How long each sample rate is used for, in milliseconds, unless the epoch's budget runs out first.
+         * <p>
+         * Default: 1000
+         *
+         * @param epochMillis to set, must be positive.
+         * @return this.
+         */
+        public Builder epochMillis(final long epochMillis) {
+            Assert.isTrue(epochMillis > 0, "Epoch must be positive");
+            this.epochMillis = epochMillis;
+            return this;
+        }
+
+        /**
+         * How much the throughput of the latest epoch weighs in the moving average, between 0 (exclusive) and 1. A
+         * weight of 1 bases the sample rate on the latest epoch only.
+         * <p>
+         * Default: 0.5
+         *
+         * @param weight to set.
+         * @return this.
+         */
+        public Builder weight(final double weight) {
+            Assert.isTrue(weight > 0 && weight <= 1, "Weight must be greater than 0 and at most 1");
+            this.weight = weight;
+            return this;
+        }
+
+        /**
+         * @return a new ThroughputTraceSampler.
+         * @throws IllegalStateException if events per second is not set, or SHA-1 is not supported.
+         */
+        public ThroughputTraceSampler build() {
+            Assert.state(eventsPerSecond > 0, "Events per second must be set");
+            return new ThroughputTraceSampler(this, System::nanoTime);
+        }
+    }
+}
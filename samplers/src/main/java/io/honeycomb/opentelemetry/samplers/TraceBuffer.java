@@ -0,0 +1,196 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.sdk.trace.data.SpanData;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One segment of the {@link TailSamplingSpanProcessor}'s buffer: the spans of up to {@code maxTraces} traces, keyed
+ * by the two longs of their trace id in an open addressing table, rather than by string in a map of lists. Traces
+ * are also linked in the order they were first seen, so that the oldest can be found without scanning the table.
+ *
+ * <h1>Thread-safety</h1> Instances are not thread-safe; the processor synchronizes on each segment.
+ */
+final class TraceBuffer {
+
+    private final int maxTraces;
+    private final int mask;
+    private final long[] highs;
+    private final long[] lows;
+    private final Trace[] traces;
+    private int size;
+    // insertion order, oldest first
+    private Trace oldest;
+    private Trace newest;
+
+    /**
+     * @param maxTraces to buffer at most, must be positive.
+     */
+    TraceBuffer(final int maxTraces) {
+        this.maxTraces = maxTraces;
+        // at most half full, so that probe sequences stay short
+        final int capacity = Integer.highestOneBit(Math.max(2, maxTraces) * 2 - 1) << 1;
+        this.mask = capacity - 1;
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.traces = new Trace[capacity];
+    }
+
+    /**
+     * @return the buffered trace with the given id, or null.
+     */
+    Trace get(final long high, final long low) {
+        final int slot = slot(high, low);
+        return slot < 0 ? null : traces[slot];
+    }
+
+    /**
+     * Adds an empty trace, which must not be buffered yet. The caller must make room first if the buffer is full.
+     *
+     * @return the new trace.
+     */
+    Trace add(final long high, final long low, final String traceId, final long nowNanos) {
+        final int slot = ~slot(high, low);
+        final Trace trace = new Trace(high, low, traceId, nowNanos);
+        highs[slot] = high;
+        lows[slot] = low;
+        traces[slot] = trace;
+        size++;
+        if (newest == null) {
+            oldest = trace;
+        } else {
+            newest.next = trace;
+            trace.previous = newest;
+        }
+        newest = trace;
+        return trace;
+    }
+
+    /**
+     * Removes a buffered trace.
+     */
+    void remove(final Trace trace) {
+        int slot = slot(trace.high, trace.low);
+        if (slot < 0) {
+            return;
+        }
+        unlink(trace);
+        size--;
+        // shift back the entries that follow in the probe sequence, rather than leaving a tombstone
+        traces[slot] = null;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (traces[next] == null) {
+                return;
+            }
+            final int home = home(highs[next], lows[next]);
+            final boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!stays) {
+                highs[slot] = highs[next];
+                lows[slot] = lows[next];
+                traces[slot] = traces[next];
+                traces[next] = null;
+                slot = next;
+            }
+        }
+    }
+
+    /**
+     * @return the trace that was added first of those still buffered, or null if the buffer is empty.
+     */
+    Trace oldest() {
+        return oldest;
+    }
+
+    boolean isFull() {
+        return size >= maxTraces;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void unlink(final Trace trace) {
+        if (trace.previous == null) {
+            oldest = trace.next;
+        } else {
+            trace.previous.next = trace.next;
+        }
+        if (trace.next == null) {
+            newest = trace.previous;
+        } else {
+            trace.next.previous = trace.previous;
+        }
+        trace.previous = null;
+        trace.next = null;
+    }
+
+    /**
+     * @return the slot holding the trace, or the bitwise complement of the free slot it would go in.
+     */
+    private int slot(final long high, final long low) {
+        int slot = home(high, low);
+        while (traces[slot] != null) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    private int home(final long high, final long low) {
+        return (int) mix(high, low) & mask;
+    }
+
+    /**
+     * @return a hash of both halves of a trace id, whose high and low bits are both well spread.
+     */
+    static long mix(final long high, final long low) {
+        long mixed = high * 0x9E3779B97F4A7C15L + low;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xff51afd7ed558ccdL;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return mixed ^ (mixed >>> 33);
+    }
+
+    /**
+     * The spans buffered for one trace.
+     */
+    static final class Trace {
+        private static final int INITIAL_CAPACITY = 4;
+
+        final long high;
+        final long low;
+        final String traceId;
+        final long firstSeenNanos;
+        private SpanData[] spans = new SpanData[INITIAL_CAPACITY];
+        private int spanCount;
+        private Trace previous;
+        private Trace next;
+
+        private Trace(final long high, final long low, final String traceId, final long firstSeenNanos) {
+            this.high = high;
+            this.low = low;
+            this.traceId = traceId;
+            this.firstSeenNanos = firstSeenNanos;
+        }
+
+        void add(final SpanData span) {
+            if (spanCount == spans.length) {
+                spans = Arrays.copyOf(spans, spanCount * 2);
+            }
+            spans[spanCount++] = span;
+        }
+
+        int spanCount() {
+            return spanCount;
+        }
+
+        List<SpanData> spans() {
+            return Collections.unmodifiableList(Arrays.asList(spans).subList(0, spanCount));
+        }
+    }
+}
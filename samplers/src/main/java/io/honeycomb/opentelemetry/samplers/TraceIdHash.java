@@ -0,0 +1,139 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes trace ids the way the Beeline deterministic samplers do: the first 4 bytes, big-endian, of the SHA-1 digest
+ * of the UTF-8 encoded trace id, compared unsigned against {@code 0xffffffff / sampleRate}.
+ * <p>
+ * Each thread has its own digest and buffers, so that hashing neither looks up the algorithm nor allocates. Trace ids
+ * are normally hex strings, which are encoded into the reused input buffer; any other id is encoded with
+ * {@link String#getBytes}, which gives the same UTF-8 bytes.
+ *
+ * <p>
+ * {@link #isSampledMurmur3(String, int)} is a cheaper alternative, which is not compatible with the Beelines.
+ *
+ * <h1>Thread-safety</h1> Instances are confined to the thread they were obtained on, see {@link #current()}.
+ */
+final class TraceIdHash {
+
+    private static final int MAX_U_INT = 0xffffffff;
+    private static final int MAX_ENCODED_LENGTH = 256;
+    private static final ThreadLocal<TraceIdHash> CURRENT = ThreadLocal.withInitial(TraceIdHash::new);
+
+    private final MessageDigest sha = newSha1();
+    private final byte[] input = new byte[MAX_ENCODED_LENGTH];
+    private final byte[] digest = new byte[sha.getDigestLength()];
+
+    private TraceIdHash() {
+    }
+
+    /**
+     * @return the instance for the current thread, which must not be shared with other threads.
+     */
+    static TraceIdHash current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param sampleRate to sample 1 in.
+     * @return the upper bound that the hash of a trace id to be sampled at this rate must not exceed.
+     */
+    static int upperBound(final int sampleRate) {
+        return sampleRate == 0 ? 0 : Integer.divideUnsigned(MAX_U_INT, sampleRate);
+    }
+
+    /**
+     * @throws IllegalStateException if SHA-1 is not supported.
+     */
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) { // very unlikely to happen!
+            throw new IllegalStateException("Failed to load SHA-1 algorithm", e);
+        }
+    }
+
+    /**
+     * @param traceId    to hash.
+     * @param upperBound as returned by {@link #upperBound(int)}.
+     * @return true if the trace is to be sampled.
+     */
+    boolean isSampled(final String traceId, final int upperBound) {
+        return Integer.compareUnsigned(first4Bytes(traceId), upperBound) <= 0;
+    }
+
+    /**
+     * Hashes the trace id with 32-bit Murmur3, seed 0, over its UTF-16 chars, two per block, as Guava's
+     * {@code Hashing.murmur3_32().hashUnencodedChars} does. It neither allocates nor needs per-thread state, but is
+     * not what the Beelines hash.
+     *
+     * @param traceId    to hash.
+     * @param upperBound as returned by {@link #upperBound(int)}.
+     * @return true if the trace is to be sampled.
+     */
+    static boolean isSampledMurmur3(final String traceId, final int upperBound) {
+        return Integer.compareUnsigned(murmur3(traceId), upperBound) <= 0;
+    }
+
+    static int murmur3(final String traceId) {
+        final int length = traceId.length();
+        int hash = 0;
+        for (int i = 1; i < length; i += 2) {
+            hash ^= mixMurmur3Block(traceId.charAt(i - 1) | (traceId.charAt(i) << 16));
+            hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+        }
+        if ((length & 1) == 1) {
+            hash ^= mixMurmur3Block(traceId.charAt(length - 1));
+        }
+        hash ^= length * Character.BYTES;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int mixMurmur3Block(final int block) {
+        return Integer.rotateLeft(block * 0xcc9e2d51, 15) * 0x1b873593;
+    }
+
+    /**
+     * @return the first 4 bytes, big-endian, of the SHA-1 digest of the UTF-8 encoded trace id.
+     */
+    int first4Bytes(final String traceId) {
+        final int length = encodeAscii(traceId);
+        if (length < 0) {
+            sha.update(traceId.getBytes(StandardCharsets.UTF_8));
+        } else {
+            sha.update(input, 0, length);
+        }
+        try {
+            sha.digest(digest, 0, digest.length);
+        } catch (final DigestException e) { // cannot happen, the buffer fits the digest
+            throw new IllegalStateException("Failed to compute SHA-1 digest", e);
+        }
+        return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+    }
+
+    /**
+     * @return the number of bytes written to the input buffer, or -1 if the trace id is too long or not ASCII.
+     */
+    private int encodeAscii(final String traceId) {
+        final int length = traceId.length();
+        if (length > input.length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = traceId.charAt(i);
+            if (c >= 0x80) {
+                return -1;
+            }
+            input[i] = (byte) c;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,102 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.trace.Span;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards that a sampling decision does not allocate on the sampling thread, as the sampler runs on every span start.
+ */
+public class DeterministicTraceSamplerAllocationTest {
+
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int MEASURED_ROUNDS = 100_000;
+
+    @Test
+    public void sampleDoesNotAllocate() {
+        final com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null, "thread allocation measurement not supported by this JVM");
+
+        final String[] traceIds = new String[64];
+        for (int i = 0; i < traceIds.length; i++) {
+            traceIds[i] = UUID.randomUUID().toString().replace("-", "");
+        }
+
+        for (DeterministicTraceSampler.HashAlgorithm algorithm : DeterministicTraceSampler.HashAlgorithm.values()) {
+            final DeterministicTraceSampler sampler = new DeterministicTraceSampler(10, algorithm);
+            int sampled = 0;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                sampled += sampler.sample(traceIds[i & 63]);
+            }
+
+            final long threadId = Thread.currentThread().getId();
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                sampled += sampler.sample(traceIds[i & 63]);
+            }
+            final long after = threads.getThreadAllocatedBytes(threadId);
+
+            final long bytesPerDecision = (after - before) / MEASURED_ROUNDS;
+            assertEquals(0, bytesPerDecision, algorithm + " allocated " + (after - before) + " bytes for "
+                + MEASURED_ROUNDS + " decisions (" + sampled + ")");
+        }
+    }
+
+    @Test
+    public void shouldSampleDoesNotAllocate() {
+        final com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null, "thread allocation measurement not supported by this JVM");
+
+        final String[] traceIds = new String[64];
+        for (int i = 0; i < traceIds.length; i++) {
+            traceIds[i] = UUID.randomUUID().toString().replace("-", "");
+        }
+        final List<SpanData.Link> links = Collections.emptyList();
+
+        // with and without metrics, timing every decision
+        for (SamplerMetrics metrics : new SamplerMetrics[] {null, new SamplerMetrics(1)}) {
+            final DeterministicTraceSampler sampler = DeterministicTraceSampler.newBuilder()
+                .sampleRate(10)
+                .metrics(metrics)
+                .build();
+            int sampled = 0;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                sampled += sampler.shouldSample(null, traceIds[i & 63], "span", Span.Kind.SERVER, Attributes.empty(),
+                    links).getDecision().ordinal();
+            }
+
+            final long threadId = Thread.currentThread().getId();
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                sampled += sampler.shouldSample(null, traceIds[i & 63], "span", Span.Kind.SERVER, Attributes.empty(),
+                    links).getDecision().ordinal();
+            }
+            final long after = threads.getThreadAllocatedBytes(threadId);
+
+            final long bytesPerDecision = (after - before) / MEASURED_ROUNDS;
+            assertEquals(0, bytesPerDecision, (metrics == null ? "" : "with metrics, ") + "allocated "
+                + (after - before) + " bytes for " + MEASURED_ROUNDS + " decisions (" + sampled + ")");
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
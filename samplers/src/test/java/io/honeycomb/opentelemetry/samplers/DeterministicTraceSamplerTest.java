@@ -1,11 +1,17 @@
 package io.honeycomb.opentelemetry.samplers;
 
+import com.google.common.hash.Hashing;
+import io.honeycomb.opentelemetry.samplers.DeterministicTraceSampler.HashAlgorithm;
 import io.opentelemetry.common.AttributeKey;
 import io.opentelemetry.common.Attributes;
 import io.opentelemetry.sdk.trace.Sampler;
 import io.opentelemetry.sdk.trace.Sampler.Decision;
 import io.opentelemetry.sdk.trace.Sampler.SamplingResult;
 import io.opentelemetry.trace.Span;
+import io.opentelemetry.trace.SpanContext;
+import io.opentelemetry.trace.TraceFlags;
+import io.opentelemetry.trace.TraceId;
+import io.opentelemetry.trace.TraceState;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -13,8 +19,17 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 @ExtendWith(MockitoExtension.class)
 public class DeterministicTraceSamplerTest {
@@ -150,6 +165,300 @@ public class DeterministicTraceSamplerTest {
         }
     }
 
+    @Test
+    public void checkThatSamplingResultsAreShared() {
+        final DeterministicTraceSampler sampler = new DeterministicTraceSampler(17);
+
+        // "this5" is sampled at a rate of 17, "hello" is not, see checkSamplerWithSampleDataPoints
+        final SamplingResult sampled = sampler.shouldSample(
+            null, "this5", SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList());
+        final SamplingResult dropped = sampler.shouldSample(
+            null, "hello", SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList());
+
+        assertSame(sampled, sampler.shouldSample(
+            null, "this5", SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList()));
+        assertSame(dropped, sampler.shouldSample(
+            null, "hello", SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList()));
+        assertSame(sampled, sampler.createResult(17));
+        assertSame(dropped, sampler.createResult(0));
+        assertEquals(Attributes.of(AttributeKey.longKey("sample.rate"), 5L), sampler.createResult(5).getAttributes());
+    }
+
+    @Test
+    public void checkThatOverriddenCreateResultIsUsed() {
+        final SamplingResult custom = new DeterministicTraceSampler(1).createResult(0);
+        final DeterministicTraceSampler sampler = new DeterministicTraceSampler(17) {
+            @Override
+            protected SamplingResult createResult(final int sampleRate) {
+                return sampleRate > 0 ? super.createResult(sampleRate) : custom;
+            }
+        };
+
+        assertSame(custom, sampler.shouldSample(
+            null, "hello", SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList()));
+        assertEquals(Decision.RECORD_AND_SAMPLE, sampler.shouldSample(
+            null, "this5", SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList()).getDecision());
+    }
+
+    @Test
+    public void checkThatBatchSamplingMatchesSingleSampling() {
+        final String[] traceIds = new String[1_000];
+        for (int i = 0; i < traceIds.length; i++) {
+            traceIds[i] = randomRequestID();
+        }
+
+        for (int sampleRate : new int[] {0, 1, 7}) {
+            final DeterministicTraceSampler sampler = new DeterministicTraceSampler(sampleRate);
+            final int[] rates = new int[traceIds.length + 1];
+            rates[traceIds.length] = -1;
+            final BitSet sampled = new BitSet();
+            sampled.set(0, traceIds.length + 1);
+
+            sampler.sample(traceIds, rates);
+            sampler.sample(Arrays.asList(traceIds), sampled);
+
+            for (int i = 0; i < traceIds.length; i++) {
+                final int expected = sampler.sample(traceIds[i]);
+                assertEquals(expected, rates[i]);
+                assertEquals(expected > 0, sampled.get(i));
+            }
+            // entries beyond the trace ids are left alone
+            assertEquals(-1, rates[traceIds.length]);
+            assertTrue(sampled.get(traceIds.length));
+        }
+    }
+
+    @Test
+    public void batchSamplingRejectsTooShortRates() {
+        final DeterministicTraceSampler sampler = new DeterministicTraceSampler(7);
+
+        assertThrows(IllegalArgumentException.class, () -> sampler.sample(new String[] {"a", "b"}, new int[1]));
+    }
+
+    @Test
+    public void checkThatParentBasedSamplerFollowsParent() {
+        final DeterministicTraceSampler sampler = DeterministicTraceSampler.parentBased(17);
+        final String traceId = TraceId.fromLongs(1, 2);
+
+        for (boolean remote : new boolean[] {false, true}) {
+            final SamplingResult sampled = sampler.shouldSample(parent(traceId, true, remote), traceId,
+                SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList());
+            assertEquals(Decision.RECORD_AND_SAMPLE, sampled.getDecision());
+            assertEquals(Attributes.of(AttributeKey.longKey("sample.rate"), 17L), sampled.getAttributes());
+
+            final SamplingResult dropped = sampler.shouldSample(parent(traceId, false, remote), traceId,
+                SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList());
+            assertEquals(Decision.DROP, dropped.getDecision());
+        }
+
+        // a sample rate of 0 never samples, whatever the parent decided
+        assertEquals(Decision.DROP, DeterministicTraceSampler.parentBased(0).shouldSample(
+            parent(traceId, true, false), traceId, SPAN_NAME, SPAN_KIND, Attributes.empty(),
+            Collections.emptyList()).getDecision());
+    }
+
+    @Test
+    public void checkThatParentBasedSamplerMatchesHashingForConsistentTraces() {
+        final DeterministicTraceSampler hashing = new DeterministicTraceSampler(7);
+        final DeterministicTraceSampler parentBased = DeterministicTraceSampler.parentBased(7);
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 1_000; i++) {
+            final String traceId = TraceId.fromLongs(random.nextLong(), random.nextLong());
+            // the root span is decided by hashing, with or without an invalid parent
+            final SamplingResult root = parentBased.shouldSample(null, traceId, SPAN_NAME, SPAN_KIND,
+                Attributes.empty(), Collections.emptyList());
+            assertSame(root, parentBased.shouldSample(SpanContext.getInvalid(), traceId, SPAN_NAME, SPAN_KIND,
+                Attributes.empty(), Collections.emptyList()));
+
+            final SpanContext parent = parent(traceId, root.getDecision() == Decision.RECORD_AND_SAMPLE, i % 2 == 0);
+            final SamplingResult expected = hashing.shouldSample(parent, traceId, SPAN_NAME, SPAN_KIND,
+                Attributes.empty(), Collections.emptyList());
+            final SamplingResult child = parentBased.shouldSample(parent, traceId, SPAN_NAME, SPAN_KIND,
+                Attributes.empty(), Collections.emptyList());
+            assertEquals(expected.getDecision(), root.getDecision());
+            assertEquals(expected.getDecision(), child.getDecision());
+            assertEquals(expected.getAttributes(), child.getAttributes());
+        }
+    }
+
+    @Test
+    public void checkThatTraceStateDecisionIsTrustedAtTheSameRate() {
+        final DeterministicTraceSampler sampler = DeterministicTraceSampler.newBuilder()
+            .sampleRate(17)
+            .trustTraceState(true)
+            .build();
+        final DeterministicTraceSampler hashing = new DeterministicTraceSampler(17);
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 100; i++) {
+            final String traceId = TraceId.fromLongs(random.nextLong(), random.nextLong());
+            final boolean hashed = hashing.sample(traceId) > 0;
+
+            // the opposite of what hashing decides, to tell which one was used
+            final TraceState opposite = DeterministicTraceSampler.withDecision(TraceState.getDefault(), !hashed, 17);
+            final SamplingResult trusted = sampler.shouldSample(parent(traceId, !hashed, true, opposite), traceId,
+                SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList());
+            assertEquals(!hashed, trusted.getDecision() == Decision.RECORD_AND_SAMPLE);
+            assertEquals(Attributes.of(AttributeKey.longKey("sample.rate"), hashed ? 0L : 17L),
+                trusted.getAttributes());
+
+            // entries made at another rate, or missing, fall back to hashing
+            final TraceState otherRate = DeterministicTraceSampler.withDecision(TraceState.getDefault(), !hashed, 5);
+            for (TraceState traceState : new TraceState[] {otherRate, TraceState.getDefault()}) {
+                final SamplingResult result = sampler.shouldSample(parent(traceId, !hashed, true, traceState),
+                    traceId, SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList());
+                assertEquals(hashed, result.getDecision() == Decision.RECORD_AND_SAMPLE);
+            }
+        }
+    }
+
+    @Test
+    public void checkThatMalformedTraceStateEntriesAreIgnored() {
+        final DeterministicTraceSampler sampler = DeterministicTraceSampler.newBuilder()
+            .sampleRate(17)
+            .trustTraceState(true)
+            .build();
+        final String traceId = TraceId.fromLongs(1, 2);
+        final int hashed = sampler.sample(traceId);
+
+        for (String entry : new String[] {"s", "x17", "s1x", "s99999999999", "d-17"}) {
+            final TraceState traceState = TraceState.getDefault().toBuilder()
+                .set(DeterministicTraceSampler.TRACE_STATE_KEY, entry)
+                .build();
+            final SamplingResult result = sampler.shouldSample(parent(traceId, hashed == 0, true, traceState),
+                traceId, SPAN_NAME, SPAN_KIND, Attributes.empty(), Collections.emptyList());
+            assertEquals(hashed > 0, result.getDecision() == Decision.RECORD_AND_SAMPLE, entry);
+        }
+        assertEquals("s17", DeterministicTraceSampler.withDecision(TraceState.getDefault(), true, 17)
+            .get(DeterministicTraceSampler.TRACE_STATE_KEY));
+    }
+
+    @Test
+    public void checkThatSamplerMatchesReferenceImplementation() throws Exception {
+        final int[] sampleRates = {2, 3, 17, 1000, Integer.MAX_VALUE};
+        final List<String> traceIds = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            traceIds.add(randomRequestID());
+            traceIds.add(UUID.randomUUID().toString());
+        }
+        // ids that are not ASCII or too long for the reused buffer take the fallback path
+        traceIds.add("");
+        traceIds.add("trace-\u00e9\u4e2d\ud83d\ude00");
+        traceIds.add("unpaired-\ud83d");
+        traceIds.add(String.join("", Collections.nCopies(40, UUID.randomUUID().toString())));
+
+        for (int sampleRate : sampleRates) {
+            final DeterministicTraceSampler sampler = new DeterministicTraceSampler(sampleRate);
+            for (String traceId : traceIds) {
+                assertEquals(referenceSample(sampleRate, traceId), sampler.sample(traceId), traceId);
+            }
+        }
+    }
+
+    @Test
+    public void murmur3MatchesGuavaImplementation() {
+        final List<String> traceIds = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            traceIds.add(TraceId.fromLongs(i, i * 31L));
+            traceIds.add(UUID.randomUUID().toString());
+        }
+        traceIds.add("");
+        traceIds.add("a");
+        traceIds.add("trace-\u00e9\u4e2d\ud83d\ude00");
+
+        for (String traceId : traceIds) {
+            assertEquals(Hashing.murmur3_32().hashUnencodedChars(traceId).asInt(), TraceIdHash.murmur3(traceId),
+                traceId);
+        }
+    }
+
+    @Test
+    public void murmur3SpreadsTraceIdsUniformly() {
+        final int buckets = 64;
+        final int traceIds = 64_000;
+        final long[] counts = new long[buckets];
+        // sequential ids, which differ in few characters
+        for (int i = 0; i < traceIds / 2; i++) {
+            counts[TraceIdHash.murmur3(TraceId.fromLongs(0, i)) >>> 26]++;
+            counts[TraceIdHash.murmur3(TraceId.fromLongs(i, 0)) >>> 26]++;
+        }
+
+        final double expected = (double) traceIds / buckets;
+        double chiSquare = 0;
+        for (long count : counts) {
+            chiSquare += (count - expected) * (count - expected) / expected;
+        }
+        // the 99.9th percentile of the chi-square distribution with 63 degrees of freedom is about 104
+        assertTrue(chiSquare < 104, "chi-square " + chiSquare);
+    }
+
+    @Test
+    public void murmur3SampleRatesAreWithinExpectedBounds() {
+        final int numberOfTraceIds = 50_000;
+        for (int sampleRate : new int[] {2, 10, 20}) {
+            final DeterministicTraceSampler sampler = new DeterministicTraceSampler(sampleRate, HashAlgorithm.MURMUR3);
+            int nSampled = 0;
+            for (int i = 0; i < numberOfTraceIds; i++) {
+                if (sampler.sample(TraceId.fromLongs(i, 0)) > 0) {
+                    nSampled++;
+                }
+            }
+
+            final double expectedNSampled = numberOfTraceIds / (double) sampleRate;
+            assertTrue(Math.abs(nSampled - expectedNSampled) < expectedNSampled * 0.05,
+                "sampled " + nSampled + " at rate " + sampleRate);
+        }
+    }
+
+    @Test
+    public void murmur3SamplerIsConsistentAcrossEntryPoints() {
+        final String[] traceIds = new String[1_000];
+        for (int i = 0; i < traceIds.length; i++) {
+            traceIds[i] = randomRequestID();
+        }
+        final DeterministicTraceSampler sampler = new DeterministicTraceSampler(7, HashAlgorithm.MURMUR3);
+        final int[] rates = new int[traceIds.length];
+        final BitSet sampled = new BitSet();
+        sampler.sample(traceIds, rates);
+        sampler.sample(traceIds, sampled);
+
+        for (int i = 0; i < traceIds.length; i++) {
+            final int expected = Integer.compareUnsigned(TraceIdHash.murmur3(traceIds[i]),
+                Integer.divideUnsigned(0xffffffff, 7)) <= 0 ? 7 : 0;
+            assertEquals(expected, sampler.sample(traceIds[i]));
+            assertEquals(expected, rates[i]);
+            assertEquals(expected > 0, sampled.get(i));
+            assertEquals(expected > 0, sampler.shouldSample(null, traceIds[i], SPAN_NAME, SPAN_KIND,
+                Attributes.empty(), Collections.emptyList()).getDecision() == Decision.RECORD_AND_SAMPLE);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new DeterministicTraceSampler(7, null));
+    }
+
+    /**
+     * The original implementation of {@link DeterministicTraceSampler#sample(String)}, which matches the other
+     * Beeline implementations.
+     */
+    private static int referenceSample(final int sampleRate, final String traceId) throws Exception {
+        final int upperBound = Integer.divideUnsigned(0xffffffff, sampleRate);
+        final MessageDigest sha = MessageDigest.getInstance("SHA-1");
+        sha.update(traceId.getBytes(StandardCharsets.UTF_8));
+        final int first4Bytes = ByteBuffer.wrap(sha.digest()).order(ByteOrder.BIG_ENDIAN).getInt(0);
+        return Integer.compareUnsigned(first4Bytes, upperBound) <= 0 ? sampleRate : 0;
+    }
+
+    private static SpanContext parent(final String traceId, final boolean sampled, final boolean remote) {
+        return parent(traceId, sampled, remote, TraceState.getDefault());
+    }
+
+    private static SpanContext parent(final String traceId, final boolean sampled, final boolean remote,
+                                      final TraceState traceState) {
+        final byte flags = sampled ? TraceFlags.getSampled() : TraceFlags.getDefault();
+        return remote
+            ? SpanContext.createFromRemoteParent(traceId, "0102030405060708", flags, traceState)
+            : SpanContext.create(traceId, "0102030405060708", flags, traceState);
+    }
+
     private static final String requestIDBytes = "abcdef0123456789";
 
     /**
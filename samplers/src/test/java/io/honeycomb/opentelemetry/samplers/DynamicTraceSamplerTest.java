@@ -0,0 +1,343 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.trace.Sampler.Decision;
+import io.opentelemetry.sdk.trace.Sampler.SamplingResult;
+import io.opentelemetry.trace.Span;
+import io.opentelemetry.trace.SpanContext;
+import io.opentelemetry.trace.TraceFlags;
+import io.opentelemetry.trace.TraceState;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class DynamicTraceSamplerTest {
+
+    private static final AttributeKey<Long> SAMPLE_RATE = AttributeKey.longKey("sample.rate");
+
+    private DynamicTraceSampler sampler;
+
+    @AfterEach
+    public void tearDown() {
+        if (sampler != null) {
+            sampler.close();
+        }
+    }
+
+    @Test
+    public void samplerShouldRejectInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> DynamicTraceSampler.newBuilder().goalSampleRate(0));
+        assertThrows(IllegalArgumentException.class, () -> DynamicTraceSampler.newBuilder().weight(0));
+        assertThrows(IllegalArgumentException.class, () -> DynamicTraceSampler.newBuilder().weight(1.5));
+        assertThrows(IllegalArgumentException.class, () -> DynamicTraceSampler.newBuilder().maxKeys(0));
+        assertThrows(IllegalArgumentException.class,
+            () -> DynamicTraceSampler.newBuilder().adjustmentIntervalMillis(-1));
+        assertThrows(IllegalArgumentException.class, () -> DynamicTraceSampler.newBuilder().keyExtractor(null));
+    }
+
+    @Test
+    public void samplesAtGoalRateBeforeFirstAdjustment() {
+        sampler = DynamicTraceSampler.newBuilder().goalSampleRate(4).adjustmentIntervalMillis(0).build();
+        final DeterministicTraceSampler deterministic = new DeterministicTraceSampler(4);
+
+        for (int i = 0; i < 1_000; i++) {
+            final String traceId = UUID.randomUUID().toString();
+            final SamplingResult result = shouldSample(traceId, "span");
+            assertEquals(deterministic.sample(traceId), (long) result.getAttributes().get(SAMPLE_RATE));
+        }
+        assertEquals("HoneycombDynamicSampler", sampler.getDescription());
+    }
+
+    @Test
+    public void rareKeysAreKeptAndFrequentKeysSampledHeavily() {
+        sampler = DynamicTraceSampler.newBuilder().goalSampleRate(10).weight(1).adjustmentIntervalMillis(0).build();
+        for (int i = 0; i < 10_000; i++) {
+            shouldSample(UUID.randomUUID().toString(), "frequent");
+        }
+        for (int i = 0; i < 100; i++) {
+            shouldSample(UUID.randomUUID().toString(), "medium");
+        }
+        shouldSample(UUID.randomUUID().toString(), "rare");
+
+        sampler.adjustRates();
+
+        assertEquals(1, sampler.getSampleRate("rare"));
+        assertTrue(sampler.getSampleRate("medium") < sampler.getSampleRate("frequent"));
+        assertTrue(sampler.getSampleRate("frequent") > 10);
+        // keys not seen in the last interval are always sampled
+        assertEquals(1, sampler.getSampleRate("new"));
+
+        final SamplingResult rare = shouldSample(UUID.randomUUID().toString(), "rare");
+        assertEquals(Decision.RECORD_AND_SAMPLE, rare.getDecision());
+        assertEquals(1L, rare.getAttributes().get(SAMPLE_RATE));
+    }
+
+    @Test
+    public void decisionsAreDeterministicPerTraceId() {
+        sampler = DynamicTraceSampler.newBuilder().goalSampleRate(10).adjustmentIntervalMillis(0).build();
+        for (int i = 0; i < 1_000; i++) {
+            shouldSample(UUID.randomUUID().toString(), "span");
+        }
+        sampler.adjustRates();
+
+        final int rate = sampler.getSampleRate("span");
+        final DeterministicTraceSampler deterministic = new DeterministicTraceSampler(rate);
+        for (int i = 0; i < 1_000; i++) {
+            final String traceId = UUID.randomUUID().toString();
+            final SamplingResult result = shouldSample(traceId, "span");
+            assertEquals(deterministic.sample(traceId), (long) result.getAttributes().get(SAMPLE_RATE));
+            assertEquals(deterministic.sample(traceId) > 0, result.getDecision() == Decision.RECORD_AND_SAMPLE);
+        }
+    }
+
+    @Test
+    public void calculatedRatesAverageOutAtGoal() {
+        final Map<String, Double> counts = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            counts.put("key-" + i, Math.pow(1.2, i));
+        }
+
+        final Map<String, Integer> rates = DynamicTraceSampler.calculateSampleRates(20, counts);
+
+        double events = 0;
+        double sampledEvents = 0;
+        for (Map.Entry<String, Double> entry : counts.entrySet()) {
+            events += entry.getValue();
+            sampledEvents += entry.getValue() / rates.get(entry.getKey());
+        }
+        final double effectiveRate = events / sampledEvents;
+        assertTrue(effectiveRate > 15 && effectiveRate < 25, "effective rate " + effectiveRate);
+        assertEquals(1, (int) rates.get("key-0"));
+    }
+
+    @Test
+    public void calculatedRatesHandleSingleEvents() {
+        final Map<String, Double> counts = new HashMap<>();
+        counts.put("a", 1d);
+        counts.put("b", 0.6d);
+
+        final Map<String, Integer> rates = DynamicTraceSampler.calculateSampleRates(20, counts);
+
+        assertEquals(1, (int) rates.get("a"));
+        assertEquals(1, (int) rates.get("b"));
+    }
+
+    @Test
+    public void keysAreCappedAtMaxKeys() {
+        sampler = DynamicTraceSampler.newBuilder().maxKeys(2).weight(1).adjustmentIntervalMillis(0).build();
+        for (int i = 0; i < 100; i++) {
+            shouldSample(UUID.randomUUID().toString(), "span-" + i);
+        }
+        sampler.adjustRates();
+
+        // the first two keys are tracked, the rest share the overflow key
+        assertEquals(1, sampler.getSampleRate("span-0"));
+        assertTrue(sampler.getSampleRate(DynamicTraceSampler.OVERFLOW_KEY) > 1);
+    }
+
+    @Test
+    public void keysAreCappedAtMaxKeysWhenAddedConcurrently() throws Exception {
+        sampler = DynamicTraceSampler.newBuilder().maxKeys(10).adjustmentIntervalMillis(0).build();
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 1_000; i++) {
+                        shouldSample(UUID.randomUUID().toString(), "span-" + thread + "-" + i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(10, sampler.getTrackedKeys());
+    }
+
+    @Test
+    public void keysStopBeingTrackedAfterAWholeIdleInterval() {
+        sampler = DynamicTraceSampler.newBuilder().maxKeys(1).adjustmentIntervalMillis(0).build();
+        shouldSample(UUID.randomUUID().toString(), "first");
+        sampler.adjustRates();
+
+        // idle for part of an interval, as the key may have been counted just after the previous adjustment
+        sampler.adjustRates();
+        assertEquals(1, sampler.getTrackedKeys());
+        shouldSample(UUID.randomUUID().toString(), "second");
+        assertEquals(1, sampler.getTrackedKeys());
+
+        sampler.adjustRates();
+        assertEquals(0, sampler.getTrackedKeys());
+        shouldSample(UUID.randomUUID().toString(), "second");
+        assertEquals(1, sampler.getTrackedKeys());
+    }
+
+    @Test
+    public void keysCanBeExtractedFromKindAndAttributes() {
+        final AttributeKey<String> route = AttributeKey.stringKey("http.route");
+
+        assertEquals("SERVER",
+            DynamicTraceSampler.KeyExtractor.spanKind().key("name", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals("/users", DynamicTraceSampler.KeyExtractor.attribute(route)
+            .key("name", Span.Kind.SERVER, Attributes.of(route, "/users")));
+        assertNull(DynamicTraceSampler.KeyExtractor.attribute(route)
+            .key("name", Span.Kind.SERVER, Attributes.empty()));
+    }
+
+    @Test
+    public void concurrentSamplingCountsEverySpan() throws Exception {
+        sampler = DynamicTraceSampler.newBuilder().goalSampleRate(10).weight(1).adjustmentIntervalMillis(0).build();
+        final int threads = 8;
+        final int spansPerThread = 20_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        final List<String> traceIds = new ArrayList<>();
+        for (int i = 0; i < 1_024; i++) {
+            traceIds.add(UUID.randomUUID().toString());
+        }
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < spansPerThread; i++) {
+                        shouldSample(traceIds.get(i & 1023), i % 100 == 0 ? "rare" : "frequent");
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        sampler.adjustRates();
+
+        final Map<String, Double> expectedCounts = new HashMap<>();
+        expectedCounts.put("frequent", threads * spansPerThread * 0.99);
+        expectedCounts.put("rare", threads * spansPerThread * 0.01);
+        final Map<String, Integer> expectedRates = DynamicTraceSampler.calculateSampleRates(10, expectedCounts);
+        assertEquals((int) expectedRates.get("frequent"), sampler.getSampleRate("frequent"));
+        assertEquals((int) expectedRates.get("rare"), sampler.getSampleRate("rare"));
+    }
+
+    @Test
+    public void parentBasedSamplerFollowsValidParents() {
+        sampler = DynamicTraceSampler.newBuilder().goalSampleRate(10).weight(1).adjustmentIntervalMillis(0)
+            .parentBased(true).build();
+        final String traceId = "000000000063d76f0000000037fe0393";
+
+        for (boolean remote : new boolean[] {false, true}) {
+            final SamplingResult sampled = sampler.shouldSample(parent(traceId, true, remote), traceId, "child",
+                Span.Kind.SERVER, Attributes.empty(), Collections.emptyList());
+            assertEquals(Decision.RECORD_AND_SAMPLE, sampled.getDecision());
+            assertEquals(10L, (long) sampled.getAttributes().get(SAMPLE_RATE));
+
+            final SamplingResult dropped = sampler.shouldSample(parent(traceId, false, remote), traceId, "child",
+                Span.Kind.SERVER, Attributes.empty(), Collections.emptyList());
+            assertEquals(Decision.DROP, dropped.getDecision());
+        }
+        // root spans are sampled by key, and children are not counted
+        for (int i = 0; i < 1_000; i++) {
+            shouldSample(UUID.randomUUID().toString(), "root");
+            sampler.shouldSample(parent(traceId, true, false), traceId, "child", Span.Kind.SERVER,
+                Attributes.empty(), Collections.emptyList());
+        }
+        sampler.adjustRates();
+        assertTrue(sampler.getSampleRate("root") > 1);
+        assertEquals(1, sampler.getSampleRate("child"));
+    }
+
+    @Test
+    public void parentIsIgnoredByDefault() {
+        sampler = DynamicTraceSampler.newBuilder().goalSampleRate(4).adjustmentIntervalMillis(0).build();
+        final DeterministicTraceSampler deterministic = new DeterministicTraceSampler(4);
+
+        for (int i = 0; i < 100; i++) {
+            final String traceId = UUID.randomUUID().toString().replace("-", "");
+            final SamplingResult result = sampler.shouldSample(parent(traceId, true, false), traceId, "span",
+                Span.Kind.SERVER, Attributes.empty(), Collections.emptyList());
+            assertEquals(deterministic.sample(traceId), (long) result.getAttributes().get(SAMPLE_RATE));
+        }
+    }
+
+    @Test
+    public void ratesAreAdjustedInTheBackground() throws InterruptedException {
+        sampler = DynamicTraceSampler.newBuilder().goalSampleRate(10).adjustmentIntervalMillis(10).build();
+        shouldSample(UUID.randomUUID().toString(), "span");
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sampler.getSampleRate("span") == 10 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, sampler.getSampleRate("span"));
+    }
+
+    @Test
+    public void closeCancelsAdjustments() {
+        final int scheduled = DynamicTraceSampler.scheduledAdjustments();
+        sampler = DynamicTraceSampler.newBuilder().adjustmentIntervalMillis(60_000).build();
+        assertEquals(scheduled + 1, DynamicTraceSampler.scheduledAdjustments());
+
+        sampler.close();
+
+        assertEquals(scheduled, DynamicTraceSampler.scheduledAdjustments());
+    }
+
+    @Test
+    public void collectedSamplerStopsAdjusting() throws InterruptedException {
+        final int scheduled = DynamicTraceSampler.scheduledAdjustments();
+        final WeakReference<DynamicTraceSampler> unclosed = new WeakReference<>(
+            DynamicTraceSampler.newBuilder().adjustmentIntervalMillis(10).build());
+        assertEquals(scheduled + 1, DynamicTraceSampler.scheduledAdjustments());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (DynamicTraceSampler.scheduledAdjustments() > scheduled && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(unclosed.get());
+        assertEquals(scheduled, DynamicTraceSampler.scheduledAdjustments());
+    }
+
+    private SamplingResult shouldSample(final String traceId, final String name) {
+        return sampler.shouldSample(null, traceId, name, Span.Kind.SERVER, Attributes.empty(),
+            Collections.emptyList());
+    }
+
+    private static SpanContext parent(final String traceId, final boolean sampled, final boolean remote) {
+        final byte flags = sampled ? TraceFlags.getSampled() : TraceFlags.getDefault();
+        return remote
+            ? SpanContext.createFromRemoteParent(traceId, "0102030405060708", flags, TraceState.getDefault())
+            : SpanContext.create(traceId, "0102030405060708", flags, TraceState.getDefault());
+    }
+}
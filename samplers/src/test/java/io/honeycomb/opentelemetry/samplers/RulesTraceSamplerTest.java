@@ -0,0 +1,145 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.trace.Sampler.Decision;
+import io.opentelemetry.sdk.trace.Sampler.SamplingResult;
+import io.opentelemetry.trace.Span;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RulesTraceSamplerTest {
+
+    private static final AttributeKey<Long> SAMPLE_RATE = AttributeKey.longKey("sample.rate");
+    private static final AttributeKey<Boolean> ERROR = AttributeKey.booleanKey("error");
+    private static final AttributeKey<String> ROUTE = AttributeKey.stringKey("http.route");
+
+    @Test
+    public void rulesShouldRejectInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> RulesTraceSampler.Rule.newBuilder(-1));
+        assertThrows(IllegalArgumentException.class, () -> RulesTraceSampler.newBuilder().defaultSampleRate(-1));
+        assertThrows(IllegalArgumentException.class, () -> RulesTraceSampler.newBuilder().addRule(null));
+        assertThrows(IllegalArgumentException.class,
+            () -> RulesTraceSampler.Rule.newBuilder(1).attributeEquals(ERROR, null));
+        assertEquals("HoneycombRulesSampler", RulesTraceSampler.newBuilder().build().getDescription());
+    }
+
+    @Test
+    public void firstMatchingRuleSetsSampleRate() {
+        final RulesTraceSampler sampler = RulesTraceSampler.newBuilder()
+            .addRule(RulesTraceSampler.Rule.newBuilder(1000).spanNamePrefix("/health").build())
+            .addRule(RulesTraceSampler.Rule.newBuilder(1).attributeEquals(ERROR, true).build())
+            .addRule(RulesTraceSampler.Rule.newBuilder(5).spanKind(Span.Kind.SERVER)
+                .attributeEquals(ROUTE, "/checkout").build())
+            .addRule(RulesTraceSampler.Rule.newBuilder(20).spanNameMatches("GET /users/\\d+").build())
+            .defaultSampleRate(10)
+            .build();
+
+        assertEquals(1000, sampler.getSampleRate("/healthz", Span.Kind.SERVER, Attributes.of(ERROR, true)));
+        assertEquals(1, sampler.getSampleRate("GET /cart", Span.Kind.SERVER, Attributes.of(ERROR, true)));
+        assertEquals(10, sampler.getSampleRate("GET /cart", Span.Kind.SERVER, Attributes.of(ERROR, false)));
+        assertEquals(5, sampler.getSampleRate("POST", Span.Kind.SERVER, Attributes.of(ROUTE, "/checkout")));
+        assertEquals(10, sampler.getSampleRate("POST", Span.Kind.CLIENT, Attributes.of(ROUTE, "/checkout")));
+        assertEquals(20, sampler.getSampleRate("GET /users/42", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals(10, sampler.getSampleRate("GET /users/me", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals(10, sampler.getSampleRate(null, null, null));
+    }
+
+    @Test
+    public void rulesMatchSpanKindsAndAttributePresence() {
+        final RulesTraceSampler sampler = RulesTraceSampler.newBuilder()
+            .addRule(RulesTraceSampler.Rule.newBuilder(3).spanKind(Span.Kind.CLIENT, Span.Kind.PRODUCER).build())
+            .addRule(RulesTraceSampler.Rule.newBuilder(7).attributePresent(ROUTE).build())
+            .build();
+
+        assertEquals(3, sampler.getSampleRate("span", Span.Kind.CLIENT, Attributes.empty()));
+        assertEquals(3, sampler.getSampleRate("span", Span.Kind.PRODUCER, Attributes.empty()));
+        assertEquals(7, sampler.getSampleRate("span", Span.Kind.SERVER, Attributes.of(ROUTE, "/")));
+        assertEquals(1, sampler.getSampleRate("span", Span.Kind.SERVER, Attributes.empty()));
+        assertEquals(1, sampler.getSampleRate("span", null, Attributes.empty()));
+    }
+
+    @Test
+    public void decisionsMatchDeterministicSampler() {
+        final RulesTraceSampler sampler = RulesTraceSampler.newBuilder()
+            .addRule(RulesTraceSampler.Rule.newBuilder(5).spanName("checkout").build())
+            .build();
+        final DeterministicTraceSampler deterministic = new DeterministicTraceSampler(5);
+
+        for (int i = 0; i < 1_000; i++) {
+            final String traceId = UUID.randomUUID().toString();
+            final SamplingResult result = shouldSample(sampler, traceId, "checkout");
+            assertEquals(deterministic.sample(traceId), (long) result.getAttributes().get(SAMPLE_RATE));
+            assertEquals(deterministic.sample(traceId) > 0, result.getDecision() == Decision.RECORD_AND_SAMPLE);
+        }
+    }
+
+    @Test
+    public void namesBeyondTheMemoizationLimitAreStillMatched() {
+        final RulesTraceSampler sampler = RulesTraceSampler.newBuilder()
+            .addRule(RulesTraceSampler.Rule.newBuilder(4).spanNamePrefix("db.").build())
+            .maxMemoizedNames(2)
+            .build();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(4, sampler.getSampleRate("db." + i, Span.Kind.CLIENT, Attributes.empty()));
+            assertEquals(1, sampler.getSampleRate("http." + i, Span.Kind.CLIENT, Attributes.empty()));
+        }
+    }
+
+    @Test
+    public void rulesCanBeReplacedWhileSampling() throws Exception {
+        final RulesTraceSampler sampler = RulesTraceSampler.newBuilder()
+            .addRule(RulesTraceSampler.Rule.newBuilder(2).spanName("span").build())
+            .build();
+        final List<RulesTraceSampler.Rule> replacement = Arrays.asList(
+            RulesTraceSampler.Rule.newBuilder(8).spanName("span").build());
+
+        final int threads = 4;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 10_000; i++) {
+                        final int rate = sampler.getSampleRate("span", Span.Kind.SERVER, Attributes.empty());
+                        assertTrue(rate == 2 || rate == 8, "rate " + rate);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            sampler.setRules(replacement, 1);
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(8, sampler.getSampleRate("span", Span.Kind.SERVER, Attributes.empty()));
+        sampler.setRules(Collections.emptyList(), 0);
+        assertEquals(Decision.DROP, shouldSample(sampler, UUID.randomUUID().toString(), "span").getDecision());
+    }
+
+    private static SamplingResult shouldSample(final RulesTraceSampler sampler, final String traceId,
+                                               final String name) {
+        return sampler.shouldSample(null, traceId, name, Span.Kind.SERVER, Attributes.empty(),
+            Collections.emptyList());
+    }
+}
@@ -0,0 +1,93 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.trace.Sampler.Decision;
+import io.opentelemetry.sdk.trace.Sampler.SamplingResult;
+import io.opentelemetry.trace.Span;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.UUID;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class SamplerMetricsTest {
+
+    @Test
+    public void metricsShouldRejectInvalidTimingSampleRates() {
+        assertThrows(IllegalArgumentException.class, () -> new SamplerMetrics(0));
+        assertThrows(IllegalArgumentException.class, () -> new SamplerMetrics(3));
+    }
+
+    @Test
+    public void decisionsAreCountedPerRate() {
+        final SamplerMetrics metrics = new SamplerMetrics(1);
+        final DeterministicTraceSampler tens = DeterministicTraceSampler.newBuilder()
+            .sampleRate(10).metrics(metrics).build();
+        final DeterministicTraceSampler ones = DeterministicTraceSampler.newBuilder()
+            .sampleRate(1).metrics(metrics).build();
+
+        long sampledAtTen = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (shouldSample(tens).getDecision() == Decision.RECORD_AND_SAMPLE) {
+                sampledAtTen++;
+            }
+            shouldSample(ones);
+        }
+
+        assertEquals(sampledAtTen, (long) metrics.getSampledDecisionsByRate().get(10));
+        assertEquals(1_000 - sampledAtTen, (long) metrics.getDroppedDecisionsByRate().get(10));
+        assertEquals(1_000, (long) metrics.getSampledDecisionsByRate().get(1));
+        assertEquals(0, (long) metrics.getDroppedDecisionsByRate().get(1));
+        assertEquals(1_000 + sampledAtTen, metrics.getSampledDecisions());
+        assertEquals(1_000 - sampledAtTen, metrics.getDroppedDecisions());
+        assertEquals(2_000, metrics.getTimedDecisions());
+        assertTrue(metrics.getMeanDecisionNanos() > 0);
+        assertTrue(metrics.getMaxDecisionNanos() >= metrics.getMeanDecisionNanos());
+    }
+
+    @Test
+    public void onlySomeDecisionsAreTimed() {
+        final SamplerMetrics metrics = new SamplerMetrics(64);
+        final DeterministicTraceSampler sampler = DeterministicTraceSampler.newBuilder()
+            .sampleRate(10).metrics(metrics).build();
+
+        for (int i = 0; i < 64_000; i++) {
+            shouldSample(sampler);
+        }
+
+        assertEquals(64_000, metrics.getSampledDecisions() + metrics.getDroppedDecisions());
+        assertTrue(metrics.getTimedDecisions() > 500 && metrics.getTimedDecisions() < 1_500,
+            "timed " + metrics.getTimedDecisions());
+    }
+
+    @Test
+    public void metricsAreExposedThroughJmx() throws Exception {
+        final SamplerMetrics metrics = new SamplerMetrics();
+        final DeterministicTraceSampler sampler = DeterministicTraceSampler.newBuilder()
+            .sampleRate(1).metrics(metrics).build();
+        shouldSample(sampler);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(SamplerMetrics.JMX_DOMAIN + ":type=SamplerMetrics,name=\"test\"");
+        metrics.register("test");
+        try {
+            assertEquals(1L, server.getAttribute(name, "SampledDecisions"));
+            assertEquals(0L, server.getAttribute(name, "DroppedDecisions"));
+            assertThrows(IllegalStateException.class, () -> new SamplerMetrics().register("test"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+        metrics.unregister();
+    }
+
+    private static SamplingResult shouldSample(final DeterministicTraceSampler sampler) {
+        return sampler.shouldSample(null, UUID.randomUUID().toString(), "span", Span.Kind.SERVER, Attributes.empty(),
+            Collections.emptyList());
+    }
+}
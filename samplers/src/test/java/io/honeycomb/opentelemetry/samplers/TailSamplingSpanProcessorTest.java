@@ -0,0 +1,243 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.trace.StatusCanonicalCode;
+import io.opentelemetry.trace.TraceId;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TailSamplingSpanProcessorTest {
+
+    private static final String ROOT_PARENT = "0000000000000000";
+    private static final AttributeKey<Long> SAMPLE_RATE = AttributeKey.longKey("sample.rate");
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<SpanData> exported = new ArrayList<>();
+    private SpanExporter exporter;
+    private long nextSpanId = 1;
+
+    @BeforeEach
+    public void setUp() {
+        exporter = mock(SpanExporter.class);
+        when(exporter.export(any())).thenAnswer(invocation -> {
+            exported.addAll(invocation.<Collection<SpanData>>getArgument(0));
+            return CompletableResultCode.ofSuccess();
+        });
+        when(exporter.flush()).thenReturn(CompletableResultCode.ofSuccess());
+        when(exporter.shutdown()).thenReturn(CompletableResultCode.ofSuccess());
+    }
+
+    @Test
+    public void builderShouldRejectInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> TailSamplingSpanProcessor.newBuilder(null));
+        assertThrows(IllegalArgumentException.class,
+            () -> TailSamplingSpanProcessor.newBuilder(exporter).addRule(null));
+        assertThrows(IllegalArgumentException.class,
+            () -> TailSamplingSpanProcessor.newBuilder(exporter).maxBufferedSpans(0));
+        assertThrows(IllegalArgumentException.class,
+            () -> TailSamplingSpanProcessor.newBuilder(exporter).maxBufferedTraces(0));
+        assertThrows(IllegalArgumentException.class,
+            () -> TailSamplingSpanProcessor.newBuilder(exporter).decisionWaitMillis(-1));
+        assertThrows(IllegalArgumentException.class,
+            () -> TailSamplingSpanProcessor.newBuilder(exporter).sweepIntervalMillis(-1));
+    }
+
+    @Test
+    public void completedTracesAreDecidedByTheFirstMatchingRule() {
+        final TailSamplingSpanProcessor processor = newProcessor(TailSamplingSpanProcessor.newBuilder(exporter)
+            .addRule(TailSamplingSpanProcessor.Rule.keepErrors())
+            .addRule((traceId, spans) -> 10));
+
+        final String errorTrace = TraceId.fromLongs(1, 1);
+        final String okTrace = TraceId.fromLongs(2, 2);
+        processor.onEnd(span(errorTrace, "00000000000000aa", StatusCanonicalCode.ERROR));
+        processor.onEnd(span(errorTrace, ROOT_PARENT, StatusCanonicalCode.OK));
+        processor.onEnd(span(okTrace, ROOT_PARENT, StatusCanonicalCode.OK));
+        assertEquals(3, processor.getBufferedSpans());
+
+        processor.sweep();
+
+        assertEquals(3, exported.size());
+        for (SpanData span : exported) {
+            final long expectedRate = span.getTraceId().equals(errorTrace) ? 1 : 10;
+            assertEquals(expectedRate, (long) orOne(span.getAttributes().get(SAMPLE_RATE)));
+        }
+        assertEquals(2, processor.getKeptTraces());
+        assertEquals(0, processor.getBufferedSpans());
+    }
+
+    @Test
+    public void tracesNoRuleDecidesOnAreDropped() {
+        final TailSamplingSpanProcessor processor = newProcessor(TailSamplingSpanProcessor.newBuilder(exporter)
+            .addRule(TailSamplingSpanProcessor.Rule.keepErrors()));
+
+        processor.onEnd(span(TraceId.fromLongs(1, 1), ROOT_PARENT, StatusCanonicalCode.OK));
+        processor.sweep();
+
+        assertTrue(exported.isEmpty());
+        assertEquals(1, processor.getDroppedTraces());
+    }
+
+    @Test
+    public void incompleteTracesWaitForTheDecisionWait() {
+        final TailSamplingSpanProcessor processor = newProcessor(TailSamplingSpanProcessor.newBuilder(exporter)
+            .decisionWaitMillis(1_000)
+            .addRule((traceId, spans) -> 1));
+        final String traceId = TraceId.fromLongs(1, 1);
+
+        processor.onEnd(span(traceId, "00000000000000aa", StatusCanonicalCode.OK));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        processor.onEnd(span(traceId, "00000000000000aa", StatusCanonicalCode.OK));
+        processor.sweep();
+        assertTrue(exported.isEmpty());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        processor.sweep();
+        assertEquals(2, exported.size());
+    }
+
+    @Test
+    public void headSampleRateIsMultipliedByTailSampleRate() {
+        final TailSamplingSpanProcessor processor = newProcessor(TailSamplingSpanProcessor.newBuilder(exporter)
+            .addRule((traceId, spans) -> 4));
+        final SpanData span = span(TraceId.fromLongs(1, 1), ROOT_PARENT, StatusCanonicalCode.OK).toSpanData();
+        when(span.getAttributes()).thenReturn(Attributes.of(SAMPLE_RATE, 3L, AttributeKey.stringKey("a"), "b"));
+
+        processor.onEnd(readable(span));
+        processor.sweep();
+
+        assertEquals(12L, exported.get(0).getAttributes().get(SAMPLE_RATE));
+        assertEquals("b", exported.get(0).getAttributes().get(AttributeKey.stringKey("a")));
+        assertEquals(span.getSpanId(), exported.get(0).getSpanId());
+    }
+
+    @Test
+    public void bufferIsCappedByEvictingOldestTraces() {
+        final TailSamplingSpanProcessor processor = newProcessor(TailSamplingSpanProcessor.newBuilder(exporter)
+            .maxBufferedSpans(100)
+            .addRule((traceId, spans) -> 1));
+
+        for (int i = 0; i < 1_000; i++) {
+            processor.onEnd(span(TraceId.fromLongs(i, i), "00000000000000aa", StatusCanonicalCode.OK));
+            assertTrue(processor.getBufferedSpans() <= 100);
+        }
+
+        assertEquals(100, processor.getBufferedSpans());
+        assertEquals(900, processor.getEvictedTraces());
+        assertEquals(900, processor.getEvictedSpans());
+
+        processor.forceFlush();
+        assertEquals(100, exported.size());
+        // the most recent traces survived
+        final Set<String> traceIds = new HashSet<>();
+        for (SpanData span : exported) {
+            traceIds.add(span.getTraceId());
+        }
+        assertTrue(traceIds.contains(TraceId.fromLongs(999, 999)));
+        assertEquals(0, processor.getBufferedSpans());
+    }
+
+    @Test
+    public void bufferIsCappedByTraceCount() {
+        final TailSamplingSpanProcessor processor = newProcessor(TailSamplingSpanProcessor.newBuilder(exporter)
+            .maxBufferedTraces(16)
+            .addRule((traceId, spans) -> 1));
+
+        for (int i = 0; i < 1_000; i++) {
+            processor.onEnd(span(TraceId.fromLongs(i, i), "00000000000000aa", StatusCanonicalCode.OK));
+        }
+
+        assertTrue(processor.getBufferedSpans() <= 16);
+        assertEquals(1_000, processor.getBufferedSpans() + processor.getEvictedTraces());
+    }
+
+    @Test
+    public void shutdownDecidesBufferedTracesAndStopsBuffering() {
+        final TailSamplingSpanProcessor processor = newProcessor(TailSamplingSpanProcessor.newBuilder(exporter)
+            .addRule((traceId, spans) -> 1));
+
+        processor.onEnd(span(TraceId.fromLongs(1, 1), "00000000000000aa", StatusCanonicalCode.OK));
+        assertTrue(processor.shutdown().isSuccess());
+        assertEquals(1, exported.size());
+
+        processor.onEnd(span(TraceId.fromLongs(2, 2), ROOT_PARENT, StatusCanonicalCode.OK));
+        assertEquals(0, processor.getBufferedSpans());
+        assertTrue(processor.shutdown().isSuccess());
+    }
+
+    @Test
+    public void traceBufferKeepsTracesFindableAcrossRemovals() {
+        final TraceBuffer buffer = new TraceBuffer(64);
+        final List<TraceBuffer.Trace> traces = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            traces.add(buffer.add(i % 4, i, String.valueOf(i), i));
+        }
+        assertTrue(buffer.isFull());
+        for (int i = 0; i < 64; i += 2) {
+            buffer.remove(traces.get(i));
+        }
+
+        assertEquals(32, buffer.size());
+        assertSame(traces.get(1), buffer.oldest());
+        for (int i = 0; i < 64; i++) {
+            if (i % 2 == 0) {
+                assertNull(buffer.get(i % 4, i));
+            } else {
+                assertSame(traces.get(i), buffer.get(i % 4, i));
+            }
+        }
+    }
+
+    @Test
+    public void traceIdsAreParsedIntoTwoLongs() {
+        final String traceId = TraceId.fromLongs(0x0123456789abcdefL, -2L);
+
+        assertEquals(0x0123456789abcdefL, TailSamplingSpanProcessor.parseHex(traceId, 0));
+        assertEquals(-2L, TailSamplingSpanProcessor.parseHex(traceId, 16));
+    }
+
+    private TailSamplingSpanProcessor newProcessor(final TailSamplingSpanProcessor.Builder builder) {
+        return new TailSamplingSpanProcessor(builder.sweepIntervalMillis(0), clock::get);
+    }
+
+    private ReadableSpan span(final String traceId, final String parentSpanId, final StatusCanonicalCode code) {
+        final SpanData span = mock(SpanData.class);
+        final SpanData.Status status = mock(SpanData.Status.class);
+        when(status.getCanonicalCode()).thenReturn(code);
+        when(span.getTraceId()).thenReturn(traceId);
+        when(span.getSpanId()).thenReturn(String.format("%016x", nextSpanId++));
+        when(span.getParentSpanId()).thenReturn(parentSpanId);
+        when(span.getStatus()).thenReturn(status);
+        when(span.getAttributes()).thenReturn(Attributes.empty());
+        return readable(span);
+    }
+
+    private static ReadableSpan readable(final SpanData span) {
+        final ReadableSpan readable = mock(ReadableSpan.class);
+        when(readable.toSpanData()).thenReturn(span);
+        return readable;
+    }
+
+    private static Long orOne(final Long sampleRate) {
+        return sampleRate == null ? 1L : sampleRate;
+    }
+}
@@ -0,0 +1,213 @@
+package io.honeycomb.opentelemetry.samplers;
+
+import io.opentelemetry.common.AttributeKey;
+import io.opentelemetry.common.Attributes;
+import io.opentelemetry.sdk.trace.Sampler.Decision;
+import io.opentelemetry.sdk.trace.Sampler.SamplingResult;
+import io.opentelemetry.trace.Span;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ThroughputTraceSamplerTest {
+
+    private static final AttributeKey<Long> SAMPLE_RATE = AttributeKey.longKey("sample.rate");
+
+    private final AtomicLong clock = new AtomicLong();
+    private final Random random = new Random(42);
+
+    @Test
+    public void samplerShouldRejectInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> ThroughputTraceSampler.newBuilder().eventsPerSecond(0));
+        assertThrows(IllegalArgumentException.class, () -> ThroughputTraceSampler.newBuilder().epochMillis(0));
+        assertThrows(IllegalArgumentException.class, () -> ThroughputTraceSampler.newBuilder().weight(0));
+        assertThrows(IllegalArgumentException.class, () -> ThroughputTraceSampler.newBuilder().weight(1.5));
+        assertThrows(IllegalStateException.class, () -> ThroughputTraceSampler.newBuilder().build());
+        assertEquals("HoneycombThroughputSampler",
+            ThroughputTraceSampler.newBuilder().eventsPerSecond(1).build().getDescription());
+    }
+
+    @Test
+    public void trafficBelowBudgetIsAlwaysSampled() {
+        final ThroughputTraceSampler sampler = newSampler(100);
+
+        assertEquals(10 * 50, run(sampler, 50, 10));
+        assertEquals(1, sampler.getSampleRate());
+    }
+
+    @Test
+    public void steadyTrafficIsSampledDownToBudget() {
+        final ThroughputTraceSampler sampler = newSampler(100);
+
+        run(sampler, 10_000, 2);
+        assertAchievedRate(100, run(sampler, 10_000, 10), 10);
+        assertEquals(100, sampler.getSampleRate(), 20);
+    }
+
+    @Test
+    public void surgeIsCappedAndFollowed() {
+        final ThroughputTraceSampler sampler = newSampler(100);
+
+        run(sampler, 500, 5);
+        assertEquals(5, sampler.getSampleRate(), 1);
+
+        // a 20x surge: the token bucket ends epochs early instead of letting 2000 spans per second through
+        final long firstSecond = run(sampler, 10_000, 1);
+        assertTrue(firstSecond < 4 * 100, "sampled " + firstSecond + " in the first second of the surge");
+
+        run(sampler, 10_000, 4);
+        assertAchievedRate(100, run(sampler, 10_000, 10), 10);
+    }
+
+    @Test
+    public void trafficJustAboveBudgetIsNotSampledAtOne() {
+        final ThroughputTraceSampler sampler = newSampler(100);
+
+        // 1.4 times the budget: a rate of 1 would let every span through, as each empty bucket only starts a new epoch
+        run(sampler, 140, 5);
+        assertEquals(2, sampler.getSampleRate());
+        final long sampled = run(sampler, 140, 10);
+        assertTrue(sampled <= 100 * 10, "sampled " + sampled + " in 10 seconds");
+        assertAchievedRate(70, sampled, 10);
+    }
+
+    @Test
+    public void rateRecoversWhenTrafficDrops() {
+        final ThroughputTraceSampler sampler = newSampler(100);
+
+        run(sampler, 10_000, 5);
+        run(sampler, 500, 20);
+        assertAchievedRate(100, run(sampler, 500, 10), 10);
+        assertEquals(5, sampler.getSampleRate());
+    }
+
+    @Test
+    public void dailyCurveStaysNearBudget() {
+        final ThroughputTraceSampler sampler = newSampler(100);
+
+        long sampled = 0;
+        long total = 0;
+        for (int second = 0; second < 60; second++) {
+            // swings smoothly between 1000 and 20000 spans per second
+            final int spansPerSecond = (int) (10_500 - 9_500 * Math.cos(2 * Math.PI * second / 60));
+            final long sampledThisSecond = run(sampler, spansPerSecond, 1);
+            if (second >= 5) {
+                sampled += sampledThisSecond;
+                total++;
+            }
+        }
+        assertAchievedRate(100, sampled, total);
+    }
+
+    @Test
+    public void decisionsAreDeterministicPerTraceIdWithinEpoch() {
+        final ThroughputTraceSampler sampler = newSampler(1_000);
+        run(sampler, 100_000, 3);
+
+        // the clock does not move, and far fewer spans than the epoch's tokens are sampled, so the epoch stays
+        final int rate = sampler.getSampleRate();
+        assertTrue(rate > 1);
+        final DeterministicTraceSampler deterministic = new DeterministicTraceSampler(rate);
+        for (int i = 0; i < 10_000; i++) {
+            final String traceId = nextTraceId();
+            final SamplingResult result = shouldSample(sampler, traceId);
+            assertEquals(deterministic.sample(traceId), (long) result.getAttributes().get(SAMPLE_RATE));
+            assertEquals(deterministic.sample(traceId) > 0, result.getDecision() == Decision.RECORD_AND_SAMPLE);
+        }
+        assertEquals(rate, sampler.getSampleRate());
+    }
+
+    @Test
+    public void concurrentBurstIsCappedByTokens() throws Exception {
+        final ThroughputTraceSampler sampler = newSampler(1_000);
+        final int threads = 8;
+        final int spansPerThread = 20_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        final List<String> traceIds = new ArrayList<>();
+        for (int i = 0; i < 1_024; i++) {
+            traceIds.add(nextTraceId());
+        }
+        final LongAdder sampled = new LongAdder();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 128;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < spansPerThread; i++) {
+                        if (shouldSample(sampler, traceIds.get((offset + i) & 1023)).getDecision()
+                            == Decision.RECORD_AND_SAMPLE) {
+                            sampled.increment();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the clock stands still: the first epoch samples until its 1000 tokens run out, then the rate shoots up
+        assertTrue(sampled.sum() >= 1_000, "sampled " + sampled.sum());
+        assertTrue(sampled.sum() < 1_000 + 500, "sampled " + sampled.sum());
+        assertTrue(sampler.getSampleRate() > 100);
+    }
+
+    private ThroughputTraceSampler newSampler(final double eventsPerSecond) {
+        final ThroughputTraceSampler.Builder builder = ThroughputTraceSampler.newBuilder()
+            .eventsPerSecond(eventsPerSecond);
+        return new ThroughputTraceSampler(builder, clock::get);
+    }
+
+    /**
+     * Sends spans evenly spread over the given number of seconds, advancing the clock as it goes.
+     *
+     * @return the number of sampled spans.
+     */
+    private long run(final ThroughputTraceSampler sampler, final int spansPerSecond, final int seconds) {
+        final long interval = TimeUnit.SECONDS.toNanos(1) / spansPerSecond;
+        final long end = clock.get() + TimeUnit.SECONDS.toNanos(seconds);
+        long sampled = 0;
+        while (clock.get() < end) {
+            final SamplingResult result = shouldSample(sampler, nextTraceId());
+            if (result.getDecision() == Decision.RECORD_AND_SAMPLE) {
+                sampled++;
+            }
+            clock.addAndGet(interval);
+        }
+        return sampled;
+    }
+
+    private static void assertAchievedRate(final double eventsPerSecond, final long sampled, final long seconds) {
+        final double achieved = (double) sampled / seconds;
+        assertTrue(achieved > 0.8 * eventsPerSecond && achieved < 1.2 * eventsPerSecond,
+            "achieved " + achieved + " events per second");
+    }
+
+    private String nextTraceId() {
+        return String.format("%016x%016x", random.nextLong(), random.nextLong());
+    }
+
+    private static SamplingResult shouldSample(final ThroughputTraceSampler sampler, final String traceId) {
+        return sampler.shouldSample(null, traceId, "span", Span.Kind.SERVER, Attributes.empty(),
+            Collections.emptyList());
+    }
+}